@@ -0,0 +1,250 @@
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.*;
+
+/* An alternative front end of the game engine that renders actively into a Canvas with
+ * a BufferStrategy, instead of asking Swing to repaint a JPanel. Each frame is drawn
+ * into the back buffer and shown by the GameLoop thread itself, right after running the
+ * time frames, so that every frame is actually drawn and the time it takes to present
+ * it can be measured. The strategy flips pages where the graphics device can do that,
+ * and otherwise copies the back buffer to the screen. The canvas can also be shown in
+ * full screen exclusive mode, with the game in the middle of the screen. As in the
+ * GameEngine, the game is kept in a retained image where only the changed areas are
+ * drawn again, unless the dirty tracking has been turned off.
+ *
+ * Running this class as a program shows the given game in a window, or in full screen
+ * if the second argument is "fullscreen".
+ */
+
+public class CanvasEngine extends Canvas {
+
+    private static final long serialVersionUID = 1L;
+
+    private GameSimulation simulation;
+    private Dimension dimension;
+    private GameLoop loop;
+    private volatile BufferStrategy strategy;
+    private volatile int offsetX, offsetY; // where the game is drawn on the canvas
+    private GraphicsDevice fullScreenDevice;
+    private volatile RetainedImage retained;
+    private long presents, presentNanos, maxPresentNanos;
+
+    public CanvasEngine(Game game) {
+        this.setBackground(Color.BLACK);
+        this.dimension = game.getDimension();
+        this.setPreferredSize(dimension);
+        this.setIgnoreRepaint(true); // all drawing is done by the loop thread
+        this.setFocusable(true);
+        simulation = new GameSimulation(game);
+        setDirtyTracking(true);
+        // The game gets the events of the canvas in its own coordinates.
+        MouseAdapter mouse = new MouseAdapter() {
+            public void mousePressed(MouseEvent me) { forward(me); }
+            public void mouseReleased(MouseEvent me) { forward(me); }
+            public void mouseClicked(MouseEvent me) { forward(me); }
+            public void mouseEntered(MouseEvent me) { forward(me); }
+            public void mouseExited(MouseEvent me) { forward(me); }
+            public void mouseMoved(MouseEvent me) { forward(me); }
+            public void mouseDragged(MouseEvent me) { forward(me); }
+        };
+        this.addMouseListener(mouse);
+        this.addMouseMotionListener(mouse);
+        this.addKeyListener(new KeyAdapter() {
+            public void keyPressed(KeyEvent ke) {
+                if(ke.getKeyChar() == 'r') {
+                    simulation.startNewGame();
+                }
+                else { simulation.post(ke); }
+            }
+            public void keyReleased(KeyEvent ke) { simulation.post(ke); }
+            public void keyTyped(KeyEvent ke) { simulation.post(ke); }
+        });
+        loop = new CanvasLoop();
+        loop.start();
+    }
+
+    private void forward(MouseEvent me) {
+        me.translatePoint(-offsetX, -offsetY);
+        simulation.post(me);
+    }
+
+    public GameSimulation getSimulation() { return simulation; }
+    public GameLoop getLoop() { return loop; }
+
+    // See the methods of the same name in GameSimulation and GameEngine.
+    public void setCollisionGrid(double cellSize, double slack) {
+        simulation.setCollisionGrid(cellSize, slack);
+    }
+
+    public void setParallelCollisions(int minEntities) {
+        simulation.setParallelCollisions(minEntities);
+    }
+
+    public void setParallelUpdate(boolean parallelUpdate) {
+        simulation.setParallelUpdate(parallelUpdate);
+    }
+
+    public void setLayeredRendering(boolean layered) {
+        simulation.setLayeredRendering(layered);
+    }
+
+    public void setFrameGovernor(FrameGovernor governor) {
+        simulation.setFrameGovernor(governor);
+    }
+
+    public void setDirtyTracking(boolean tracking) {
+        simulation.setDirtyTracking(tracking);
+        retained = tracking ? new RetainedImage(simulation, getBackground()) : null;
+    }
+
+    public void setTickRate(int ticksPerSecond) {
+        loop.setTickRate(ticksPerSecond);
+    }
+
+    public void setFrameRate(int framesPerSecond) {
+        loop.setFrameRate(framesPerSecond);
+    }
+
+    // The buffer strategy can be created only once the canvas is displayable.
+    public void addNotify() {
+        super.addNotify();
+        try {
+            createBufferStrategy(2, new BufferCapabilities(new ImageCapabilities(true),
+                new ImageCapabilities(true), BufferCapabilities.FlipContents.UNDEFINED));
+        }
+        catch(AWTException e) {
+            createBufferStrategy(2); // copies from an accelerated back buffer, if possible
+        }
+        strategy = getBufferStrategy();
+    }
+
+    public void removeNotify() {
+        strategy = null;
+        super.removeNotify();
+    }
+
+    // Whether the frames are shown by flipping pages instead of copying the back buffer.
+    public boolean isPageFlipping() {
+        BufferStrategy bs = strategy;
+        return bs != null && bs.getCapabilities().isPageFlipping();
+    }
+
+    // Shows this canvas as the only content of the frame in full screen exclusive mode on
+    // the screen of the frame. This must be called before the frame has been made visible.
+    // If the screen does not support exclusive mode, the frame is just maximized without
+    // decorations. Returns whether the exclusive mode was entered.
+    public boolean showFullScreen(Frame frame) {
+        frame.setUndecorated(true);
+        frame.setIgnoreRepaint(true);
+        frame.setResizable(false);
+        if(getParent() != frame) { frame.add(this); }
+        GraphicsDevice device = frame.getGraphicsConfiguration().getDevice();
+        if(device.isFullScreenSupported()) {
+            device.setFullScreenWindow(frame);
+            fullScreenDevice = device;
+        }
+        else {
+            frame.setExtendedState(Frame.MAXIMIZED_BOTH);
+            frame.setVisible(true);
+        }
+        requestFocus();
+        return fullScreenDevice != null;
+    }
+
+    // The average and the longest time in milliseconds that it has taken to draw and show
+    // one frame, measured from the start of drawing to the return of showing.
+    public double getAveragePresentMillis() {
+        return presents == 0 ? 0 : presentNanos / (presents * 1e6);
+    }
+
+    public double getMaxPresentMillis() {
+        return maxPresentNanos / 1e6;
+    }
+
+    public void terminate() {
+        loop.stop();
+        if(fullScreenDevice != null) {
+            fullScreenDevice.setFullScreenWindow(null);
+            fullScreenDevice = null;
+        }
+        simulation.terminate();
+        System.out.printf("Canvas engine loop terminated after %s, presenting took %.2f ms on average, %.2f ms at most%n",
+            loop, getAveragePresentMillis(), getMaxPresentMillis());
+        for(EntityPool<?> pool: simulation.getPools()) { System.out.println(pool); }
+        for(SpriteCache cache: simulation.getSpriteCaches()) { System.out.println(cache); }
+        if(retained != null) { System.out.println(retained); }
+        if(simulation.getCompositor() != null) { System.out.println(simulation.getCompositor()); }
+        if(simulation.getFrameGovernor() != null) { System.out.println(simulation.getFrameGovernor()); }
+    }
+
+    // Draws one frame into the back buffer and shows it, redrawing the frame for as long
+    // as the contents of the buffers get lost while doing so.
+    private void present(double alpha) {
+        BufferStrategy bs = strategy;
+        if(bs == null) { return; }
+        long start = System.nanoTime();
+        int w = getWidth(), h = getHeight();
+        offsetX = Math.max(0, (w - dimension.width) / 2);
+        offsetY = Math.max(0, (h - dimension.height) / 2);
+        try {
+            do {
+                do {
+                    Graphics2D g2 = (Graphics2D)bs.getDrawGraphics();
+                    try {
+                        g2.setColor(getBackground());
+                        g2.fillRect(0, 0, w, h);
+                        g2.translate(offsetX, offsetY);
+                        g2.clipRect(0, 0, dimension.width, dimension.height);
+                        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                          RenderingHints.VALUE_ANTIALIAS_ON); // looks nicer
+                        RetainedImage r = retained;
+                        if(r != null) { r.paint(g2, alpha, getGraphicsConfiguration()); }
+                        else { simulation.render(g2, alpha); }
+                    }
+                    finally { g2.dispose(); }
+                } while(bs.contentsRestored());
+                bs.show();
+            } while(bs.contentsLost());
+        }
+        catch(IllegalStateException e) { return; } // the canvas was just taken off the screen
+        Toolkit.getDefaultToolkit().sync(); // don't let the window system queue up the frames
+        long took = System.nanoTime() - start;
+        presents++;
+        presentNanos += took;
+        maxPresentNanos = Math.max(maxPresentNanos, took);
+    }
+
+    // The time frames and the drawing are both done in the loop thread, so the simulation
+    // renders the entities directly without recording them.
+    private class CanvasLoop extends GameLoop {
+        public CanvasLoop() {
+            super(simulation, 25, 60);
+        }
+
+        protected void present(double alpha) {
+            CanvasEngine.this.present(alpha);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String name = args.length > 0 ? args[0] : "SpaceGame";
+        Game game = (Game)Class.forName(name).getDeclaredConstructor().newInstance();
+        final Frame f = new Frame(game.getTitle());
+        final CanvasEngine engine = new CanvasEngine(game);
+        f.addWindowListener(new WindowAdapter() {
+            public void windowClosing(WindowEvent we) {
+                engine.terminate();
+                f.dispose();
+            }
+        });
+        if(args.length > 1 && args[1].equals("fullscreen")) {
+            engine.showFullScreen(f);
+        }
+        else {
+            f.add(engine);
+            f.pack();
+            f.setVisible(true);
+            engine.requestFocus();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+/* An optional interface for the entities that want the game engine to find their
+ * collisions for them, instead of calling getCollisions in their action method. Once
+ * per time frame, after all entities have acted, the engine finds every pair of
+ * overlapping entities on each Z-level that contains some Colliders, and calls the
+ * collide method of each Collider once for each entity that overlaps it. This way each
+ * pair is found only once, and the result does not depend on the order in which the
+ * entities happened to act.
+ */
+
+public interface Collider extends Entity {
+
+    // Called by the game engine when this entity overlaps the other entity at the end
+    // of the time frame. The other entity is still active when this method is called.
+    public void collide(Entity other);
+}
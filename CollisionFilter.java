@@ -0,0 +1,45 @@
+/* An optional interface for the entities that want to choose what they can collide
+ * with. Each entity belongs to some categories, given as bits of an int, and has a mask
+ * of the categories that it can collide with. Two entities can collide only if each
+ * belongs to some category in the mask of the other, and the game engine rejects all
+ * other pairs before looking at their shapes at all. Entities that do not implement
+ * this interface belong to DEFAULTCATEGORY and can collide with all categories.
+ *
+ * The collision layer decides which entities are tested against each other in the
+ * first place, the same way as the Z-level does for the entities that do not implement
+ * this interface. This way an entity can be rendered on a different Z-level than the
+ * entities that it collides with.
+ */
+
+public interface CollisionFilter extends Entity {
+
+    public static final int DEFAULTCATEGORY = 1;
+    public static final int ALLCATEGORIES = -1;
+
+    // The categories that this entity belongs to. Must not change over time.
+    public int getCollisionCategory();
+
+    // The categories that this entity can collide with. Must not change over time.
+    public int getCollisionMask();
+
+    // The collision layer of this entity, usually getZ(). Must not change over time.
+    public int getCollisionLayer();
+
+    // The collision layer, categories and mask of any entity.
+    public static int layerOf(Entity e) {
+        return e instanceof CollisionFilter ? ((CollisionFilter)e).getCollisionLayer() : e.getZ();
+    }
+
+    public static int categoryOf(Entity e) {
+        return e instanceof CollisionFilter ? ((CollisionFilter)e).getCollisionCategory() : DEFAULTCATEGORY;
+    }
+
+    public static int maskOf(Entity e) {
+        return e instanceof CollisionFilter ? ((CollisionFilter)e).getCollisionMask() : ALLCATEGORIES;
+    }
+
+    // Whether the entities with these categories and masks can collide with each other.
+    public static boolean accepts(int categoryA, int maskA, int categoryB, int maskB) {
+        return (categoryA & maskB) != 0 && (categoryB & maskA) != 0;
+    }
+}
@@ -0,0 +1,123 @@
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import javax.swing.*;
+
+/* A pixel-perfect collision mask of a sprite image, computed once when the image is
+ * loaded. Each row of pixels is packed into 64-bit words, one bit per pixel, so that
+ * two masks can be tested for overlap one word of 64 pixels at a time by shifting the
+ * words of one mask to line up with the other and then taking their bitwise AND. The
+ * mask is placed in the game as a MaskShape, which an entity returns from its getShape
+ * method to get exact collisions against its visible pixels.
+ */
+
+public class CollisionMask {
+
+    private final int width, height, words;
+    // The bits of each row, the leftmost pixel of each word in its lowest bit.
+    private final long[] bits;
+
+    // Creates the mask of the pixels of the image that are more opaque than half.
+    public CollisionMask(Image img) {
+        this(img, null, 0);
+    }
+
+    // Creates the mask of an image without an alpha channel, such as a JPEG, so that the
+    // pixels whose red, green and blue all differ from the background color by at most
+    // the tolerance count as empty.
+    public CollisionMask(Image img, Color background, int tolerance) {
+        MediaTracker m = new MediaTracker(new JPanel());
+        m.addImage(img, 0);
+        try { m.waitForAll(); } catch(InterruptedException e) { }
+        width = Math.max(img.getWidth(null), 0);
+        height = Math.max(img.getHeight(null), 0);
+        words = (width + 63) / 64;
+        bits = new long[height * words];
+        if(width == 0 || height == 0) { return; }
+        BufferedImage bi = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = bi.createGraphics();
+        g2.drawImage(img, 0, 0, null);
+        g2.dispose();
+        int[] argb = bi.getRGB(0, 0, width, height, null, 0, width);
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                int p = argb[y * width + x];
+                boolean solid = (p >>> 24) >= 128;
+                if(solid && background != null) {
+                    solid = Math.abs(((p >> 16) & 255) - background.getRed()) > tolerance
+                        || Math.abs(((p >> 8) & 255) - background.getGreen()) > tolerance
+                        || Math.abs((p & 255) - background.getBlue()) > tolerance;
+                }
+                if(solid) { bits[y * words + (x >> 6)] |= 1L << (x & 63); }
+            }
+        }
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    // Whether the pixel (x, y) of the mask is solid.
+    public boolean get(int x, int y) {
+        if(x < 0 || y < 0 || x >= width || y >= height) { return false; }
+        return (bits[y * words + (x >> 6)] & (1L << (x & 63))) != 0;
+    }
+
+    // The word w of the given row, zero outside the mask.
+    private long word(int row, int w) {
+        return w < 0 || w >= words ? 0 : bits[row * words + w];
+    }
+
+    // The 64 bits of the given row starting from the column start, which can be negative.
+    private long bitsAt(int row, int start) {
+        int w = Math.floorDiv(start, 64), s = Math.floorMod(start, 64);
+        long lo = word(row, w);
+        return s == 0 ? lo : (lo >>> s) | (word(row, w + 1) << (64 - s));
+    }
+
+    // Whether this mask placed at (x, y) and the other mask placed at (ox, oy) have any
+    // solid pixel in common.
+    public boolean overlaps(int x, int y, CollisionMask other, int ox, int oy) {
+        int r0 = Math.max(y, oy), r1 = Math.min(y + height, oy + other.height);
+        int c0 = Math.max(x, ox), c1 = Math.min(x + width, ox + other.width);
+        if(r0 >= r1 || c0 >= c1) { return false; } // the bounding boxes do not overlap
+        int dx = ox - x, w0 = (c0 - x) >> 6, w1 = (c1 - x - 1) >> 6;
+        for(int r = r0; r < r1; r++) {
+            int row = r - y, otherRow = r - oy;
+            for(int w = w0; w <= w1; w++) {
+                if((bits[row * words + w] & other.bitsAt(otherRow, 64 * w - dx)) != 0) { return true; }
+            }
+        }
+        return false;
+    }
+
+    // Whether this mask placed at (x, y) has a solid pixel that overlaps the interior of
+    // the rectangle from (minX, minY) to (maxX, maxY).
+    public boolean overlapsRectangle(int x, int y, double minX, double minY, double maxX, double maxY) {
+        int c0 = Math.max(0, (int)Math.floor(minX - x)), c1 = Math.min(width - 1, (int)Math.ceil(maxX - x) - 1);
+        int r0 = Math.max(0, (int)Math.floor(minY - y)), r1 = Math.min(height - 1, (int)Math.ceil(maxY - y) - 1);
+        if(c0 > c1 || r0 > r1) { return false; }
+        for(int w = c0 >> 6; w <= c1 >> 6; w++) {
+            // The bits of the columns c0 to c1 that fall inside this word.
+            int lo = Math.max(c0 - 64 * w, 0), hi = Math.min(c1 - 64 * w, 63);
+            long cols = (hi == 63 ? -1L : (1L << (hi + 1)) - 1) & (-1L << lo);
+            for(int r = r0; r <= r1; r++) {
+                if((bits[r * words + w] & cols) != 0) { return true; }
+            }
+        }
+        return false;
+    }
+
+    // Whether this mask placed at (x, y) has a solid pixel whose square the shape touches.
+    // This works for all shapes, but looks at the pixels one at a time.
+    public boolean overlapsShape(int x, int y, Shape s) {
+        Rectangle2D b = s.getBounds2D();
+        int c0 = Math.max(0, (int)Math.floor(b.getMinX() - x)), c1 = Math.min(width - 1, (int)Math.ceil(b.getMaxX() - x) - 1);
+        int r0 = Math.max(0, (int)Math.floor(b.getMinY() - y)), r1 = Math.min(height - 1, (int)Math.ceil(b.getMaxY() - y) - 1);
+        for(int r = r0; r <= r1; r++) {
+            for(int c = c0; c <= c1; c++) {
+                if(get(c, r) && s.intersects(x + c, y + r, 1, 1)) { return true; }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,21 @@
+/* An optional interface for the entities whose action methods can be run at the same
+ * time as those of the other concurrent entities, once the game has turned on the
+ * parallel update with setParallelUpdate of GameSimulation or GameEngine. Each time
+ * frame, the game engine then runs the actions of all other entities first, and after
+ * them the actions of the concurrent entities split into chunks that run on all cores.
+ *
+ * While the concurrent entities act, their action methods may change only the state of
+ * their own entity, and must not call the methods of other entities directly. The spatial
+ * queries of GameHooks look at the shapes of the entities as they were at the start of
+ * the time frame, so that every concurrent entity sees the same world no matter in which
+ * order the entities happen to act. The effects on the rest of the game are buffered by
+ * GameHooks: the points granted are summed up per chunk, and the added entities and the
+ * messages sent with postMessage are queued per chunk. After all concurrent entities
+ * have acted, the buffered effects of each chunk are applied in the order of the chunks,
+ * so that the result is the same as if the entities had acted one at a time.
+ *
+ * Without the parallel update, a concurrent entity acts like any other entity.
+ */
+
+public interface ConcurrentEntity extends Entity {
+}
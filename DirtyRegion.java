@@ -0,0 +1,159 @@
+import java.awt.*;
+import java.awt.geom.*;
+import java.util.*;
+
+/* The parts of the screen whose pixels may have changed, kept as a grid of square tiles
+ * of TILE pixels that are each either dirty or clean. The areas added to the region are
+ * rounded out to whole tiles, so that adding many small areas near each other costs no
+ * more than adding one, and the region never gets more complicated than its grid. The
+ * game engine collects the areas where the entities have changed into a dirty region
+ * during each time frame, and the front ends then redraw only those tiles of the screen,
+ * leaving the rest of it as it was drawn earlier.
+ */
+
+public class DirtyRegion {
+
+    // The size of the tiles in pixels.
+    public static final int TILE = 32;
+
+    // How far past the bounding box of its shape an entity may draw, for the strokes and
+    // the antialiasing of its edges.
+    public static final double MARGIN = 4;
+
+    private final int width, height, cols, rows;
+    private final boolean[] tiles;
+    private int count;
+
+    // Reused when turning the tiles into rectangles.
+    private final boolean[] used;
+    private final Path2D.Double path = new Path2D.Double();
+
+    // Creates an empty region of the given size in pixels.
+    public DirtyRegion(int width, int height) {
+        if(width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Illegal dirty region of size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        cols = (width + TILE - 1) / TILE;
+        rows = (height + TILE - 1) / TILE;
+        tiles = new boolean[cols * rows];
+        used = new boolean[cols * rows];
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    public boolean isEmpty() { return count == 0; }
+    public boolean isFull() { return count == tiles.length; }
+
+    // The number of dirty tiles, and the number of all tiles.
+    public int getDirtyTiles() { return count; }
+    public int getTiles() { return tiles.length; }
+
+    public void clear() {
+        if(count > 0) {
+            Arrays.fill(tiles, false);
+            count = 0;
+        }
+    }
+
+    // Makes the entire region dirty.
+    public void addAll() {
+        if(count < tiles.length) {
+            Arrays.fill(tiles, true);
+            count = tiles.length;
+        }
+    }
+
+    // Makes dirty the tiles that the rectangle touches. The parts of the rectangle outside
+    // the region are ignored, as is a rectangle of negative or unknown size.
+    public void add(double x, double y, double w, double h) {
+        if(count == tiles.length || !(w >= 0 && h >= 0)) { return; }
+        int c0 = Math.max(0, (int)Math.floor(x / TILE));
+        int r0 = Math.max(0, (int)Math.floor(y / TILE));
+        int c1 = Math.min(cols - 1, (int)Math.floor((x + w) / TILE));
+        int r1 = Math.min(rows - 1, (int)Math.floor((y + h) / TILE));
+        for(int r = r0; r <= r1; r++) {
+            for(int i = r * cols + c0, end = r * cols + c1; i <= end; i++) {
+                if(!tiles[i]) { tiles[i] = true; count++; }
+            }
+        }
+    }
+
+    public void add(Rectangle2D rect) {
+        add(rect.getX(), rect.getY(), rect.getWidth(), rect.getHeight());
+    }
+
+    // As above, but grown by the MARGIN on every side.
+    public void addPainted(Rectangle2D rect) {
+        add(rect.getX() - MARGIN, rect.getY() - MARGIN, rect.getWidth() + 2 * MARGIN, rect.getHeight() + 2 * MARGIN);
+    }
+
+    // Makes dirty the tiles that are dirty in the other region of the same size.
+    public void add(DirtyRegion other) {
+        checkSize(other);
+        if(count == tiles.length || other.count == 0) { return; }
+        if(other.count == other.tiles.length) { addAll(); return; }
+        for(int i = 0; i < tiles.length; i++) {
+            if(other.tiles[i] && !tiles[i]) { tiles[i] = true; count++; }
+        }
+    }
+
+    // Makes this region the same as the other region of the same size.
+    public void set(DirtyRegion other) {
+        checkSize(other);
+        System.arraycopy(other.tiles, 0, tiles, 0, tiles.length);
+        count = other.count;
+    }
+
+    private void checkSize(DirtyRegion other) {
+        if(other.width != width || other.height != height) {
+            throw new IllegalArgumentException("Dirty regions of different sizes");
+        }
+    }
+
+    // The dirty tiles as a shape made of as few rectangles as the greedy way finds, for
+    // clipping the drawing to them. The returned shape is reused by the next call.
+    public Shape getShape() {
+        path.reset();
+        if(count == 0) { return path; }
+        if(count == tiles.length) {
+            rect(0, 0, width, height);
+            return path;
+        }
+        Arrays.fill(used, false);
+        for(int r = 0; r < rows; r++) {
+            for(int c = 0; c < cols; c++) {
+                if(!tiles[r * cols + c] || used[r * cols + c]) { continue; }
+                // Extend the rectangle first right and then down for as long as it can.
+                int c1 = c + 1;
+                while(c1 < cols && tiles[r * cols + c1] && !used[r * cols + c1]) { c1++; }
+                int r1 = r + 1;
+                while(r1 < rows && isFree(r1, c, c1)) { r1++; }
+                for(int rr = r; rr < r1; rr++) { Arrays.fill(used, rr * cols + c, rr * cols + c1, true); }
+                rect(c * TILE, r * TILE, Math.min(width, c1 * TILE), Math.min(height, r1 * TILE));
+            }
+        }
+        return path;
+    }
+
+    private boolean isFree(int r, int c0, int c1) {
+        for(int i = r * cols + c0, end = r * cols + c1; i < end; i++) {
+            if(!tiles[i] || used[i]) { return false; }
+        }
+        return true;
+    }
+
+    private void rect(int x0, int y0, int x1, int y1) {
+        path.moveTo(x0, y0);
+        path.lineTo(x1, y0);
+        path.lineTo(x1, y1);
+        path.lineTo(x0, y1);
+        path.closePath();
+    }
+
+    public String toString() {
+        return "Dirty region of " + count + " of " + tiles.length + " tiles";
+    }
+}
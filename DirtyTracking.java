@@ -0,0 +1,17 @@
+/* An optional interface for the entities that know better than the game engine where
+ * on the screen they change from one time frame to the next, such as particle systems
+ * and ECS worlds that draw many small things without a shape of their own. When the game
+ * engine tracks the dirty regions, it normally compares the bounding box and the shape
+ * key of each entity with those of the previous time frame, and since an entity with an
+ * empty shape could be drawn anywhere, such an entity makes the whole screen dirty every
+ * time frame. The entities that implement this interface tell their changes themselves.
+ */
+
+public interface DirtyTracking extends Entity {
+
+    // Called by the game engine at the end of the time frame t. Adds to the region every
+    // area where this entity was drawn at time t - 1 with alpha 1, and every area where
+    // it may be drawn at time t with any alpha, except for the areas where it is sure to
+    // look exactly the same in both.
+    public void addDirty(DirtyRegion region, int t);
+}
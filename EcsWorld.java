@@ -0,0 +1,417 @@
+import java.awt.*;
+import java.awt.geom.*;
+import java.util.*;
+
+/* An optional entity-component-system core for games that need many simple entities.
+ * An ECS entity is not an object, but only an integer handle to one row of the world,
+ * and its components are stored in packed primitive columns, one array per field:
+ *
+ *   TRANSFORM   the position (x, y) of the top left corner, which every entity has
+ *   MOTION      the velocity (vx, vy) and acceleration (ax, ay) of Newtonian motion
+ *   COLLIDER    an axis-aligned box of size (w, h) that takes part in the collisions
+ *   RENDERABLE  a rectangle or oval of size (w, h) filled with one color
+ *
+ * The systems of the world are loops over these columns instead of method calls on
+ * objects. The rows are kept dense by moving the last row into the place of a destroyed
+ * one, so the order of the rows is not stable. The motion system integrates every row
+ * in one pass without looking at which rows have the MOTION component, since the rows
+ * without it have zero velocity and acceleration and therefore do not move. This pass
+ * is done by an Integrator that uses the Vector API of jdk.incubator.vector to update
+ * several rows per instruction, if the class VectorMotion (see its source file under
+ * the folder incubator) has been compiled and the incubator module has been added to
+ * the JVM. Otherwise a plain loop is used that the JIT compiler may vectorize by itself.
+ *
+ * The world itself is an ordinary entity of the game on its own Z-level, so the ECS
+ * entities live in the same game as all the other entities. The world moves its rows
+ * in its action and draws all its renderables in its render. Each row with a COLLIDER
+ * also gets a small body object, which the world adds to the game as an entity of the
+ * given collision layer, so that other entities find it in their collisions and queries
+ * and can send messages to it. The messages and collisions of the bodies are passed on
+ * to the Handler of the collider. The body stays in the game for as long as its row
+ * does, and its getZ is the Z-level of the world, where it draws nothing by itself.
+ * For the dirty regions of the game engine, the world tells the areas that each of its
+ * renderables has moved over during the time frame.
+ */
+
+public class EcsWorld implements DirtyTracking {
+
+    // The component bits of a row.
+    public static final int TRANSFORM = 1, MOTION = 2, COLLIDER = 4, RENDERABLE = 8;
+
+    // The handle that never refers to any row.
+    public static final int NOHANDLE = 0;
+
+    private static final int INDEXBITS = 22, INDEXMASK = (1 << INDEXBITS) - 1;
+    private static final int MAXGENERATION = (1 << (32 - INDEXBITS)) - 1;
+
+    // Moves n rows of one axis with v += a and then x += v.
+    public interface Integrator {
+        public void integrate(double[] x, double[] v, double[] a, int n);
+    }
+
+    // Receives the collisions and messages of the bodies of the colliders.
+    public interface Handler {
+        // Called when the body of the row h overlaps the other entity at the end of the
+        // time frame, if the collider was set up with collides true.
+        public default void collide(EcsWorld world, int h, Entity other) { }
+
+        // Called when some entity sends a message to the body of the row h.
+        public default void receive(EcsWorld world, int h, Entity source, String msg) { }
+    }
+
+    private static final Integrator INTEGRATOR = findIntegrator();
+    private static final Shape NOSHAPE = new Rectangle2D.Double();
+
+    private final GameHooks hooks;
+    private final int z;
+    private final Integrator integrator = INTEGRATOR;
+
+    // The handle table maps each slot to its row, and each row knows its slot.
+    private int[] rows = new int[64];
+    private int[] generations = new int[64];
+    private int[] free = new int[64];
+    private int freeCount, slotCount;
+
+    // The columns, with count rows in use. The destroyed rows have no components, and
+    // they are compacted away at the start of the next action.
+    private int count, destroyed;
+    private int[] slot = new int[64], components = new int[64];
+    private double[] x = new double[64], y = new double[64];
+    private double[] prevX = new double[64], prevY = new double[64];
+    private double[] vx = new double[64], vy = new double[64];
+    private double[] ax = new double[64], ay = new double[64];
+    private double[] cw = new double[64], ch = new double[64];
+    private Body[] bodies = new Body[64];
+    private double[] rw = new double[64], rh = new double[64];
+    private int[] color = new int[64];
+    private boolean[] round = new boolean[64];
+
+    // The rows whose position leaves these bounds are destroyed.
+    private double minX = Double.NEGATIVE_INFINITY, minY = Double.NEGATIVE_INFINITY;
+    private double maxX = Double.POSITIVE_INFINITY, maxY = Double.POSITIVE_INFINITY;
+
+    // The time of the latest action, to know whether prevX and prevY are of this frame.
+    private int movedTime = -1;
+
+    // The boxes that the renderables set to a new position were drawn in before that, not
+    // yet added to a dirty region, or too many of them to keep track of.
+    private static final int MAXLEFT = 1024;
+    private int leftCount;
+    private double[] left = new double[64];
+    private boolean leftTooMany;
+
+    // Reused by render, so that drawing the rows allocates nothing.
+    private final Rectangle2D.Double box = new Rectangle2D.Double();
+    private final Ellipse2D.Double oval = new Ellipse2D.Double();
+
+    public EcsWorld(GameHooks hooks, int z) {
+        this.hooks = hooks;
+        this.z = z;
+    }
+
+    private static Integrator findIntegrator() {
+        try {
+            return (Integrator)Class.forName("VectorMotion").getDeclaredConstructor().newInstance();
+        }
+        catch(ReflectiveOperationException | LinkageError e) { // not compiled, or no incubator module
+            return new ScalarMotion();
+        }
+    }
+
+    private static class ScalarMotion implements Integrator {
+        public void integrate(double[] x, double[] v, double[] a, int n) {
+            for(int i = 0; i < n; i++) {
+                double nv = v[i] + a[i];
+                v[i] = nv;
+                x[i] += nv;
+            }
+        }
+    }
+
+    // The name of the integrator class that moves the rows.
+    public static String getIntegratorName() { return INTEGRATOR.getClass().getSimpleName(); }
+
+    // Destroys every row whose position leaves the given bounds, checked once per action.
+    public void setBounds(double minX, double minY, double maxX, double maxY) {
+        this.minX = minX; this.minY = minY; this.maxX = maxX; this.maxY = maxY;
+    }
+
+    // The number of rows that have not been destroyed.
+    public int getCount() { return count - destroyed; }
+
+    // Creates a new row at the given position with only the TRANSFORM component, and
+    // returns its handle, which stays valid until the row is destroyed.
+    public int create(double px, double py) {
+        int idx;
+        if(freeCount > 0) { idx = free[--freeCount]; }
+        else {
+            if(slotCount == rows.length) {
+                int cap = 2 * slotCount;
+                rows = Arrays.copyOf(rows, cap);
+                generations = Arrays.copyOf(generations, cap);
+            }
+            if(slotCount > INDEXMASK) {
+                throw new IllegalStateException("Too many rows, at most " + (INDEXMASK + 1) + " allowed");
+            }
+            idx = slotCount++;
+            generations[idx] = 1;
+        }
+        if(count == x.length) { grow(2 * count); }
+        int r = count++;
+        rows[idx] = r;
+        slot[r] = idx;
+        components[r] = TRANSFORM;
+        x[r] = prevX[r] = px; y[r] = prevY[r] = py;
+        vx[r] = vy[r] = ax[r] = ay[r] = 0;
+        rw[r] = rh[r] = 0;
+        return (generations[idx] << INDEXBITS) | idx;
+    }
+
+    // Destroys the row of the handle, if it still exists. Its body, if any, leaves the
+    // game at the end of the time frame.
+    public void destroy(int h) {
+        int r = row(h);
+        if(r < 0) { return; }
+        int idx = h & INDEXMASK;
+        generations[idx] = generations[idx] == MAXGENERATION ? 1 : generations[idx] + 1;
+        if(freeCount == free.length) { free = Arrays.copyOf(free, 2 * freeCount); }
+        free[freeCount++] = idx;
+        components[r] = 0;
+        destroyed++;
+    }
+
+    public boolean isLive(int h) { return row(h) >= 0; }
+
+    // Whether the row of the handle exists and has all the given components.
+    public boolean has(int h, int component) {
+        int r = row(h);
+        return r >= 0 && (components[r] & component) == component;
+    }
+
+    public double getX(int h) { return x[rowOf(h)]; }
+    public double getY(int h) { return y[rowOf(h)]; }
+    public double getVX(int h) { return vx[rowOf(h)]; }
+    public double getVY(int h) { return vy[rowOf(h)]; }
+
+    public void setPosition(int h, double px, double py) {
+        int r = rowOf(h);
+        if(rw[r] > 0 || rh[r] > 0) { leave(r); }
+        x[r] = px; y[r] = py;
+    }
+
+    private void leave(int r) {
+        if(leftCount == MAXLEFT) { leftTooMany = true; return; }
+        if(4 * leftCount == left.length) { left = Arrays.copyOf(left, 2 * left.length); }
+        left[4 * leftCount] = Math.min(x[r], prevX[r]);
+        left[4 * leftCount + 1] = Math.min(y[r], prevY[r]);
+        left[4 * leftCount + 2] = Math.abs(x[r] - prevX[r]) + rw[r];
+        left[4 * leftCount + 3] = Math.abs(y[r] - prevY[r]) + rh[r];
+        leftCount++;
+    }
+
+    // Gives the row the MOTION component with the given velocity and acceleration.
+    public void setMotion(int h, double pvx, double pvy, double pax, double pay) {
+        int r = rowOf(h);
+        vx[r] = pvx; vy[r] = pvy; ax[r] = pax; ay[r] = pay;
+        components[r] |= MOTION;
+    }
+
+    public void removeMotion(int h) {
+        int r = rowOf(h);
+        vx[r] = vy[r] = ax[r] = ay[r] = 0; // so that the motion system leaves the row be
+        components[r] &= ~MOTION;
+    }
+
+    // Gives the row the COLLIDER component, and adds its body to the game on the given
+    // collision layer with the given categories and mask, as in CollisionFilter. If the
+    // collides is true, the game engine finds the collisions of the body and passes them
+    // to the handler, as for a Collider. A row can get its collider only once.
+    public void setCollider(int h, double w, double hgt, int category, int mask, int layer,
+    boolean collides, Handler handler) {
+        int r = rowOf(h);
+        if((components[r] & COLLIDER) != 0) {
+            throw new IllegalStateException("The row already has a collider");
+        }
+        cw[r] = w; ch[r] = hgt;
+        Body body = collides ? new ColliderBody(h, category, mask, layer, handler)
+            : new Body(h, category, mask, layer, handler);
+        bodies[r] = body;
+        components[r] |= COLLIDER;
+        hooks.addEntity(body);
+    }
+
+    // Returns the body of the row as an entity of the game, or null if it has no collider.
+    public Entity getBody(int h) {
+        int r = row(h);
+        return r < 0 ? null : bodies[r];
+    }
+
+    // Gives the row the RENDERABLE component, drawn as a rectangle or an oval of the
+    // given size and ARGB color from its position.
+    public void setRenderable(int h, double w, double hgt, int argb, boolean isRound) {
+        int r = rowOf(h);
+        rw[r] = w; rh[r] = hgt;
+        color[r] = argb;
+        round[r] = isRound;
+        components[r] |= RENDERABLE;
+    }
+
+    public void removeRenderable(int h) {
+        components[rowOf(h)] &= ~RENDERABLE;
+    }
+
+    private int row(int h) {
+        int idx = h & INDEXMASK;
+        if(h == NOHANDLE || idx >= slotCount || generations[idx] != h >>> INDEXBITS) { return -1; }
+        return rows[idx];
+    }
+
+    private int rowOf(int h) {
+        int r = row(h);
+        if(r < 0) { throw new IllegalArgumentException("No row for the handle " + h); }
+        return r;
+    }
+
+    private void grow(int cap) {
+        slot = Arrays.copyOf(slot, cap); components = Arrays.copyOf(components, cap);
+        x = Arrays.copyOf(x, cap); y = Arrays.copyOf(y, cap);
+        prevX = Arrays.copyOf(prevX, cap); prevY = Arrays.copyOf(prevY, cap);
+        vx = Arrays.copyOf(vx, cap); vy = Arrays.copyOf(vy, cap);
+        ax = Arrays.copyOf(ax, cap); ay = Arrays.copyOf(ay, cap);
+        cw = Arrays.copyOf(cw, cap); ch = Arrays.copyOf(ch, cap);
+        bodies = Arrays.copyOf(bodies, cap);
+        rw = Arrays.copyOf(rw, cap); rh = Arrays.copyOf(rh, cap);
+        color = Arrays.copyOf(color, cap); round = Arrays.copyOf(round, cap);
+    }
+
+    // Moves the last row into the place of each destroyed row.
+    private void compact() {
+        int r = 0;
+        while(destroyed > 0 && r < count) {
+            if(components[r] != 0) { r++; continue; }
+            int last = --count;
+            if(components[last] == 0) { bodies[last] = null; destroyed--; continue; }
+            slot[r] = slot[last]; rows[slot[r]] = r;
+            components[r] = components[last];
+            x[r] = x[last]; y[r] = y[last];
+            prevX[r] = prevX[last]; prevY[r] = prevY[last];
+            vx[r] = vx[last]; vy[r] = vy[last];
+            ax[r] = ax[last]; ay[r] = ay[last];
+            cw[r] = cw[last]; ch[r] = ch[last];
+            bodies[r] = bodies[last]; bodies[last] = null;
+            rw[r] = rw[last]; rh[r] = rh[last];
+            color[r] = color[last]; round[r] = round[last];
+            destroyed--;
+            r++;
+        }
+    }
+
+    // The systems of the world: compaction, motion and bounds, in this order.
+    public void action(int t) {
+        compact();
+        System.arraycopy(x, 0, prevX, 0, count);
+        System.arraycopy(y, 0, prevY, 0, count);
+        integrator.integrate(x, vx, ax, count);
+        integrator.integrate(y, vy, ay, count);
+        movedTime = t;
+        for(int r = 0; r < count; r++) {
+            if(components[r] != 0 && (x[r] < minX || x[r] > maxX || y[r] < minY || y[r] > maxY)) {
+                destroy((generations[slot[r]] << INDEXBITS) | slot[r]);
+            }
+        }
+    }
+
+    // The render system draws the renderable rows in the order of their rows, each shifted
+    // back towards its previous position the same way as a NewtonEntity.
+    public void render(Graphics2D g2, int t, double alpha) {
+        boolean moved = movedTime == t;
+        RenderRecorder rec = moved && g2 instanceof RenderRecorder ? (RenderRecorder)g2 : null;
+        double back = moved && rec == null && alpha < 1 ? alpha - 1 : 0;
+        int lastColor = 0;
+        Color paint = null;
+        for(int r = 0; r < count; r++) {
+            if((components[r] & RENDERABLE) == 0) { continue; }
+            if(paint == null || color[r] != lastColor) {
+                lastColor = color[r];
+                paint = new Color(lastColor, true);
+                g2.setColor(paint);
+            }
+            double dx = x[r] - prevX[r], dy = y[r] - prevY[r];
+            double px = x[r] + back * dx, py = y[r] + back * dy;
+            if(rec != null) { rec.translateInterpolated(dx, dy); }
+            if(round[r]) {
+                oval.setFrame(px, py, rw[r], rh[r]);
+                g2.fill(oval);
+            }
+            else {
+                box.setRect(px, py, rw[r], rh[r]);
+                g2.fill(box);
+            }
+            if(rec != null) { rec.translateInterpolated(-dx, -dy); }
+        }
+    }
+
+    public void render(Graphics2D g2, int t) { render(g2, t, 1); }
+
+    // Each row that has ever been renderable covers the box from its previous position to
+    // its current one. The destroyed rows are still there until the next action, so the
+    // area where they were last drawn gets added as well.
+    public void addDirty(DirtyRegion region, int t) {
+        if(leftTooMany) { region.addAll(); }
+        for(int i = 0; i < leftCount; i++) {
+            region.add(left[4 * i] - 1, left[4 * i + 1] - 1, left[4 * i + 2] + 2, left[4 * i + 3] + 2);
+        }
+        leftCount = 0;
+        leftTooMany = false;
+        for(int r = 0; r < count && !region.isFull(); r++) {
+            if(rw[r] <= 0 && rh[r] <= 0) { continue; }
+            double x0 = Math.min(x[r], prevX[r]), y0 = Math.min(y[r], prevY[r]);
+            region.add(x0 - 1, y0 - 1, Math.abs(x[r] - prevX[r]) + rw[r] + 2, Math.abs(y[r] - prevY[r]) + rh[r] + 2);
+        }
+    }
+
+    public Shape getShape(int t) { return NOSHAPE; }
+    public boolean isActive() { return true; }
+    public void sendMessage(Entity source, String msg) { }
+    public int getZ() { return z; }
+
+    // The entity of a collider row in the game, drawn by the world instead of itself.
+    private class Body implements CollisionFilter {
+        final int h, category, mask, layer;
+        final Handler handler;
+
+        Body(int h, int category, int mask, int layer, Handler handler) {
+            this.h = h; this.category = category; this.mask = mask; this.layer = layer;
+            this.handler = handler;
+        }
+
+        public Shape getShape(int t) {
+            int r = row(h);
+            if(r < 0) { return new Rectangle2D.Double(); }
+            return new Rectangle2D.Double(x[r], y[r], cw[r], ch[r]);
+        }
+
+        public void render(Graphics2D g2, int t) { }
+        public void action(int t) { }
+        public boolean isActive() { return isLive(h); }
+
+        public void sendMessage(Entity source, String msg) {
+            if(handler != null && isLive(h)) { handler.receive(EcsWorld.this, h, source, msg); }
+        }
+
+        public int getCollisionCategory() { return category; }
+        public int getCollisionMask() { return mask; }
+        public int getCollisionLayer() { return layer; }
+        public int getZ() { return z; }
+    }
+
+    private class ColliderBody extends Body implements Collider {
+        ColliderBody(int h, int category, int mask, int layer, Handler handler) {
+            super(h, category, mask, layer, handler);
+        }
+
+        public void collide(Entity other) {
+            if(handler != null && isLive(h)) { handler.collide(EcsWorld.this, h, other); }
+        }
+    }
+}
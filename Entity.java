@@ -9,22 +9,54 @@ public interface Entity {
     // Returns the Shape of this entity at time t, for collision detection purposes.
     public Shape getShape(int t);
     
+    // The shape key that tells the game engine to ask for the shape again every time frame.
+    public static final long NOSHAPEKEY = Long.MIN_VALUE;
+    
+    // The game engine asks for the shape of each entity at most once per time frame, and
+    // remembers it until the entity acts, collides or receives a message posted through
+    // GameHooks.postMessage. An entity that changes the shape of another by calling its
+    // sendMessage directly during its action should post the message instead. An entity
+    // whose shape depends only on its own state can return a key here that changes whenever
+    // its shape does, and the engine then keeps using the same shape until the key changes.
+    // By default, the shape is asked for again every time frame.
+    public default long getShapeKey() { return NOSHAPEKEY; }
+    
+    // The entities of a Z-level are rendered in the order that they were added, except that
+    // the entities whose render keys are equal are rendered one after another, at the place
+    // of the first of them, so that the Graphics2D state that they share is set only once.
+    // An entity that draws with a single paint or image can return that here, or any other
+    // object that is equal for the entities that draw alike. By default there is no render
+    // key, and the entity is rendered in its own place.
+    public default Object getRenderKey() { return null; }
+    
     // Renders this entity at time t on the given Graphics2D object, the way that
     // it looks like that moment. Usually you getShape and fill that, but you can
     // render some other way also, for example as an Image.
     public void render(Graphics2D g2, int t);
     
+    // The game engine can draw the game more often than it runs the time frames. It then
+    // calls this method to render this entity the way that it looks like alpha of the way
+    // from the previous time frame to the time frame t, where alpha is between 0 and 1.
+    // By default, the entity is simply rendered as it is at time t.
+    public default void render(Graphics2D g2, int t, double alpha) {
+        render(g2, t);
+    }
+    
     // The method that the game engine calls once for each time frame t. Write this
     // method so that it does what you want the entity to do at that time.
     public void action(int t);
     
-    // Before calling action or render, the game engine calls this method. This
+    // At the end of each time frame, the game engine calls this method once. This
     // method should return true if the entity is still part of the game, and false
     // otherwise. Once this method returns false, the game engine will never call
     // either getShape, action or render again for this entity, and will lose all
     // references to this object.
     public boolean isActive();
     
+    // The game engine calls this method at time t right after it has removed this entity
+    // from the game because it was no longer active. By default, this does nothing.
+    public default void onRemoved(int t) { }
+    
     // Sends a String message to this entity. Write this method so that the entity
     // responds to the message in a way appropriate to the rules of this game.
     public void sendMessage(Entity source, String msg);
@@ -0,0 +1,66 @@
+import java.util.*;
+import java.util.function.*;
+
+/* A pool of recycled entities of one class, which keeps at most capacity entities that
+ * have gone back to it. Acquiring an entity from an empty pool creates a new entity with
+ * the factory, and an entity that goes back to a full pool is left to the garbage
+ * collector. The pool counts the hits and misses of acquiring, and the entities that did
+ * not fit, so that its capacity can be chosen to fit the game.
+ */
+
+public class EntityPool<T extends Poolable> {
+
+    private final Class<T> type;
+    private final Supplier<T> factory;
+    private final Poolable[] pooled;
+    private int size;
+    private long hits, misses, released, dropped;
+
+    public EntityPool(Class<T> type, Supplier<T> factory, int capacity) {
+        if(capacity < 0) {
+            throw new IllegalArgumentException("Illegal pool capacity " + capacity);
+        }
+        this.type = type;
+        this.factory = factory;
+        this.pooled = new Poolable[capacity];
+    }
+
+    public Class<T> getType() { return type; }
+    public int getCapacity() { return pooled.length; }
+    public int size() { return size; }
+
+    // The number of acquires that got a recycled entity, and that had to create one.
+    public long getHits() { return hits; }
+    public long getMisses() { return misses; }
+
+    // The number of entities that went back to the pool, and that did not fit in it.
+    public long getReleased() { return released; }
+    public long getDropped() { return dropped; }
+
+    // Returns a recycled entity, or a new one if the pool is empty.
+    public T acquire() {
+        if(size > 0) {
+            hits++;
+            Poolable e = pooled[--size];
+            pooled[size] = null;
+            return type.cast(e);
+        }
+        misses++;
+        return factory.get();
+    }
+
+    // Resets the entity and puts it back into the pool, if there is room for it.
+    public void release(Poolable e) {
+        e.reset();
+        released++;
+        if(size < pooled.length) { pooled[size++] = e; }
+        else { dropped++; }
+    }
+
+    public String toString() {
+        long acquires = hits + misses;
+        return String.format("%s pool: %d of %d pooled, %d hits, %d misses (%.1f%% hits), %d released, %d dropped",
+            type.getSimpleName(), size, pooled.length, hits, misses,
+            acquires == 0 ? 0.0 : 100.0 * hits / acquires, released, dropped);
+    }
+}
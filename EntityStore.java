@@ -0,0 +1,428 @@
+import java.awt.*;
+import java.awt.geom.*;
+import java.util.*;
+import java.util.function.*;
+
+/* The entities of a running game, stored densely in one array per Z-level, with the
+ * Z-levels in ascending order. New entities wait in a pending list until the end of
+ * the time frame, when they are moved into their Z-levels in one batch that grows each
+ * array at most once. The liveness of each entity is then asked exactly once per time
+ * frame, and the inactive entities are compacted out of their arrays in a single pass
+ * that keeps the order of the rest, after which their onRemoved methods are called.
+ *
+ * Each entity also gets an integer handle when it is added, made of its slot index in
+ * the handle table and the generation of that slot. The generation is bumped when the
+ * entity is removed, so that an entity can refer to another by its handle without
+ * keeping it alive, and find out that it is gone when the handle no longer resolves.
+ * The removed entities can also be handed to a recycler, such as the entity pools.
+ *
+ * The store also remembers the shape and the bounding box of each entity, so that the
+ * many places that need them during one time frame ask the entity only once. A cached
+ * shape stays valid until the shapes of all entities or of that one entity are declared
+ * invalid, which the game engine does whenever the entities may have changed. The shape
+ * of an entity whose getShapeKey is not NOSHAPEKEY is instead kept for as long as that
+ * key stays the same, even over many time frames.
+ *
+ * When given a dirty region, the store also remembers where each entity was last seen
+ * on the screen, so that it can tell which areas of the screen have changed.
+ */
+
+public class EntityStore {
+
+    // The handle that never refers to any entity.
+    public static final int NOHANDLE = 0;
+
+    private static final int INDEXBITS = 22, INDEXMASK = (1 << INDEXBITS) - 1;
+    private static final int MAXGENERATION = (1 << (32 - INDEXBITS)) - 1;
+
+    // The handle table, and the stack of its free slots.
+    private Entity[] slots = new Entity[64];
+    private int[] generations = new int[64];
+    private int[] free = new int[64];
+    private int freeCount, slotCount;
+
+    // The handle of each entity in an open addressing hash table by object identity.
+    private Entity[] keys = new Entity[128];
+    private int[] keyHandles = new int[128];
+
+    // The cached shapes and bounding boxes by slot, with the epoch in which each was asked
+    // for, and its shape key.
+    private Shape[] shapes = new Shape[64];
+    private Rectangle2D[] bounds = new Rectangle2D[64];
+    private int[] shapeEpochs = new int[64];
+    private long[] shapeKeys = new long[64];
+    private int epoch = 1;
+
+    // The bounding box of each slot as of the latest call to markDirty, with the shape key
+    // at that time, and the region that the changes go into. A negative width means that
+    // the entity has not been seen yet.
+    private double[] paintX = new double[64], paintY = new double[64];
+    private double[] paintW = new double[64], paintH = new double[64];
+    private long[] paintKeys = new long[64];
+    private DirtyRegion dirty;
+
+    // The time frame of the latest action of each entity, for the entities that skip their
+    // actions while off the screen, or -1 if the entity has not acted yet.
+    private int[] actTimes = new int[64];
+
+    // The Z-levels in ascending order.
+    private int layerCount;
+    private int[] zs = new int[4];
+    private Layer[] layers = new Layer[4];
+    private int size;
+
+    // The entities added during this time frame, with their handles and Z-levels.
+    private Entity[] pending = new Entity[64];
+    private int[] pendingHandles = new int[64];
+    private int[] pendingZs = new int[64];
+    private Layer[] pendingLayers = new Layer[64];
+    private int pendingCount;
+
+    // The entities removed by the latest call to removeInactive.
+    private Entity[] removed = new Entity[16];
+    private Consumer<Entity> recycler;
+
+    private static class Layer {
+        int z, size, incoming;
+        Entity[] entities = new Entity[16];
+        int[] handles = new int[16];
+    }
+
+    // The number of entities in the Z-levels, not counting the pending ones.
+    public int size() { return size; }
+
+    // The Z-levels are indexed from 0 to layerCount() - 1 in ascending order of Z.
+    public int layerCount() { return layerCount; }
+    public int layerZ(int l) { return zs[l]; }
+    public int layerSize(int l) { return layers[l].size; }
+    public Entity get(int l, int i) { return layers[l].entities[i]; }
+    public int handle(int l, int i) { return layers[l].handles[i]; }
+
+    // Sets the recycler that gets each removed entity after its onRemoved method.
+    public void setRecycler(Consumer<Entity> recycler) { this.recycler = recycler; }
+
+    // Sets the region that markDirty and the removal of entities add the changed areas of
+    // the screen to, or null to stop keeping track of them.
+    public void setDirtyRegion(DirtyRegion region) { this.dirty = region; }
+
+    // Makes room for count more pending entities, so that adding them does not grow
+    // the arrays over and over again.
+    public void reserve(int count) {
+        ensurePending(pendingCount + count);
+        if(slots.length < slotCount + count - freeCount) {
+            growSlots(slotCount + count - freeCount);
+        }
+    }
+
+    // Adds a new entity that becomes part of its Z-level at the next call to flush, and
+    // returns its handle, which resolves to the entity right away.
+    public int add(Entity e) {
+        ensurePending(pendingCount + 1);
+        int idx;
+        if(freeCount > 0) { idx = free[--freeCount]; }
+        else {
+            if(slotCount == slots.length) { growSlots(slotCount + 1); }
+            if(slotCount > INDEXMASK) {
+                throw new IllegalStateException("Too many entities, at most " + (INDEXMASK + 1) + " allowed");
+            }
+            idx = slotCount++;
+            generations[idx] = 1;
+        }
+        slots[idx] = e;
+        paintW[idx] = -1;
+        actTimes[idx] = -1;
+        int handle = (generations[idx] << INDEXBITS) | idx;
+        mapHandle(e, handle);
+        pending[pendingCount] = e;
+        pendingHandles[pendingCount] = handle;
+        pendingZs[pendingCount] = e.getZ();
+        pendingCount++;
+        return handle;
+    }
+
+    // The entities that have been added but not flushed yet.
+    public int pendingCount() { return pendingCount; }
+    public Entity pending(int k) { return pending[k]; }
+    public int pendingHandle(int k) { return pendingHandles[k]; }
+    public int pendingZ(int k) { return pendingZs[k]; }
+
+    // Returns the entity that the handle refers to, or null if that entity has already
+    // been removed or the handle is NOHANDLE.
+    public Entity resolve(int handle) {
+        int idx = handle & INDEXMASK;
+        if(handle == NOHANDLE || idx >= slotCount || generations[idx] != handle >>> INDEXBITS) {
+            return null;
+        }
+        return slots[idx];
+    }
+
+    public boolean isLive(int handle) {
+        return resolve(handle) != null;
+    }
+
+    // Returns the handle of the entity, or NOHANDLE if it is not in the store.
+    public int handleOf(Entity e) {
+        int m = keys.length - 1;
+        for(int i = System.identityHashCode(e) & m; keys[i] != null; i = (i + 1) & m) {
+            if(keys[i] == e) { return keyHandles[i]; }
+        }
+        return NOHANDLE;
+    }
+
+    // Declares the cached shapes of all entities invalid.
+    public void invalidateShapes() {
+        if(++epoch == 0) { // wrapped around, so old epochs are no longer trustworthy
+            Arrays.fill(shapeEpochs, 0);
+            epoch = 1;
+        }
+    }
+
+    // Declares the cached shape of one entity invalid.
+    public void invalidateShape(int handle) {
+        shapeEpochs[handle & INDEXMASK] = 0;
+    }
+
+    // Returns the shape of the entity of the given handle at time t, from the cache if
+    // it is still valid there.
+    public Shape shape(Entity e, int handle, int t) {
+        int idx = cache(e, handle, t);
+        return idx < 0 ? e.getShape(t) : shapes[idx];
+    }
+
+    // As above, but returns the bounding box of the shape.
+    public Rectangle2D bounds(Entity e, int handle, int t) {
+        int idx = cache(e, handle, t);
+        return idx < 0 ? e.getShape(t).getBounds2D() : bounds[idx];
+    }
+
+    // As above, but for an entity whose handle is not known.
+    public Shape shape(Entity e, int t) { return shape(e, handleOf(e), t); }
+    public Rectangle2D bounds(Entity e, int t) { return bounds(e, handleOf(e), t); }
+
+    // Makes sure that the cache of the slot of the handle is valid, and returns that slot,
+    // or -1 if the handle does not belong to this entity.
+    private int cache(Entity e, int handle, int t) {
+        int idx = handle & INDEXMASK;
+        if(handle == NOHANDLE || idx >= slotCount || slots[idx] != e) { return -1; }
+        long key = e.getShapeKey();
+        if(key != Entity.NOSHAPEKEY ? key != shapeKeys[idx] || shapes[idx] == null : shapeEpochs[idx] != epoch) {
+            Shape s = e.getShape(t);
+            shapes[idx] = s;
+            bounds[idx] = s instanceof Rectangle2D ? (Rectangle2D)s : s.getBounds2D();
+            shapeKeys[idx] = key;
+            shapeEpochs[idx] = epoch;
+        }
+        return idx;
+    }
+
+    // The time frame when the entity of the handle acted last, as set by the game engine for
+    // the entities that skip their actions while off the screen, or -1 if it has not acted.
+    public int lastAction(int handle) { return actTimes[handle & INDEXMASK]; }
+    public void setLastAction(int handle, int t) { actTimes[handle & INDEXMASK] = t; }
+
+    // Adds to the dirty region the areas of the screen where the entities may look different
+    // at time t than at the previous call of this method. These are the old and the new
+    // bounding boxes of each entity that has moved, changed its shape key or been added
+    // since, or whose shape key is NOSHAPEKEY, since there is no telling what such an
+    // entity looks like now. An entity that implements DirtyTracking adds its own areas,
+    // and one with an empty shape makes the whole region dirty.
+    public void markDirty(int t) {
+        if(dirty == null) { return; }
+        for(int l = 0; l < layerCount; l++) {
+            Layer layer = layers[l];
+            for(int i = 0; i < layer.size; i++) {
+                Entity e = layer.entities[i];
+                if(e instanceof DirtyTracking) {
+                    if(!dirty.isFull()) { ((DirtyTracking)e).addDirty(dirty, t); }
+                    continue;
+                }
+                int handle = layer.handles[i], idx = handle & INDEXMASK;
+                Rectangle2D b = bounds(e, handle, t);
+                long key = shapeKeys[idx];
+                if(key != Entity.NOSHAPEKEY && key == paintKeys[idx] && paintW[idx] >= 0
+                && b.getX() == paintX[idx] && b.getY() == paintY[idx]
+                && b.getWidth() == paintW[idx] && b.getHeight() == paintH[idx]) {
+                    continue; // looks just the same as before
+                }
+                addPainted(idx);
+                if(b.getWidth() <= 0 && b.getHeight() <= 0) { // no shape, so it could be anywhere
+                    dirty.addAll();
+                    paintW[idx] = -1;
+                    continue;
+                }
+                paintX[idx] = b.getX(); paintY[idx] = b.getY();
+                paintW[idx] = b.getWidth(); paintH[idx] = b.getHeight();
+                paintKeys[idx] = key;
+                addPainted(idx);
+            }
+        }
+    }
+
+    private void addPainted(int idx) {
+        if(paintW[idx] < 0) { return; }
+        double m = DirtyRegion.MARGIN;
+        dirty.add(paintX[idx] - m, paintY[idx] - m, paintW[idx] + 2 * m, paintH[idx] + 2 * m);
+    }
+
+    // Moves the pending entities into their Z-levels.
+    public void flush() {
+        if(pendingCount == 0) { return; }
+        for(int k = 0; k < pendingCount; k++) {
+            Layer layer = layerFor(pendingZs[k]);
+            layer.incoming++;
+            pendingLayers[k] = layer;
+        }
+        for(int l = 0; l < layerCount; l++) {
+            Layer layer = layers[l];
+            if(layer.incoming > 0 && layer.entities.length < layer.size + layer.incoming) {
+                int cap = Math.max(layer.size + layer.incoming, 2 * layer.entities.length);
+                layer.entities = Arrays.copyOf(layer.entities, cap);
+                layer.handles = Arrays.copyOf(layer.handles, cap);
+            }
+            layer.incoming = 0;
+        }
+        for(int k = 0; k < pendingCount; k++) {
+            Layer layer = pendingLayers[k];
+            layer.entities[layer.size] = pending[k];
+            layer.handles[layer.size] = pendingHandles[k];
+            layer.size++;
+            pending[k] = null;
+            pendingLayers[k] = null;
+        }
+        size += pendingCount;
+        pendingCount = 0;
+    }
+
+    // Asks each entity once whether it is still active, compacts the inactive ones out of
+    // their Z-levels and frees their handles, and then calls their onRemoved methods
+    // and hands them to the recycler.
+    public void removeInactive(int t) {
+        int removedCount = 0;
+        for(int l = 0; l < layerCount; l++) {
+            Layer layer = layers[l];
+            Entity[] es = layer.entities;
+            int[] hs = layer.handles;
+            int n = 0;
+            for(int i = 0; i < layer.size; i++) {
+                Entity e = es[i];
+                if(e.isActive()) {
+                    es[n] = e;
+                    hs[n] = hs[i];
+                    n++;
+                }
+                else {
+                    release(hs[i]);
+                    if(removedCount == removed.length) { removed = Arrays.copyOf(removed, 2 * removedCount); }
+                    removed[removedCount++] = e;
+                }
+            }
+            Arrays.fill(es, n, layer.size, null);
+            layer.size = n;
+        }
+        size -= removedCount;
+        for(int k = 0; k < removedCount; k++) {
+            removed[k].onRemoved(t);
+            if(recycler != null) { recycler.accept(removed[k]); }
+            removed[k] = null;
+        }
+    }
+
+    private void release(int handle) {
+        int idx = handle & INDEXMASK;
+        if(dirty != null) {
+            if(slots[idx] instanceof DirtyTracking) { dirty.addAll(); }
+            else { addPainted(idx); }
+        }
+        paintW[idx] = -1;
+        unmapHandle(slots[idx]);
+        slots[idx] = null;
+        shapes[idx] = null;
+        bounds[idx] = null;
+        shapeEpochs[idx] = 0;
+        generations[idx] = generations[idx] == MAXGENERATION ? 1 : generations[idx] + 1;
+        if(freeCount == free.length) { free = Arrays.copyOf(free, 2 * freeCount); }
+        free[freeCount++] = idx;
+    }
+
+    // Finds the Z-level z, creating it in its place in the order if it does not exist yet.
+    private Layer layerFor(int z) {
+        int l = Arrays.binarySearch(zs, 0, layerCount, z);
+        if(l >= 0) { return layers[l]; }
+        l = -l - 1;
+        if(layerCount == zs.length) {
+            zs = Arrays.copyOf(zs, 2 * layerCount);
+            layers = Arrays.copyOf(layers, 2 * layerCount);
+        }
+        System.arraycopy(zs, l, zs, l + 1, layerCount - l);
+        System.arraycopy(layers, l, layers, l + 1, layerCount - l);
+        Layer layer = new Layer();
+        layer.z = z;
+        zs[l] = z;
+        layers[l] = layer;
+        layerCount++;
+        return layer;
+    }
+
+    private void ensurePending(int n) {
+        if(pending.length < n) {
+            int cap = Math.max(n, 2 * pending.length);
+            pending = Arrays.copyOf(pending, cap);
+            pendingHandles = Arrays.copyOf(pendingHandles, cap);
+            pendingZs = Arrays.copyOf(pendingZs, cap);
+            pendingLayers = Arrays.copyOf(pendingLayers, cap);
+        }
+    }
+
+    private void growSlots(int n) {
+        int cap = Math.max(n, 2 * slots.length);
+        slots = Arrays.copyOf(slots, cap);
+        generations = Arrays.copyOf(generations, cap);
+        shapes = Arrays.copyOf(shapes, cap);
+        bounds = Arrays.copyOf(bounds, cap);
+        shapeEpochs = Arrays.copyOf(shapeEpochs, cap);
+        shapeKeys = Arrays.copyOf(shapeKeys, cap);
+        paintX = Arrays.copyOf(paintX, cap); paintY = Arrays.copyOf(paintY, cap);
+        paintW = Arrays.copyOf(paintW, cap); paintH = Arrays.copyOf(paintH, cap);
+        paintKeys = Arrays.copyOf(paintKeys, cap);
+        actTimes = Arrays.copyOf(actTimes, cap);
+        int size = keys.length;
+        while(size < 2 * cap) { size *= 2; }
+        if(size > keys.length) { rehash(size); }
+    }
+
+    private void mapHandle(Entity e, int handle) {
+        int m = keys.length - 1;
+        int i = System.identityHashCode(e) & m;
+        while(keys[i] != null) { i = (i + 1) & m; }
+        keys[i] = e;
+        keyHandles[i] = handle;
+    }
+
+    // Removes the entity from the hash table, moving back the entries after it that
+    // would otherwise no longer be found.
+    private void unmapHandle(Entity e) {
+        int m = keys.length - 1;
+        int i = System.identityHashCode(e) & m;
+        while(keys[i] != e) { i = (i + 1) & m; }
+        keys[i] = null;
+        for(int j = (i + 1) & m; keys[j] != null; j = (j + 1) & m) {
+            int home = System.identityHashCode(keys[j]) & m;
+            if(((j - home) & m) >= ((j - i) & m)) { // the entry at j may move back to the hole at i
+                keys[i] = keys[j];
+                keyHandles[i] = keyHandles[j];
+                keys[j] = null;
+                i = j;
+            }
+        }
+    }
+
+    private void rehash(int cap) {
+        Entity[] oldKeys = keys;
+        int[] oldHandles = keyHandles;
+        keys = new Entity[cap];
+        keyHandles = new int[cap];
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldKeys[i] != null) { mapHandle(oldKeys[i], oldHandles[i]); }
+        }
+    }
+}
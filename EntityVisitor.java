@@ -0,0 +1,11 @@
+/* A callback that the spatial queries of GameHooks call with each entity that they
+ * find. A visitor can be kept in a field and reused for every query, so that the
+ * queries do not need to allocate any memory.
+ */
+
+public interface EntityVisitor {
+
+    // Called once for each entity that the query finds. Return false to end the query
+    // without visiting the rest of the entities.
+    public boolean visit(Entity e);
+}
@@ -24,6 +24,10 @@ public class FlappyBird implements Game {
     private Random rng = new Random();
     // The graphical reprsentation of the game.
     private Image flappyI;
+    // The pixels of Flappy's image that count for collisions.
+    private CollisionMask flappyMask;
+    // The decorative stars and sparks, as particles behind Flappy and the pipes.
+    private ParticleSystem particles;
     
     public String getTitle() { return "Flappy Bird Space"; }
     public String getAuthor() { return "Ilkka Kokkarinen"; }
@@ -35,13 +39,17 @@ public class FlappyBird implements Game {
         m.addImage(flappyI, 0);
         try { m.waitForAll(); } catch(InterruptedException e) { }
         flappyI = flappyI.getScaledInstance((int)(2*FR), (int)(2*FR), Image.SCALE_AREA_AVERAGING);    
+        flappyMask = new CollisionMask(flappyI);
     }
     
     // When starting a new game, create the initial entities to the game, and the list of
     // levels in this game. This game has only one level, but there could be more.
     public java.util.List<Level> startNewGame(GameHooks hooks) {        
         this.hooks = hooks;
+        particles = new ParticleSystem(WIDTH, HEIGHT, 0);
+        hooks.addEntity(particles);
         hooks.addEntity(new Flappy());
+        hooks.registerPool(Pipe.class, Pipe::new, 16);
         isAlive = true;
         Level[] levels = { new FlappyLevel() };
         return Arrays.asList(levels);
@@ -62,8 +70,8 @@ public class FlappyBird implements Game {
         // A helper method to create a new pipe consisting of two pieces.
         private void addPipe() {
             double y = 50 + rng.nextDouble() * (HEIGHT - 200);
-            hooks.addEntity(new Pipe(WIDTH + 1, 0, PIPEWIDTH, y));
-            hooks.addEntity(new Pipe(WIDTH + 1, y + PIPEGAP, PIPEWIDTH, HEIGHT - (PIPEGAP + y)));    
+            hooks.addEntity(hooks.acquire(Pipe.class).init(WIDTH + 1, 0, PIPEWIDTH, y));
+            hooks.addEntity(hooks.acquire(Pipe.class).init(WIDTH + 1, y + PIPEGAP, PIPEWIDTH, HEIGHT - (PIPEGAP + y)));
         }
         
         // Since the game already created Flappy, we just need to create the first pipe.
@@ -80,7 +88,7 @@ public class FlappyBird implements Game {
                 addPipe();
             }
             if(t % 10 == 0) {
-                hooks.addEntity(new Star());
+                addStar();
             }
         } 
     }
@@ -95,7 +103,7 @@ public class FlappyBird implements Game {
         public Flappy() {
             this.setX(50);
             this.setY(HEIGHT / 2);
-            hooks.getComponent().addMouseListener(new MouseAdapter() {
+            hooks.addMouseListener(new MouseAdapter() {
                 public void mousePressed(MouseEvent me) {
                     mouseDown = true;
                 }
@@ -105,9 +113,9 @@ public class FlappyBird implements Game {
             });
         }
         
-        // Flappy's shape for collision detection purposes.
+        // Flappy's shape for collision detection purposes, exact to the pixels of his image.
         public Shape getShape(int t) {
-            return new Ellipse2D.Double(getX() - FR, getY() - FR, 2*FR, 2*FR);
+            return new MaskShape(flappyMask, getX() - FR, getY() - FR);
         }
         
         // Render Flappy on the game.
@@ -120,7 +128,7 @@ public class FlappyBird implements Game {
         public void action(int t) {
             setAY(0.1);
             if(!isAlive) {
-                hooks.addEntity(new Spark(getX(), getY()));
+                addSpark(getX(), getY());
             }
             else {
                 if(mouseDown) { setAY(-0.35); }
@@ -143,14 +151,23 @@ public class FlappyBird implements Game {
     
     // The nested class for individual pipes. In addition to the position (x,y) of its top
     // left corner, each pipe has width w and height h. Each pipe moves left with constant
-    // velocity of -1.7.
+    // velocity of -1.7. The pipes are recycled through their entity pool.
     private static final Color PIPECOLOR = new Color(0, 255, 0, 125);
-    private class Pipe extends NewtonEntity {
+    private static final Stroke PIPESTROKE = new BasicStroke(3.0f);
+    private class Pipe extends NewtonEntity implements Poolable, ConcurrentEntity {
         private double w, h;
         private boolean pointsGranted = false;
-        public Pipe(double x, double y, double w, double h) {
+        public Pipe init(double x, double y, double w, double h) {
             this.setX(x); this.setY(y); this.w = w; this.h = h;
             this.setVX(-1.7);
+            return this;
+        }
+        
+        public void reset() {
+            holdStill();
+            setX(0); setY(0);
+            w = h = 0;
+            pointsGranted = false;
         }
         
         public Shape getShape(int t) {
@@ -158,12 +175,14 @@ public class FlappyBird implements Game {
         }
         public void render(Graphics2D g2, int t) {
             g2.setPaint(PIPECOLOR);
-            g2.fill(this.getShape(t));
+            g2.fill(hooks.getShape(this));
             g2.setPaint(Color.WHITE);
-            g2.setStroke(new BasicStroke(3.0f));
-            g2.draw(this.getShape(t));
+            g2.setStroke(PIPESTROKE);
+            g2.draw(hooks.getShape(this));
         }
         
+        public Object getRenderKey() { return PIPECOLOR; }
+        
         // Since Flappy already handles the collisions, we don't need to do that here, and
         // since super.action(t) moves the pipe, all we need to do is grant points once Flappy
         // gets through this pipe.
@@ -184,77 +203,31 @@ public class FlappyBird implements Game {
         public int getZ() { return 1; }
     }
     
-    // A nested class for the decorative stars in the background. Since their Z-level is
-    // lower than Flappy's, the collisions don't count. Each star begins at the right edge
-    // and a random shade, and for a primitive 3D effect, the dimmer the star, the slower
-    // it moves.
-    private class Star extends NewtonEntity {
-        private Color color;
-        public Star() {
-            this.setX(WIDTH);
-            this.setY(rng.nextDouble() * HEIGHT);
-            int shade = rng.nextInt(255);
-            this.color = new Color(shade, shade, shade);
-            this.setVX(-shade / 100.0);
-        }
-
-        public Shape getShape(int t) {
-            return new Rectangle2D.Double(getX(), getY(), 3, 3);
-        }
-
-        public void render(Graphics2D g2, int t) {
-            g2.setPaint(color);
-            g2.fill(this.getShape(t));
-        }
-
-        public void action(int t) {
-            super.action(t);
-        }
-
-        // Just like pipes, stars cease to exist once they move past the left edge.
-        public boolean isActive() {
-            return getX() > 0;
-        }
+    // The decorative stars in the background. Each star begins at the right edge and a
+    // random shade, and for a primitive 3D effect, the dimmer the star, the slower it
+    // moves. Since the stars are particles, they take no part in the collisions. Like the
+    // sparks, they are decorative, so the game engine may drop them when it falls behind.
+    private void addStar() {
+        if(!hooks.admitDecorative()) { return; }
+        int shade = 1 + rng.nextInt(254);
+        particles.emit(WIDTH, rng.nextDouble() * HEIGHT, -shade / 100.0, 0, 0, 0, 0xFF000000 | shade * 0x010101, 3);
     }
     
-    // A nested class for the sparks that dead Flappy sputters all around him.
-    private class Spark extends NewtonEntity {
-        private Color color;
-        public Spark(double x, double y) {
-            // Choose a random angle and set the position and velocity accordingly.
-            double angle = rng.nextDouble() * 2 * Math.PI;
-            this.setX(x + FR * Math.sin(angle));
-            this.setY(y + FR * Math.cos(angle));
-            this.setVX(10 * Math.sin(angle));
-            this.setVY(10 * Math.cos(angle));
-            // Sparks are affected by gravity.
-            this.setAY(0.12);
-            this.color = new Color(rng.nextInt(100) + 150, 0, 0);
-        }
-
-        public Shape getShape(int t) {
-            return new Rectangle2D.Double(getX(), getY(), 3, 3);
-        }
-
-        public void render(Graphics2D g2, int t) {
-            g2.setPaint(color);
-            g2.fill(this.getShape(t));
-        }
-
-        public void action(int t) {
-            super.action(t);
-        }
-        
-        // Since the sparks can fly to any direction, we need to check if they have
-        // gone outside any edge.
-        public boolean isActive() {
-            return getX() > 0 && getX() < WIDTH && getY() > 0 && getY() < HEIGHT;
-        }
+    // The sparks that dead Flappy sputters all around him. Sparks are affected by gravity.
+    private void addSpark(double x, double y) {
+        if(!hooks.admitDecorative()) { return; }
+        // Choose a random angle and set the position and velocity accordingly.
+        double angle = rng.nextDouble() * 2 * Math.PI;
+        double sin = Math.sin(angle), cos = Math.cos(angle);
+        particles.emit(x + FR * sin, y + FR * cos, 10 * sin, 10 * cos, 0, 0.12,
+            0xFF000000 | (rng.nextInt(100) + 150) << 16, 3);
     }
     
     public static void main(String[] args) {
         final JFrame f = new JFrame("Flappy Bird Space!");
         final GameEngine blast = new GameEngine(new FlappyBird());
+        // Few but large entities, none of which moves fast.
+        blast.setCollisionGrid(100, 10);
         f.add(blast);
         // Must ensure that timer is stopped when the Frame closes
         f.addWindowListener(new WindowAdapter() {
@@ -0,0 +1,136 @@
+import java.io.*;
+
+/* Trades the looks of the game for its frame rate when the time frames and the drawing
+ * of the game together take longer than the budget of a frame. The governor keeps moving
+ * averages of how long a time frame and a frame take, and once their sum has stayed over
+ * the budget for a while, it lowers the quality by one step: first antialiasing is turned
+ * off, then the gradients are painted in flat colors, then every other decorative spawn
+ * is dropped, and finally all of them. Once the sum has stayed well under the budget for
+ * a longer while, the quality is raised back one step at a time. Antialiasing is left to
+ * the game engine, whereas the games ask for the quality and admitDecorative through
+ * GameHooks. Every step is logged with the costs that caused it, so that the thresholds
+ * can be tuned.
+ */
+
+public class FrameGovernor {
+
+    // The steps of quality, from the best to the cheapest.
+    public static final int FULL = 0, NOANTIALIASING = 1, FLATPAINT = 2, SHEDDING = 3, DROPPING = 4;
+    private static final String[] NAMES = {
+        "full", "no antialiasing", "flat paint", "shedding decorations", "dropping decorations"
+    };
+
+    // The measurements at the start that are ignored, since they mostly measure the loading
+    // of classes and the compiler warming up.
+    private static final int WARMUP = 50;
+
+    private final double budget;
+    private volatile int quality = FULL;
+    private double recovery = 0.6, smoothing = 0.1;
+    private int stepDownAfter = 15, stepUpAfter = 120;
+    private PrintStream log = System.out;
+
+    // The moving averages of the costs in milliseconds, the measurements in a row that
+    // were over or under the budget, and the time frame of the latest measurement.
+    private double tickMillis, frameMillis;
+    private int samples, over, under, time;
+    private long transitions;
+    private int shed;
+
+    // The budget is the most milliseconds that one time frame and one frame should take
+    // together, for example 1000.0 / 60 to show every time frame at 60 frames per second.
+    public FrameGovernor(double budget) {
+        if(!(budget > 0)) {
+            throw new IllegalArgumentException("Illegal frame budget " + budget);
+        }
+        this.budget = budget;
+    }
+
+    // The share of the budget that the cost must stay under for the quality to be raised,
+    // 0.6 by default.
+    public synchronized void setRecovery(double recovery) {
+        if(!(recovery > 0 && recovery < 1)) {
+            throw new IllegalArgumentException("Illegal recovery " + recovery);
+        }
+        this.recovery = recovery;
+    }
+
+    // How many measurements in a row must be over the budget for the quality to be lowered,
+    // 15 by default, and under the recovery share of it to be raised, 120 by default.
+    public synchronized void setPatience(int stepDownAfter, int stepUpAfter) {
+        if(stepDownAfter < 1 || stepUpAfter < 1) {
+            throw new IllegalArgumentException("Illegal patience " + stepDownAfter + ", " + stepUpAfter);
+        }
+        this.stepDownAfter = stepDownAfter;
+        this.stepUpAfter = stepUpAfter;
+    }
+
+    // The weight of each new measurement in the moving averages, 0.1 by default.
+    public synchronized void setSmoothing(double smoothing) {
+        if(!(smoothing > 0 && smoothing <= 1)) {
+            throw new IllegalArgumentException("Illegal smoothing " + smoothing);
+        }
+        this.smoothing = smoothing;
+    }
+
+    // Where the steps are logged, or null to not log them. System.out by default.
+    public synchronized void setLog(PrintStream log) { this.log = log; }
+
+    public double getBudget() { return budget; }
+    public int getQuality() { return quality; }
+    public synchronized long getTransitions() { return transitions; }
+    public synchronized double getTickMillis() { return tickMillis; }
+    public synchronized double getFrameMillis() { return frameMillis; }
+
+    public static String getQualityName(int quality) { return NAMES[quality]; }
+
+    // Whether a decorative spawn should go ahead at the current quality. While shedding,
+    // every other one is dropped. The spawns are counted without synchronizing, since the
+    // concurrent entities dropping a few more or fewer of them does not matter.
+    public boolean admitDecorative() {
+        int q = quality;
+        return q < SHEDDING || (q == SHEDDING && (++shed & 1) == 0);
+    }
+
+    // Measurements of how long the time frame t took, and how long a frame took to draw.
+    public synchronized void addTick(long nanos, int t) {
+        time = t;
+        tickMillis = average(tickMillis, nanos);
+        step();
+    }
+
+    public synchronized void addFrame(long nanos) {
+        frameMillis = average(frameMillis, nanos);
+        step();
+    }
+
+    private double average(double average, long nanos) {
+        double ms = nanos / 1e6;
+        return samples < WARMUP || average == 0 ? ms : average + smoothing * (ms - average);
+    }
+
+    // Moves the quality a step if the cost has been over or under the budget for long enough.
+    private void step() {
+        if(++samples <= WARMUP) { return; }
+        double cost = tickMillis + frameMillis;
+        over = cost > budget ? over + 1 : 0;
+        under = cost < recovery * budget ? under + 1 : 0;
+        if(over >= stepDownAfter && quality < DROPPING) { move(quality + 1); }
+        else if(under >= stepUpAfter && quality > FULL) { move(quality - 1); }
+    }
+
+    private void move(int q) {
+        if(log != null) {
+            log.printf("Frame governor: %s to %s at time frame %d, %.2f ms per time frame and %.2f ms per frame against a budget of %.2f ms%n",
+                NAMES[quality], NAMES[q], time, tickMillis, frameMillis, budget);
+        }
+        quality = q;
+        transitions++;
+        over = under = 0;
+    }
+
+    public synchronized String toString() {
+        return String.format("Frame governor: quality %s, %d steps, %.2f ms per time frame and %.2f ms per frame against a budget of %.2f ms",
+            NAMES[quality], transitions, tickMillis, frameMillis, budget);
+    }
+}
@@ -1,4 +1,7 @@
 import java.util.*;
+import java.util.function.*;
+import java.awt.event.*;
+import java.awt.Shape;
 import java.awt.geom.*;
 import javax.swing.*;
 
@@ -13,25 +16,119 @@ public interface GameHooks {
     
     // Add a new active entity to the game. The entity will be part of the game
     // from the next time frame, and will receive render and action calls for 
-    // each time frame from then on.
-    public void addEntity(Entity e);
+    // each time frame from then on. Returns the handle of the entity, which
+    // other entities can store instead of a reference to the entity. While the
+    // concurrent entities act in parallel, the entities they add are queued until
+    // all of them have acted, and this method returns EntityStore.NOHANDLE.
+    public int addEntity(Entity e);
+    
+    // Sends the message to the target entity. This is the same as calling the
+    // sendMessage of the target, except while the concurrent entities act in
+    // parallel, when the message is queued until all of them have acted, and
+    // that the game engine then asks the target and the source for their shapes
+    // again, in case the message changed them.
+    public void postMessage(Entity target, Entity source, String msg);
+    
+    // Returns the entity of the given handle, or null if that entity has been
+    // removed from the game. Looking up an entity this way does not keep it alive.
+    public Entity getEntity(int handle);
+    
+    // Tells the game engine that count entities are about to be added at once,
+    // so that it can make room for all of them in one go.
+    public void reserveEntities(int count);
+    
+    // Registers a pool of recycled entities of the given class, which keeps at most
+    // capacity entities that have gone inactive, and creates new ones with the factory
+    // when it runs out. Registering a class again replaces its pool. The pools are
+    // forgotten when a new game starts. See Poolable for how the recycling works.
+    public <T extends Poolable> void registerPool(Class<T> type, Supplier<T> factory, int capacity);
+    
+    // Returns an entity of the given class from its pool, or a new one from the factory
+    // of the pool if it is empty. The entity is in the state that its reset method left
+    // it, and still needs to be initialized and added to the game with addEntity.
+    public <T extends Poolable> T acquire(Class<T> type);
+    
+    // Registers a sprite cache of the game, so that the game engine can report its
+    // statistics along with those of the entity pools. The sprite caches are forgotten
+    // when a new game starts.
+    public void registerSpriteCache(SpriteCache cache);
     
     // Note that there is no corresponding method removeEntity, since it might
     // lead to concurrent modification errors. Instead, the game engine will
     // periodically query each entity of whether it is still active, and if it
-    // answers no, remove that entity from the list of active entities.
+    // answers no, remove that entity from the list of active entities. Entities
+    // that became inactive during the current time frame are removed at its end,
+    // but the queries below already leave them out.
     
-    // Returns the list of entities whose shapes intersect the entity e at this
+    // Returns the list of active entities whose shapes intersect the entity e at this
     // time. The method can be given a Rectangle2D.Double bounding box that is
     // either null or completely surrounds the entity, to speed up intersection
-    // detection. Only entities with the same Z-level count for collisions.
+    // detection. Only entities with the same Z-level count for collisions, unless the
+    // entities implement CollisionFilter to choose their collision layer and categories.
     public List<Entity> getCollisions(Entity e, Rectangle2D.Double boundingBox);
     
+    // Returns the shape of the entity at this time, or its bounding box, as remembered
+    // by the game engine for this time frame, so that the entity is asked for its shape
+    // only once. The render methods can use these instead of calling getShape, as can
+    // the action methods when they look at other entities. An entity that has moved in
+    // its own action should call its own getShape for its new shape.
+    public Shape getShape(Entity e);
+    public Rectangle2D getBounds(Entity e);
+    
+    // The following spatial queries look at the active entities of collision layer z,
+    // which is the same as the Z-level for entities that are not CollisionFilters, as found
+    // in the collision grid of the current time frame. They allocate no memory, as long
+    // as the visitor object is reused. Entities added during this time frame will be
+    // found from the next time frame on.
+    
+    // Calls the visitor with each entity whose shape intersects the given rectangle,
+    // until the visitor returns false.
+    public void visitRectangle(int z, double x, double y, double w, double h, EntityVisitor visitor);
+    
+    // Calls the visitor with each entity whose shape comes closer than r to the point
+    // (x, y), until the visitor returns false.
+    public void visitRadius(int z, double x, double y, double r, EntityVisitor visitor);
+    
+    // Returns the first entity other than exclude that the ray from (x, y) towards the
+    // direction (dx, dy) hits within maxDistance, or null if the ray hits nothing.
+    public Entity raycast(int z, double x, double y, double dx, double dy, double maxDistance, Entity exclude);
+    
+    // Fills the result array with the entities other than exclude whose centers are the
+    // nearest to the point (x, y), nearest first, and returns how many were found. The
+    // length of the array determines how many nearest entities are looked for.
+    public int nearest(int z, double x, double y, Entity[] result, Entity exclude);
+    
     // Returns the Swing component that the game engine uses to display the
-    // game. Your levels and entities can then add various event listeners to
-    // that component to react to user interaction.
+    // game. Note that the listeners added directly to this component are called
+    // in the event dispatch thread, not in the thread that runs the game.
     public JComponent getComponent();
     
+    // The input listeners of the game. The game engine collects the mouse and key
+    // events of its component into a queue, and delivers them to these listeners at
+    // the start of the next time frame, in the same thread as the action methods of
+    // the levels and entities. The listeners can therefore safely modify the state of
+    // the game. Starting a new game forgets all these listeners.
+    public void addMouseListener(MouseListener ml);
+    public void removeMouseListener(MouseListener ml);
+    public void addMouseMotionListener(MouseMotionListener ml);
+    public void removeMouseMotionListener(MouseMotionListener ml);
+    public void addKeyListener(KeyListener kl);
+    public void removeKeyListener(KeyListener kl);
+    
+    // Returns the time frame during which the event being delivered happened.
+    public int getEventTime();
+    
+    // The quality of the looks of the game in this time frame, as one of the steps of
+    // FrameGovernor. When the game engine falls behind, a frame governor lowers the
+    // quality, and the entities should paint their gradients in flat colors once it is
+    // FrameGovernor.FLATPAINT or above. Always FrameGovernor.FULL without a governor.
+    public int getQuality();
+    
+    // Whether a decorative thing that takes no part in the game, such as a star or a
+    // spark, should be spawned now. A frame governor drops some or all of them when the
+    // game engine falls behind. Always true without a governor.
+    public boolean admitDecorative();
+    
     // The game engine can display a short String message hovering on top of
     // user mouse cursor. Use this method to set that message and the time
     // (measured in frames) how long that message is displayed.
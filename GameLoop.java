@@ -0,0 +1,126 @@
+import java.util.concurrent.locks.*;
+
+/* The fixed time step game loop that drives a GameSimulation from a dedicated thread.
+ * The loop keeps its own schedule with System.nanoTime, so that the game time advances
+ * at the same steady rate no matter how long each time frame or each screen update
+ * takes. If the loop has fallen behind its schedule, it runs several time frames in a
+ * row to catch up, but at most maxCatchUp of them, and the rest of the time frames that
+ * it is behind are dropped so that the game slows down instead of freezing. Between the
+ * time frames, the loop presents the game at the display rate with an interpolation
+ * alpha that tells how far the moment of display is from the previous time frame to
+ * the next, so that motion can be drawn smoothly even at low tick rates.
+ *
+ * The methods step and present decide where the time frames are run and where the
+ * game is shown, so that each front end can override them as it needs.
+ */
+
+public class GameLoop implements Runnable {
+
+    private GameSimulation simulation;
+    private volatile long tickNanos, frameNanos;
+    private volatile int maxCatchUp = 5;
+    private volatile boolean running;
+    private Thread thread;
+
+    // The scheduled time of the latest time frame, for computing the alpha.
+    private volatile long lastTickNanos;
+
+    // The statistics of the loop since it started.
+    private volatile long ticks, frames, lateTicks, droppedTicks;
+
+    public GameLoop(GameSimulation simulation, int ticksPerSecond, int framesPerSecond) {
+        this.simulation = simulation;
+        setTickRate(ticksPerSecond);
+        setFrameRate(framesPerSecond);
+    }
+
+    public void setTickRate(int ticksPerSecond) {
+        if(ticksPerSecond <= 0) { throw new IllegalArgumentException("Tick rate must be positive"); }
+        tickNanos = 1000000000L / ticksPerSecond;
+    }
+
+    public void setFrameRate(int framesPerSecond) {
+        if(framesPerSecond <= 0) { throw new IllegalArgumentException("Frame rate must be positive"); }
+        frameNanos = 1000000000L / framesPerSecond;
+    }
+
+    // The most time frames that are run in a row to catch up with the schedule.
+    public void setMaxCatchUp(int maxCatchUp) {
+        this.maxCatchUp = Math.max(1, maxCatchUp);
+    }
+
+    public GameSimulation getSimulation() { return simulation; }
+    public long getTicks() { return ticks; }
+    public long getFrames() { return frames; }
+    // Time frames that ran at least one whole time step later than scheduled.
+    public long getLateTicks() { return lateTicks; }
+    // Time frames that were skipped since the loop was too far behind to catch up.
+    public long getDroppedTicks() { return droppedTicks; }
+
+    // How far the current moment is from the latest time frame towards the next one.
+    public double alpha() {
+        double a = (System.nanoTime() - lastTickNanos) / (double)tickNanos;
+        return a < 0 ? 0 : (a > 1 ? 1 : a);
+    }
+
+    // Starts the loop in its own thread, named after the game.
+    public synchronized void start() {
+        if(running) { return; }
+        running = true;
+        thread = new Thread(this, "Game loop of " + simulation.getGame().getTitle());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Stops the loop. Does not wait for the thread to finish, so this method can be
+    // called from any thread, including the ones that the loop itself waits for.
+    public synchronized void stop() {
+        running = false;
+        if(thread != null) { thread.interrupt(); }
+    }
+
+    public String toString() {
+        return ticks + " time frames, " + frames + " frames, " + lateTicks + " late and "
+            + droppedTicks + " dropped time frames";
+    }
+
+    public void run() {
+        long nextTick = System.nanoTime(), nextFrame = nextTick;
+        lastTickNanos = nextTick - tickNanos;
+        while(running) {
+            long now = System.nanoTime();
+            if(now >= nextTick) {
+                long due = (now - nextTick) / tickNanos + 1;
+                int steps = (int)Math.min(due, maxCatchUp);
+                lateTicks += Math.min(steps, due - 1);
+                droppedTicks += due - steps;
+                try { step(steps); }
+                catch(InterruptedException e) { break; }
+                catch(RuntimeException e) {
+                    e.printStackTrace(); // the same as Swing would, and carry on
+                }
+                ticks += steps;
+                nextTick += due * tickNanos;
+                lastTickNanos = nextTick - tickNanos;
+                now = System.nanoTime();
+            }
+            if(now >= nextFrame) {
+                present(alpha());
+                frames++;
+                nextFrame = Math.max(nextFrame + frameNanos, now);
+            }
+            long wait = Math.min(nextTick, nextFrame) - System.nanoTime();
+            if(wait > 0) { LockSupport.parkNanos(this, wait); }
+        }
+    }
+
+    // Runs the given number of time frames of the simulation. By default, they run in the
+    // thread of the loop.
+    protected void step(int count) throws InterruptedException {
+        simulation.run(count);
+    }
+
+    // Shows the game as it is alpha of the way from the previous time frame to the
+    // latest one. By default, this does nothing.
+    protected void present(double alpha) { }
+}
@@ -0,0 +1,1237 @@
+import java.awt.*;
+import java.awt.event.*;
+import javax.swing.*;
+import java.awt.geom.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/* The simulation core of the game engine, which runs the levels and entities of a Game
+ * one time frame at a time without needing a screen, a Swing timer or the event dispatch
+ * thread. GameEngine is the Swing front end that shows this simulation in a JPanel, but
+ * the simulation can also run on its own, for example on a server or in a test, as fast
+ * as the CPU allows. The mouse and key events of the component are collected into a
+ * lock-free queue in whichever thread they happen in, and delivered to the listeners of
+ * the game at the start of the next time frame in the thread that runs the simulation.
+ * Without a front end, the games get a stub component, and the input methods of this
+ * class put mouse and key events into the same queue as Swing would.
+ *
+ * Running this class as a program plays the given game headless for the given number
+ * of time frames with random mouse input, and reports how fast that went. With the
+ * option "record", each frame is also recorded and replayed into an image, with the
+ * option "dirty", each frame is drawn into a retained image only where it has changed,
+ * with the option "layers", the Z-levels of each recorded frame are drawn in parallel,
+ * and with the option "parallel", the concurrent entities act in parallel.
+ */
+
+public class GameSimulation {
+    
+    private EntityStore store;
+    private java.util.List<Level> levels;
+    
+    private GameHooks hooks;
+    private Level currentLevel;
+    private Game game;
+    private int nextLevelIdx;
+    private volatile int currentTime;
+    private int currentScore;
+    private JComponent component;
+    private int mx, my;
+    private String message = null;
+    private int messageDelay, messageStart;
+    private Semaphore mutex = new Semaphore(1);
+    
+    // The collision broadphase grids of each collision layer, rebuilt once per time frame.
+    private Map<Integer, SpatialHash> grids = new HashMap<Integer, SpatialHash>();
+    private double cellSize = 64, collisionSlack = 16;
+    
+    // The sweeps of the collision pass, for the collision layers that contain Colliders.
+    private Map<Integer, SweepAndPrune> sweeps = new TreeMap<Integer, SweepAndPrune>();
+    private int parallelCollisions = 4096;
+    
+    // The input events waiting for the next time frame, and the listeners of the game.
+    private ConcurrentLinkedQueue<QueuedEvent> inputQueue = new ConcurrentLinkedQueue<QueuedEvent>();
+    private ArrayList<MouseListener> mouseListeners = new ArrayList<MouseListener>();
+    private ArrayList<MouseMotionListener> motionListeners = new ArrayList<MouseMotionListener>();
+    private ArrayList<KeyListener> keyListeners = new ArrayList<KeyListener>();
+    private int eventTime;
+    
+    // The parallel update of the concurrent entities, with the entities collected for it
+    // during the time frame, and the chunk of them that the current thread is running.
+    private boolean parallelUpdate;
+    private Entity[] concurrent = new Entity[64];
+    private int[] concurrentFrames = new int[64];
+    private int concurrentCount;
+    private ArrayList<UpdateChunk> updateChunks = new ArrayList<UpdateChunk>();
+    private ThreadLocal<UpdateChunk> currentChunk = new ThreadLocal<UpdateChunk>();
+    private volatile boolean updating;
+    
+    // The entity pools of the game by the class of their entities.
+    private Map<Class<?>, EntityPool<?>> pools = new HashMap<Class<?>, EntityPool<?>>();
+    // The sprite caches of the game, for their statistics.
+    private final java.util.List<SpriteCache> spriteCaches = new CopyOnWriteArrayList<SpriteCache>();
+    
+    // When recording, the frames are recorded at the end of each time frame into one of
+    // three buffers. The simulation owns the back buffer and the renderer owns the front
+    // buffer, and the two swap their buffer with the middle one that holds the latest
+    // completed frame, so that neither of them ever waits for the other.
+    private static final int FRESH = 4;
+    private volatile boolean recording;
+    private RenderRecorder recorder;
+    private RenderBuffer[] frames;
+    private int backFrame = 0, frontFrame = 1;
+    private AtomicInteger middleFrame = new AtomicInteger(2);
+    
+    // When tracking the dirty regions, the areas of the screen that have changed during the
+    // time frames since the latest frame was recorded or drawn, the areas that changed in
+    // the frame drawn last, and the areas that changed in each recorded frame.
+    private volatile boolean dirtyTracking;
+    private DirtyRegion dirty, shownDirty;
+    private volatile DirtyRegion[] frameDirty;
+    
+    // When rendering in layers, each Z-level of the recorded frames is a layer of its own,
+    // and the renderer draws the layers in parallel into their own images.
+    private volatile boolean layeredRendering;
+    private volatile LayerCompositor compositor;
+    
+    // Renders the entities of each Z-level grouped by their render keys.
+    private RenderBatcher batcher = new RenderBatcher();
+    private volatile boolean renderBatching = true;
+    
+    // The entities whose bounding boxes are farther than the margin outside the clip are not
+    // rendered, and those that allow it act less often when that far outside the screen.
+    private volatile boolean culling = true, offscreenThrottling = true;
+    private volatile double cullMargin = 32;
+    private Rectangle2D.Double view = new Rectangle2D.Double(), screen = new Rectangle2D.Double();
+    
+    // The governor that lowers the quality of the game when it falls behind, if any, and the
+    // quality of the current time frame and of the frame drawn last.
+    private volatile FrameGovernor governor;
+    private int tickQuality, renderQuality;
+    // The entity whose action the sequential update is running, if any.
+    private Entity acting;
+    // The antialiasing of the graphics that the latest frame was drawn into, which the
+    // recorded frames assume for the sprites that they paint. The game engines turn it on.
+    private volatile Object antialiasing = RenderingHints.VALUE_ANTIALIAS_ON;
+    
+    // Creates a headless simulation of the game, with a stub component that is never shown.
+    public GameSimulation(Game game) {
+        this(game, new JPanel());
+    }
+    
+    // Creates a simulation of the game, whose levels and entities will attach their event
+    // listeners to the given component.
+    public GameSimulation(Game game, JComponent component) {
+        this.game = game;
+        this.component = component;
+        InputCapture capture = new InputCapture();
+        component.addMouseListener(capture);
+        component.addMouseMotionListener(capture);
+        component.addKeyListener(capture);
+        hooks = new MyGameHooks();
+        startNewGame();
+    }
+    
+    // Starts the game from the beginning, forgetting all entities and listeners.
+    public void startNewGame() {
+        try {
+            mutex.acquire();
+            mouseListeners.clear();
+            motionListeners.clear();
+            keyListeners.clear();
+            pools.clear();
+            spriteCaches.clear();
+            store = new EntityStore();
+            store.setRecycler(this::recycle);
+            if(dirtyTracking) {
+                store.setDirtyRegion(dirty);
+                dirty.addAll();
+            }
+            grids.clear();
+            sweeps.clear();
+            levels = game.startNewGame(hooks);
+            nextLevelIdx = 0;
+            currentTime = 0;
+            currentScore = 0;
+            message = null;
+            startNewLevel();
+        }
+        catch(InterruptedException e) { }
+        finally {
+            mutex.release();
+        }
+    }
+    
+    private void startNewLevel() {
+        if(nextLevelIdx == levels.size()) {
+            nextLevelIdx = 0;
+        }
+        else {
+            currentLevel = levels.get(nextLevelIdx++);
+            currentLevel.initialize(currentTime);
+        }
+    }
+    
+    // Sets the cell size of the spatial hash grid used to find the collision candidates,
+    // and the slack that is the farthest distance that an entity can move during one time
+    // frame. The grids are rebuilt once at the start of each time frame, so an entity that
+    // has moved since then is still found as long as it moved less than the slack. One that
+    // moves farther, or jumps to a new place, is silently missed by getCollisions and the
+    // spatial queries until the next time frame, so the slack should be at least the top
+    // speed of the fastest entity. With assertions enabled (java -ea), the engine checks
+    // this after the actions of each time frame. Cells somewhat larger than the typical
+    // entity usually work best.
+    public void setCollisionGrid(double cellSize, double slack) {
+        if(cellSize <= 0 || slack < 0) {
+            throw new IllegalArgumentException("Illegal collision grid " + cellSize + ", " + slack);
+        }
+        this.cellSize = cellSize;
+        this.collisionSlack = slack;
+    }
+    
+    // Sets the number of entities on one Z-level from which on the collision pass finds
+    // the overlapping pairs in parallel on all cores.
+    public void setParallelCollisions(int minEntities) {
+        this.parallelCollisions = minEntities;
+    }
+    
+    // Sets whether the actions of the entities that implement ConcurrentEntity are run in
+    // parallel after those of the other entities, with their effects buffered and then
+    // applied in a deterministic order. Off by default.
+    public void setParallelUpdate(boolean parallelUpdate) {
+        this.parallelUpdate = parallelUpdate;
+    }
+    
+    public boolean isParallelUpdate() { return parallelUpdate; }
+    
+    // Sets whether the entities are recorded into a render buffer at the end of each time
+    // frame, so that render replays the latest recorded frame without waiting for the
+    // simulation and without touching any entities. The frames should be rendered from a
+    // single thread.
+    public void setRecording(boolean recording) {
+        try {
+            mutex.acquire();
+            if(recording && frames == null) {
+                recorder = new RenderRecorder();
+                frames = new RenderBuffer[] { new RenderBuffer(), new RenderBuffer(), new RenderBuffer() };
+            }
+            this.recording = recording;
+            createFrameDirty();
+        }
+        catch(InterruptedException e) { }
+        finally { mutex.release(); }
+    }
+    
+    public boolean isRecording() { return recording; }
+    
+    // Sets whether the simulation keeps track of the areas of the screen that change in each
+    // time frame, so that the front ends can draw only those areas with the render method
+    // that takes a dirty region, and keep the rest of the frame from the previous one. The
+    // areas are found from the bounding boxes and the shape keys of the entities, or asked
+    // from the entities that implement DirtyTracking. Off by default.
+    public void setDirtyTracking(boolean tracking) {
+        try {
+            mutex.acquire();
+            if(tracking && dirty == null) {
+                Dimension d = game.getDimension();
+                dirty = new DirtyRegion(d.width, d.height);
+                shownDirty = new DirtyRegion(d.width, d.height);
+            }
+            if(dirty != null) { dirty.addAll(); }
+            store.setDirtyRegion(tracking ? dirty : null);
+            this.dirtyTracking = tracking;
+            createFrameDirty();
+        }
+        catch(InterruptedException e) { }
+        finally { mutex.release(); }
+    }
+    
+    public boolean isDirtyTracking() { return dirtyTracking; }
+    
+    // Sets whether each Z-level of the recorded frames is drawn by render into an image of
+    // its own, all levels in parallel, and the images then composited in the order of Z.
+    // This helps with frames that take long to rasterize, and has an effect only when
+    // recording, since the entities themselves are never drawn from several threads.
+    // Off by default.
+    public void setLayeredRendering(boolean layered) {
+        try {
+            mutex.acquire();
+            if(layered && compositor == null) {
+                Dimension d = game.getDimension();
+                compositor = new LayerCompositor(d.width, d.height);
+            }
+            this.layeredRendering = layered;
+        }
+        catch(InterruptedException e) { }
+        finally { mutex.release(); }
+    }
+    
+    public boolean isLayeredRendering() { return layeredRendering; }
+    
+    // Sets whether the entities of each Z-level that have equal render keys are rendered
+    // one after another. See the render key of Entity and the class RenderBatcher. On by
+    // default.
+    public void setRenderBatching(boolean batching) { this.renderBatching = batching; }
+    
+    public boolean isRenderBatching() { return renderBatching; }
+    
+    public RenderBatcher getBatcher() { return batcher; }
+    
+    // Sets whether the entities that cannot touch the clip of the graphics are left out when
+    // rendering, as found from the bounding boxes of their shapes. When recording, the clip
+    // is the screen of the game. Entities with an empty shape are always rendered. On by
+    // default.
+    public void setCulling(boolean culling) { this.culling = culling; }
+    
+    public boolean isCulling() { return culling; }
+    
+    // Sets how far outside the clip an entity is still rendered, and outside the screen an
+    // entity still acts every time frame, to allow for the strokes of the shapes and the
+    // motion of the entities between time frames. 32 pixels by default.
+    public void setCullMargin(double margin) {
+        if(margin < 0) {
+            throw new IllegalArgumentException("Illegal cull margin " + margin);
+        }
+        this.cullMargin = margin;
+    }
+    
+    // Sets whether the entities that implement OffscreenThrottled act less often while off
+    // the screen. On by default.
+    public void setOffscreenThrottling(boolean throttling) { this.offscreenThrottling = throttling; }
+    
+    public boolean isOffscreenThrottling() { return offscreenThrottling; }
+    
+    // Sets the governor that measures how long the time frames and the frames take, and
+    // lowers the quality of the game when they take too long, or null to keep the quality
+    // always full. See the class FrameGovernor. None by default.
+    public void setFrameGovernor(FrameGovernor governor) { this.governor = governor; }
+    
+    public FrameGovernor getFrameGovernor() { return governor; }
+    
+    // The compositor of the layers, or null if the frames have never been drawn in layers.
+    public LayerCompositor getCompositor() { return compositor; }
+    
+    // Gives each recorded frame its dirty region, once both are in use.
+    private void createFrameDirty() {
+        if(frames != null && dirty != null && frameDirty == null) {
+            DirtyRegion[] fd = new DirtyRegion[frames.length];
+            for(int i = 0; i < fd.length; i++) {
+                fd[i] = new DirtyRegion(dirty.getWidth(), dirty.getHeight());
+                fd[i].addAll();
+            }
+            frameDirty = fd;
+        }
+    }
+    
+    public Game getGame() { return game; }
+    public GameHooks getHooks() { return hooks; }
+    public JComponent getComponent() { return component; }
+    public int getTime() { return currentTime; }
+    public int getScore() { return currentScore; }
+    public int getEntityCount() { return store.size(); }
+    
+    // The entity pools registered by the current game, with their statistics.
+    public Collection<EntityPool<?>> getPools() {
+        return Collections.unmodifiableCollection(pools.values());
+    }
+    
+    // The sprite caches registered by the current game, with their statistics.
+    public java.util.List<SpriteCache> getSpriteCaches() {
+        return Collections.unmodifiableList(spriteCaches);
+    }
+    
+    // Releases the resources of the game.
+    public void terminate() {
+        game.terminate();
+    }
+    
+    // Runs the given number of time frames of the game as fast as possible.
+    public void run(int ticks) {
+        for(int i = 0; i < ticks; i++) { tick(); }
+    }
+    
+    // Runs one time frame of the game.
+    public void tick() {
+        long start = System.nanoTime();
+        FrameGovernor gov = governor;
+        try {
+            mutex.acquire();
+            currentTime++;
+            int quality = gov != null ? gov.getQuality() : FrameGovernor.FULL;
+            boolean requality = quality != tickQuality;
+            tickQuality = quality;
+            deliverInput();
+            
+            if(currentLevel != null) {
+                currentLevel.action(currentTime);
+                if(currentLevel.isCompleted(currentTime)) {
+                    startNewLevel();
+                }
+            }
+            store.invalidateShapes(); // the input and the level may have changed the entities
+            buildGrids();
+            boolean parallel = parallelUpdate, throttling = offscreenThrottling;
+            if(throttling) { grow(screen, cullMargin); }
+            for(int l = 0; l < store.layerCount(); l++) {
+                for(int i = 0; i < store.layerSize(l); i++) {
+                    Entity e = store.get(l, i);
+                    int frames = 1;
+                    if(throttling && e instanceof OffscreenThrottled) {
+                        frames = throttle((OffscreenThrottled)e, store.handle(l, i));
+                        if(frames == 0) { continue; }
+                    }
+                    if(parallel && e instanceof ConcurrentEntity) {
+                        if(concurrentCount == concurrent.length) {
+                            concurrent = Arrays.copyOf(concurrent, 2 * concurrentCount);
+                            concurrentFrames = Arrays.copyOf(concurrentFrames, 2 * concurrentCount);
+                        }
+                        concurrentFrames[concurrentCount] = frames;
+                        concurrent[concurrentCount++] = e;
+                    }
+                    else {
+                        acting = e;
+                        act(e, frames);
+                        acting = null;
+                        store.invalidateShape(store.handle(l, i));
+                    }
+                }
+            }
+            if(concurrentCount > 0) { updateConcurrent(); }
+            store.invalidateShapes();
+            assert withinSlack();
+            collisionPass();
+            store.invalidateShapes(); // the collisions may have changed the entities
+            for(int k = 0; k < store.pendingCount(); k++) {
+                Entity e = store.pending(k);
+                int layer = layerOf(e, store.pendingZ(k));
+                SweepAndPrune sweep = sweeps.get(layer);
+                if(sweep != null) { sweep.add(e, store.pendingHandle(k)); }
+                else if(e instanceof Collider) {
+                    // The first Collider of this layer starts the sweep of all its entities.
+                    sweep = new SweepAndPrune();
+                    for(int l = 0; l < store.layerCount(); l++) {
+                        for(int i = 0; i < store.layerSize(l); i++) {
+                            Entity e2 = store.get(l, i);
+                            if(layerOf(e2, store.layerZ(l)) == layer) { sweep.add(e2, store.handle(l, i)); }
+                        }
+                    }
+                    for(int j = 0; j <= k; j++) {
+                        if(layerOf(store.pending(j), store.pendingZ(j)) == layer) {
+                            sweep.add(store.pending(j), store.pendingHandle(j));
+                        }
+                    }
+                    sweeps.put(layer, sweep);
+                }
+            }
+            store.flush();
+            store.removeInactive(currentTime);
+            if(dirtyTracking) {
+                store.markDirty(currentTime);
+                markText();
+                if(requality) { dirty.addAll(); } // the entities may now look different
+            }
+            if(recording) { record(); }
+        }
+        catch(InterruptedException e) { }
+        finally {
+            mutex.release();
+        }
+        if(gov != null) { gov.addTick(System.nanoTime() - start, currentTime); }
+    }
+    
+    // The number of time frames that the entity, which may skip its actions while off the
+    // screen, should act for now, or 0 if it should skip this one. An entity always acts in
+    // its first time frame, which starts the count of the frames that it may skip.
+    private int throttle(OffscreenThrottled e, int handle) {
+        int last = store.lastAction(handle);
+        if(last >= 0) {
+            int frames = currentTime - last;
+            if(frames < e.getOffscreenInterval() && isOutside(store.bounds(e, handle, currentTime), screen)) { return 0; }
+            store.setLastAction(handle, currentTime);
+            return Math.max(1, frames);
+        }
+        store.setLastAction(handle, currentTime);
+        return 1;
+    }
+    
+    // Declares the remembered shape of the entity invalid, if it is in the store.
+    private void invalidateShape(Entity e) {
+        int h = store.handleOf(e);
+        if(h != EntityStore.NOHANDLE) { store.invalidateShape(h); }
+    }
+    
+    // Lets the entity act for the given number of time frames.
+    private void act(Entity e, int frames) {
+        if(frames > 1) { ((OffscreenThrottled)e).catchUp(currentTime, frames); }
+        else { e.action(currentTime); }
+    }
+    
+    // Sets the rectangle to the screen of the game grown by the margin on every side.
+    private void grow(Rectangle2D.Double r, double margin) {
+        Dimension d = game.getDimension();
+        r.setRect(-margin, -margin, d.width + 2 * margin, d.height + 2 * margin);
+    }
+    
+    // Whether the bounding box of a shape lies entirely outside the rectangle. An empty box
+    // could be anywhere, and is never outside.
+    static boolean isOutside(Rectangle2D b, Rectangle2D r) {
+        if(b.getWidth() <= 0 && b.getHeight() <= 0) { return false; }
+        return b.getMaxX() < r.getMinX() || b.getMinX() > r.getMaxX() || b.getMaxY() < r.getMinY() || b.getMinY() > r.getMaxY();
+    }
+    
+    // Runs the actions of the concurrent entities in chunks, in parallel if there are
+    // enough of them, and then applies the buffered effects of the chunks in order.
+    private void updateConcurrent() {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int chunkCount = Math.max(1, Math.min(concurrentCount / 128, 4 * pool.getParallelism()));
+        while(updateChunks.size() < chunkCount) { updateChunks.add(new UpdateChunk()); }
+        for(int c = 0; c < chunkCount; c++) {
+            UpdateChunk chunk = updateChunks.get(c);
+            chunk.reinitialize();
+            chunk.start = (int)((long)concurrentCount * c / chunkCount);
+            chunk.end = (int)((long)concurrentCount * (c + 1) / chunkCount);
+        }
+        updating = true;
+        try {
+            if(chunkCount == 1) {
+                updateChunks.get(0).compute();
+            }
+            else {
+                pool.invoke(new RecursiveAction() {
+                    protected void compute() { invokeAll(updateChunks.subList(0, chunkCount)); }
+                });
+            }
+        }
+        finally {
+            updating = false;
+            Arrays.fill(concurrent, 0, concurrentCount, null);
+            concurrentCount = 0;
+        }
+        for(int c = 0; c < chunkCount; c++) {
+            UpdateChunk chunk = updateChunks.get(c);
+            currentScore += chunk.score;
+            for(Entity e: chunk.spawns) { store.add(e); }
+            if(chunk.message != null) { hooks.setMessage(chunk.message, chunk.messageDelay); }
+        }
+        for(int c = 0; c < chunkCount; c++) {
+            UpdateChunk chunk = updateChunks.get(c);
+            for(int k = 0; k < chunk.targets.size(); k++) {
+                chunk.targets.get(k).sendMessage(chunk.sources.get(k), chunk.messages.get(k));
+            }
+            chunk.clear();
+        }
+    }
+    
+    // A chunk of the concurrent entities, with the effects of their actions.
+    private class UpdateChunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private int start, end, score;
+        private ArrayList<Entity> spawns = new ArrayList<Entity>();
+        private ArrayList<Entity> targets = new ArrayList<Entity>(), sources = new ArrayList<Entity>();
+        private ArrayList<String> messages = new ArrayList<String>();
+        private String message;
+        private int messageDelay;
+        
+        protected void compute() {
+            UpdateChunk outer = currentChunk.get(); // in case this thread was helping out another chunk
+            currentChunk.set(this);
+            try {
+                for(int i = start; i < end; i++) { act(concurrent[i], concurrentFrames[i]); }
+            }
+            finally { currentChunk.set(outer); }
+        }
+        
+        private void clear() {
+            score = 0;
+            spawns.clear();
+            targets.clear();
+            sources.clear();
+            messages.clear();
+            message = null;
+        }
+    }
+    
+    // The chunk whose effects the current thread is buffering, or null if the effects
+    // take place right away.
+    private UpdateChunk chunk() {
+        return updating ? currentChunk.get() : null;
+    }
+    
+    // Records the current frame into the back buffer and publishes it as the middle buffer.
+    // The dirty region of the frame is the area that changed since the previous frame, and
+    // if the middle buffer that it replaces was never shown, the area of that one as well.
+    private void record() {
+        recorder.begin(frames[backFrame]);
+        recorder.assumeRenderingHint(RenderingHints.KEY_ANTIALIASING, antialiasing);
+        draw(recorder, 1.0);
+        DirtyRegion[] fd = frameDirty;
+        if(fd == null) {
+            backFrame = middleFrame.getAndSet(backFrame | FRESH) & 3;
+            return;
+        }
+        if(!dirtyTracking) { dirty.addAll(); }
+        fd[backFrame].set(dirty);
+        dirty.clear();
+        int old = middleFrame.get();
+        if((old & FRESH) != 0) {
+            // The renderer only ever reads the regions, so this is safe even if it takes
+            // the middle buffer meanwhile, which just makes the region larger than needed.
+            fd[backFrame].add(fd[old & 3]);
+        }
+        if(!middleFrame.compareAndSet(old, backFrame | FRESH)) {
+            old = middleFrame.getAndSet(backFrame | FRESH);
+        }
+        backFrame = old & 3;
+    }
+    
+    // Adds the score and the message where draw puts them to the dirty region.
+    private void markText() {
+        markText(currentScore + "", 20, 20);
+        if(message != null && currentTime - messageStart < messageDelay + 25) {
+            markText(message, mx, my - 1);
+        }
+    }
+    
+    private void markText(String s, int x, int y) {
+        double m = DirtyRegion.MARGIN;
+        dirty.add(x - m, y - HUDMETRICS.getAscent() - m, HUDMETRICS.stringWidth(s) + 2 * m,
+            HUDMETRICS.getAscent() + HUDMETRICS.getDescent() + 2 * m);
+    }
+    
+    // Renders the current state of the game, with the score and the message on top.
+    public void render(Graphics2D g2) {
+        render(g2, 1.0);
+    }
+    
+    // As above, but the entities are rendered alpha of the way from the previous time
+    // frame to the current one. When recording, this replays the latest recorded frame.
+    public void render(Graphics2D g2, double alpha) {
+        render(g2, alpha, null);
+    }
+    
+    // As above, but draws only the areas of the screen that may have changed since the
+    // previous call of this method, whose frame should still be there on whatever g2 draws
+    // on, and adds those areas to the region changed. The areas are cleared to the background
+    // color of g2 before drawing them. Without dirty tracking, the entire screen is drawn.
+    // If changed is null, the entire screen is drawn over the previous frame as usual. With
+    // a frame governor, antialiasing is turned off when it has lowered the quality that far.
+    public void render(Graphics2D g2, double alpha, DirtyRegion changed) {
+        long start = System.nanoTime();
+        FrameGovernor gov = governor;
+        int quality = gov != null ? gov.getQuality() : FrameGovernor.FULL;
+        if(quality >= FrameGovernor.NOANTIALIASING) {
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+        }
+        if(changed != null && (quality >= FrameGovernor.NOANTIALIASING) != (renderQuality >= FrameGovernor.NOANTIALIASING)) {
+            changed.addAll(); // the previous frame was drawn with the other antialiasing
+        }
+        renderQuality = quality;
+        Object aa = g2.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+        if(aa != null) { antialiasing = aa; }
+        renderFrame(g2, alpha, changed);
+        if(gov != null) { gov.addFrame(System.nanoTime() - start); }
+    }
+    
+    private void renderFrame(Graphics2D g2, double alpha, DirtyRegion changed) {
+        if(recording) {
+            DirtyRegion[] fd = frameDirty;
+            if(changed != null) {
+                if(fd != null && dirtyTracking) { changed.add(fd[frontFrame]); } else { changed.addAll(); }
+            }
+            if((middleFrame.get() & FRESH) != 0) {
+                frontFrame = middleFrame.getAndSet(frontFrame) & 3;
+                if(changed != null && fd != null) { changed.add(fd[frontFrame]); }
+            }
+            Shape clip = changed != null ? clear(g2, changed) : null;
+            if(changed == null || !changed.isEmpty()) {
+                RenderBuffer frame = frames[frontFrame];
+                if(compositor != null && frame.layerCount() > 1) { compositor.replay(frame, g2, alpha, component); }
+                else { frame.replay(g2, alpha, component); }
+            }
+            if(changed != null) { g2.setClip(clip); }
+            return;
+        }
+        try {
+            mutex.acquire();
+            Shape clip = null;
+            if(changed != null) {
+                if(dirtyTracking) {
+                    changed.add(shownDirty);
+                    if(!dirty.isEmpty()) {
+                        shownDirty.set(dirty);
+                        dirty.clear();
+                        changed.add(shownDirty);
+                    }
+                }
+                else { changed.addAll(); }
+                clip = clear(g2, changed);
+            }
+            if(changed == null || !changed.isEmpty()) { draw(g2, alpha); }
+            if(changed != null) { g2.setClip(clip); }
+        }
+        catch(InterruptedException e) { }
+        finally { mutex.release(); }
+    }
+    
+    // Clears the region and clips g2 to it, returning the clip that g2 had before. A region
+    // that covers most of the screen is made full, since clipping the drawing to many small
+    // rectangles would then cost more than it saves. The region is filled before clipping
+    // to it, and with the usual composite when the background is opaque, since clearing
+    // goes through a very slow general pipeline otherwise.
+    private Shape clear(Graphics2D g2, DirtyRegion region) {
+        Shape clip = g2.getClip();
+        if(region.getDirtyTiles() > FULLDIRTY * region.getTiles()) { region.addAll(); }
+        if(!region.isEmpty()) {
+            Shape s = region.getShape();
+            Color background = g2.getBackground();
+            Composite composite = g2.getComposite();
+            Paint paint = g2.getPaint();
+            g2.setComposite(background.getAlpha() == 255 ? AlphaComposite.SrcOver : AlphaComposite.Src);
+            g2.setPaint(background);
+            if(region.isFull()) { g2.fillRect(0, 0, region.getWidth(), region.getHeight()); }
+            else { g2.fill(s); }
+            g2.setComposite(composite);
+            g2.setPaint(paint);
+            // A full region needs no clip, which keeps Java2D on its fastest paths.
+            if(!region.isFull()) { g2.clip(s); }
+        }
+        return clip;
+    }
+    
+    // The share of the dirty tiles above which the entire screen is drawn.
+    private static final double FULLDIRTY = 0.5;
+    
+    // The font of the score and the message, with its metrics for the dirty regions.
+    private static final Font HUDFONT = new Font(Font.DIALOG, Font.BOLD, 12);
+    private static final FontMetrics HUDMETRICS =
+        new java.awt.image.BufferedImage(1, 1, java.awt.image.BufferedImage.TYPE_INT_ARGB).createGraphics().getFontMetrics(HUDFONT);
+    
+    // The shades of the message as it fades away.
+    private static final Color[] FADE = new Color[26];
+    static {
+        for(int i = 0; i < FADE.length; i++) {
+            int shade = Math.max(0, 255 - 10 * i);
+            FADE[i] = new Color(shade, shade, shade);
+        }
+    }
+    
+    private void draw(Graphics2D g2, double alpha) {
+        boolean layered = layeredRendering && g2 == recorder, batching = renderBatching;
+        Rectangle2D cull = null;
+        if(culling) {
+            Rectangle clip = g2.getClipBounds();
+            double m = cullMargin;
+            if(clip == null) { grow(view, m); }
+            else { view.setRect(clip.x - m, clip.y - m, clip.width + 2 * m, clip.height + 2 * m); }
+            cull = view;
+        }
+        for(int l = 0; l < store.layerCount(); l++) {
+            if(layered && l > 0) { recorder.nextLayer(); }
+            if(batching) {
+                batcher.render(store, l, g2, currentTime, alpha, cull);
+                continue;
+            }
+            for(int i = 0; i < store.layerSize(l); i++) {
+                Entity e = store.get(l, i);
+                if(cull == null || !isOutside(store.bounds(e, store.handle(l, i), currentTime), cull)) {
+                    e.render(g2, currentTime, alpha);
+                }
+            }
+        }
+        g2.setPaint(Color.WHITE);
+        g2.setFont(HUDFONT);
+        g2.drawString(currentScore + "", 20, 20 );
+        if(message != null && currentTime - messageStart < messageDelay + 25) {
+            if(currentTime - messageStart <= messageDelay) {
+                g2.setPaint(Color.WHITE);
+            }
+            else {
+                g2.setPaint(FADE[currentTime - messageStart - messageDelay]);
+            }
+            g2.drawString(message, mx, my - 1);
+        }
+    }
+    
+    // The programmatic input of the game. These methods put the event into the input
+    // queue, to be delivered at the start of the next time frame.
+    public void mouseMoved(int x, int y) {
+        post(mouseEvent(MouseEvent.MOUSE_MOVED, x, y, 0));
+    }
+    
+    public void mouseDragged(int x, int y) {
+        post(mouseEvent(MouseEvent.MOUSE_DRAGGED, x, y, MouseEvent.BUTTON1));
+    }
+    
+    public void mousePressed(int x, int y) {
+        post(mouseEvent(MouseEvent.MOUSE_PRESSED, x, y, MouseEvent.BUTTON1));
+    }
+    
+    public void mouseReleased(int x, int y) {
+        post(mouseEvent(MouseEvent.MOUSE_RELEASED, x, y, MouseEvent.BUTTON1));
+        post(mouseEvent(MouseEvent.MOUSE_CLICKED, x, y, MouseEvent.BUTTON1));
+    }
+    
+    public void keyPressed(int keyCode, char keyChar) {
+        post(new KeyEvent(component, KeyEvent.KEY_PRESSED, System.currentTimeMillis(), 0, keyCode, keyChar));
+        if(keyChar != KeyEvent.CHAR_UNDEFINED) {
+            post(new KeyEvent(component, KeyEvent.KEY_TYPED, System.currentTimeMillis(), 0, KeyEvent.VK_UNDEFINED, keyChar));
+        }
+    }
+    
+    public void keyReleased(int keyCode, char keyChar) {
+        post(new KeyEvent(component, KeyEvent.KEY_RELEASED, System.currentTimeMillis(), 0, keyCode, keyChar));
+    }
+    
+    // Puts an input event into the queue, stamped with the current time frame. This can
+    // be called from any thread.
+    public void post(InputEvent e) {
+        inputQueue.offer(new QueuedEvent(e, currentTime));
+    }
+    
+    // Delivers the queued input events to the listeners of the game, in the order that
+    // they happened. The listeners are copied for each event, so that they can add and
+    // remove listeners.
+    private void deliverInput() {
+        QueuedEvent qe;
+        while((qe = inputQueue.poll()) != null) {
+            eventTime = qe.time;
+            int id = qe.event.getID();
+            if(qe.event instanceof KeyEvent) {
+                KeyEvent ke = (KeyEvent)qe.event;
+                for(KeyListener kl: keyListeners.toArray(new KeyListener[keyListeners.size()])) {
+                    if(id == KeyEvent.KEY_PRESSED) { kl.keyPressed(ke); }
+                    else if(id == KeyEvent.KEY_RELEASED) { kl.keyReleased(ke); }
+                    else if(id == KeyEvent.KEY_TYPED) { kl.keyTyped(ke); }
+                }
+            }
+            else if(id == MouseEvent.MOUSE_MOVED || id == MouseEvent.MOUSE_DRAGGED) {
+                MouseEvent me = (MouseEvent)qe.event;
+                mx = me.getX();
+                my = me.getY();
+                for(MouseMotionListener ml: motionListeners.toArray(new MouseMotionListener[motionListeners.size()])) {
+                    if(id == MouseEvent.MOUSE_MOVED) { ml.mouseMoved(me); }
+                    else { ml.mouseDragged(me); }
+                }
+            }
+            else if(qe.event instanceof MouseEvent) {
+                MouseEvent me = (MouseEvent)qe.event;
+                for(MouseListener ml: mouseListeners.toArray(new MouseListener[mouseListeners.size()])) {
+                    if(id == MouseEvent.MOUSE_PRESSED) { ml.mousePressed(me); }
+                    else if(id == MouseEvent.MOUSE_RELEASED) { ml.mouseReleased(me); }
+                    else if(id == MouseEvent.MOUSE_CLICKED) { ml.mouseClicked(me); }
+                    else if(id == MouseEvent.MOUSE_ENTERED) { ml.mouseEntered(me); }
+                    else if(id == MouseEvent.MOUSE_EXITED) { ml.mouseExited(me); }
+                }
+            }
+        }
+    }
+    
+    private static class QueuedEvent {
+        final InputEvent event;
+        final int time;
+        QueuedEvent(InputEvent event, int time) {
+            this.event = event;
+            this.time = time;
+        }
+    }
+    
+    // Collects the events of the component into the input queue.
+    private class InputCapture implements MouseListener, MouseMotionListener, KeyListener {
+        public void mousePressed(MouseEvent me) { post(me); }
+        public void mouseReleased(MouseEvent me) { post(me); }
+        public void mouseClicked(MouseEvent me) { post(me); }
+        public void mouseEntered(MouseEvent me) { post(me); }
+        public void mouseExited(MouseEvent me) { post(me); }
+        public void mouseMoved(MouseEvent me) { post(me); }
+        public void mouseDragged(MouseEvent me) { post(me); }
+        public void keyPressed(KeyEvent ke) { post(ke); }
+        public void keyReleased(KeyEvent ke) { post(ke); }
+        public void keyTyped(KeyEvent ke) { post(ke); }
+    }
+    
+    private MouseEvent mouseEvent(int id, int x, int y, int button) {
+        return new MouseEvent(component, id, System.currentTimeMillis(), 0, x, y,
+            id == MouseEvent.MOUSE_CLICKED ? 1 : 0, false, button);
+    }
+    
+    // Puts a removed entity back into the pool of its class, if there is one.
+    private void recycle(Entity e) {
+        if(pools.isEmpty() || !(e instanceof Poolable)) { return; }
+        EntityPool<?> pool = pools.get(e.getClass());
+        if(pool != null) { pool.release((Poolable)e); }
+    }
+    
+    // The collision layer of an entity on Z-level z.
+    private static int layerOf(Entity e, int z) {
+        return e instanceof CollisionFilter ? ((CollisionFilter)e).getCollisionLayer() : z;
+    }
+    
+    // Rebuilds the collision grids of each layer from the entities in the store.
+    private void buildGrids() {
+        for(SpatialHash grid: grids.values()) {
+            grid.setCellSize(cellSize);
+            grid.begin();
+        }
+        for(int l = 0; l < store.layerCount(); l++) {
+            SpatialHash grid = null;
+            int gridLayer = 0;
+            for(int i = 0; i < store.layerSize(l); i++) {
+                Entity e = store.get(l, i);
+                int layer = layerOf(e, store.layerZ(l));
+                if(grid == null || layer != gridLayer) {
+                    grid = grids.get(layer);
+                    if(grid == null) {
+                        grid = new SpatialHash(cellSize);
+                        grid.begin();
+                        grids.put(layer, grid);
+                    }
+                    gridLayer = layer;
+                }
+                int h = store.handle(l, i);
+                grid.add(e, h, store.shape(e, h, currentTime), store.bounds(e, h, currentTime));
+            }
+        }
+        for(SpatialHash grid: grids.values()) { grid.finish(); }
+    }
+    
+    // Checks that no active entity has moved farther than the collision slack from where it
+    // was when the grids were built, since the queries of this time frame would have missed
+    // it. Only called with assertions enabled, as it asks every entity for its shape again.
+    private boolean withinSlack() {
+        for(SpatialHash grid: grids.values()) {
+            for(int i = 0; i < grid.size(); i++) {
+                Entity e = grid.entity(i);
+                if(!e.isActive()) { continue; }
+                double d = grid.distanceOutside(i, store.bounds(e, grid.handle(i), currentTime));
+                if(d > collisionSlack) {
+                    throw new AssertionError(e + " moved " + d + " outside its collision grid box at time "
+                        + currentTime + ", more than the collision slack " + collisionSlack);
+                }
+            }
+        }
+        return true;
+    }
+    
+    // Finds the overlapping pairs of entities on each collision layer that has Colliders, and lets
+    // the Colliders know about them.
+    private void collisionPass() {
+        for(SweepAndPrune sweep: sweeps.values()) {
+            sweep.update(currentTime, store);
+            sweep.findPairs(sweep.size() >= parallelCollisions ? ForkJoinPool.commonPool() : null);
+            for(int k = 0; k < sweep.pairCount(); k++) {
+                // An entity killed by an earlier pair of this pass takes no part in later ones.
+                Entity a = sweep.pairFirst(k), b = sweep.pairSecond(k);
+                // The Colliders message each other directly, which may change their shapes.
+                if(a instanceof Collider && a.isActive() && b.isActive()) {
+                    ((Collider)a).collide(b);
+                    invalidateShape(a); invalidateShape(b);
+                }
+                if(b instanceof Collider && b.isActive() && a.isActive()) {
+                    ((Collider)b).collide(a);
+                    invalidateShape(a); invalidateShape(b);
+                }
+            }
+        }
+    }
+    
+    private class MyGameHooks implements GameHooks {
+        public void grantPoints(int points) {
+            UpdateChunk chunk = chunk();
+            if(chunk != null) { chunk.score += points; }
+            else { currentScore += points; }
+        }
+        public JComponent getComponent() {
+            return component;
+        }
+        public synchronized void addMouseListener(MouseListener ml) { mouseListeners.add(ml); }
+        public synchronized void removeMouseListener(MouseListener ml) { mouseListeners.remove(ml); }
+        public synchronized void addMouseMotionListener(MouseMotionListener ml) { motionListeners.add(ml); }
+        public synchronized void removeMouseMotionListener(MouseMotionListener ml) { motionListeners.remove(ml); }
+        public synchronized void addKeyListener(KeyListener kl) { keyListeners.add(kl); }
+        public synchronized void removeKeyListener(KeyListener kl) { keyListeners.remove(kl); }
+        public int getEventTime() { return eventTime; }
+        public int addEntity(Entity e) {
+            UpdateChunk chunk = chunk();
+            if(chunk != null) {
+                chunk.spawns.add(e);
+                return EntityStore.NOHANDLE;
+            }
+            return store.add(e);
+        }
+        public void postMessage(Entity target, Entity source, String msg) {
+            UpdateChunk chunk = chunk();
+            if(chunk != null) {
+                chunk.targets.add(target);
+                chunk.sources.add(source);
+                chunk.messages.add(msg);
+            }
+            else {
+                target.sendMessage(source, msg);
+                // The message may have changed the shape of the target, or of the source if
+                // the target answered.
+                invalidateShape(target);
+                invalidateShape(source);
+            }
+        }
+        public Entity getEntity(int handle) {
+            return store.resolve(handle);
+        }
+        public synchronized void reserveEntities(int count) {
+            store.reserve(count);
+        }
+        public synchronized <T extends Poolable> void registerPool(Class<T> type, java.util.function.Supplier<T> factory, int capacity) {
+            pools.put(type, new EntityPool<T>(type, factory, capacity));
+        }
+        public void registerSpriteCache(SpriteCache cache) {
+            if(!spriteCaches.contains(cache)) { spriteCaches.add(cache); }
+        }
+        public synchronized <T extends Poolable> T acquire(Class<T> type) {
+            EntityPool<?> pool = pools.get(type);
+            if(pool == null) {
+                throw new IllegalArgumentException("No entity pool registered for " + type.getName());
+            }
+            return type.cast(pool.acquire());
+        }
+        
+        public synchronized java.util.List<Entity> getCollisions(Entity e, Rectangle2D.Double boundingBox) {
+            ArrayList<Entity> collisions = new ArrayList<Entity>();
+            // The entity that is acting may have moved since its shape was remembered.
+            if(e == acting) { invalidateShape(e); }
+            Shape es = getShape(e);
+            int layer = CollisionFilter.layerOf(e);
+            int category = CollisionFilter.categoryOf(e), mask = CollisionFilter.maskOf(e);
+            SpatialHash grid = grids.get(layer);
+            if(grid == null) {
+                // The grids have not been built yet, so look at every entity of the layer.
+                for(int l = 0; l < store.layerCount(); l++) {
+                    for(int i = 0; i < store.layerSize(l); i++) {
+                        Entity e2 = store.get(l, i);
+                        if(layerOf(e2, store.layerZ(l)) == layer && CollisionFilter.accepts(category, mask,
+                            CollisionFilter.categoryOf(e2), CollisionFilter.maskOf(e2))) {
+                            collide(e, es, e2, store.shape(e2, store.handle(l, i), currentTime), boundingBox, collisions);
+                        }
+                    }
+                }
+                return collisions;
+            }
+            // Only the entities near the query that it can collide with need to be looked at.
+            Rectangle2D r = boundingBox != null ? boundingBox : es.getBounds2D();
+            int from = grid.collect(r.getMinX() - collisionSlack, r.getMinY() - collisionSlack,
+                r.getMaxX() + collisionSlack, r.getMaxY() + collisionSlack, category, mask);
+            for(int i = from; i < grid.top(); i++) {
+                collide(e, es, grid.entityAt(i), shapeOf(grid, i), boundingBox, collisions);
+            }
+            grid.release(from);
+            return collisions;
+        }
+        
+        private void collide(Entity e, Shape es, Entity e2, Shape s, Rectangle2D.Double boundingBox, java.util.List<Entity> collisions) {
+            if(e != e2 && e2.isActive()) {
+                if(boundingBox != null && !s.intersects(boundingBox)) {
+                    return; // quick rejection
+                }
+                if(Narrowphase.intersects(es, s)) { collisions.add(e2); }
+            }
+        }
+        
+        // The shape of the entity found at index i of the grid query. While the concurrent
+        // entities act, this is the shape that the entity had at the start of the time frame.
+        private Shape shapeOf(SpatialHash grid, int i) {
+            return updating ? grid.shapeAt(i) : store.shape(grid.entityAt(i), grid.handleAt(i), currentTime);
+        }
+        
+        public Shape getShape(Entity e) {
+            return updating ? e.getShape(currentTime) : store.shape(e, currentTime);
+        }
+        
+        public Rectangle2D getBounds(Entity e) {
+            return updating ? e.getShape(currentTime).getBounds2D() : store.bounds(e, currentTime);
+        }
+        
+        // Reused query shapes for the spatial queries. The queries are synchronized, so that
+        // the concurrent entities can make them while acting in parallel.
+        private Rectangle2D.Double queryRect = new Rectangle2D.Double();
+        private Ellipse2D.Double queryCircle = new Ellipse2D.Double();
+        private double[] nearestDist = new double[0];
+        
+        public synchronized void visitRectangle(int z, double x, double y, double w, double h, EntityVisitor visitor) {
+            queryRect.setRect(x, y, w, h);
+            visitShape(z, queryRect, visitor);
+        }
+        
+        public synchronized void visitRadius(int z, double x, double y, double r, EntityVisitor visitor) {
+            queryCircle.setFrame(x - r, y - r, 2 * r, 2 * r);
+            visitShape(z, queryCircle, visitor);
+        }
+        
+        private void visitShape(int z, RectangularShape query, EntityVisitor visitor) {
+            SpatialHash grid = grids.get(z);
+            if(grid == null) { return; }
+            double x0 = query.getMinX(), y0 = query.getMinY(), x1 = query.getMaxX(), y1 = query.getMaxY();
+            int from = grid.collect(x0 - collisionSlack, y0 - collisionSlack, x1 + collisionSlack, y1 + collisionSlack);
+            try {
+                for(int i = from; i < grid.top(); i++) {
+                    Entity e2 = grid.entityAt(i);
+                    if(e2.isActive() && Narrowphase.intersects(query, shapeOf(grid, i))) {
+                        if(!visitor.visit(e2)) { return; }
+                        query.setFrame(x0, y0, x1 - x0, y1 - y0); // in case the visitor made its own query
+                    }
+                }
+            }
+            finally {
+                grid.release(from);
+            }
+        }
+        
+        public synchronized Entity raycast(int z, double x, double y, double dx, double dy, double maxDistance, Entity exclude) {
+            SpatialHash grid = grids.get(z);
+            double len = Math.sqrt(dx * dx + dy * dy);
+            if(grid == null || len == 0) { return null; }
+            dx /= len; dy /= len;
+            // Walk the ray in pieces of one cell, so that a hit near the start can end the
+            // search before the rest of the ray is looked at.
+            double step = grid.getCellSize(), best = Double.POSITIVE_INFINITY;
+            Entity hit = null;
+            for(double u0 = 0; u0 < maxDistance && best > u0; u0 += step) {
+                double u1 = Math.min(u0 + step, maxDistance);
+                double ax = x + u0 * dx, ay = y + u0 * dy, bx = x + u1 * dx, by = y + u1 * dy;
+                int from = grid.collect(Math.min(ax, bx) - collisionSlack, Math.min(ay, by) - collisionSlack,
+                    Math.max(ax, bx) + collisionSlack, Math.max(ay, by) + collisionSlack);
+                for(int i = from; i < grid.top(); i++) {
+                    Entity e2 = grid.entityAt(i);
+                    if(e2 == exclude || e2 == hit || !e2.isActive()) { continue; }
+                    double d = Narrowphase.rayDistance(shapeOf(grid, i), x, y, dx, dy, Math.min(best, maxDistance));
+                    if(d < best) { best = d; hit = e2; }
+                }
+                grid.release(from);
+            }
+            return hit;
+        }
+        
+        public synchronized int nearest(int z, double x, double y, Entity[] result, Entity exclude) {
+            SpatialHash grid = grids.get(z);
+            int k = result.length, n = 0;
+            if(nearestDist.length < k) { nearestDist = new double[k]; }
+            // Look at ever larger squares until they contain k entities whose centers are
+            // within the square's inscribed circle, or the square covers the entire grid.
+            for(double r = grid == null ? 0 : grid.getCellSize(); grid != null && k > 0; r *= 2) {
+                n = 0;
+                int from = grid.collect(x - r - collisionSlack, y - r - collisionSlack,
+                    x + r + collisionSlack, y + r + collisionSlack);
+                for(int i = from; i < grid.top(); i++) {
+                    Entity e2 = grid.entityAt(i);
+                    if(e2 == exclude || !e2.isActive()) { continue; }
+                    Shape s = shapeOf(grid, i);
+                    double cx, cy;
+                    if(s instanceof RectangularShape) {
+                        cx = ((RectangularShape)s).getCenterX(); cy = ((RectangularShape)s).getCenterY();
+                    }
+                    else {
+                        Rectangle2D b = s.getBounds2D();
+                        cx = b.getCenterX(); cy = b.getCenterY();
+                    }
+                    double d = (cx - x) * (cx - x) + (cy - y) * (cy - y);
+                    if(n == k && d >= nearestDist[k - 1]) { continue; }
+                    int j = n < k ? n++ : k - 1;
+                    while(j > 0 && nearestDist[j - 1] > d) {
+                        nearestDist[j] = nearestDist[j - 1];
+                        result[j] = result[j - 1];
+                        j--;
+                    }
+                    nearestDist[j] = d;
+                    result[j] = e2;
+                }
+                grid.release(from);
+                if((n == k && nearestDist[k - 1] <= r * r) || grid.covers(x - r, y - r, x + r, y + r)) { break; }
+            }
+            for(int i = n; i < k; i++) { result[i] = null; }
+            return n;
+        }
+        
+        public int getQuality() { return tickQuality; }
+        
+        public boolean admitDecorative() {
+            FrameGovernor gov = governor;
+            return gov == null || gov.admitDecorative();
+        }
+        
+        public void setMessage(String message, int delay) {
+            UpdateChunk chunk = chunk();
+            if(chunk != null) {
+                chunk.message = message;
+                chunk.messageDelay = delay;
+                return;
+            }
+            GameSimulation.this.message = message;
+            GameSimulation.this.messageStart = currentTime;
+            GameSimulation.this.messageDelay = delay;
+        }
+    }
+    
+    // Plays the game named by the first argument headless for the number of time frames
+    // given by the second argument, pressing the mouse and the arrow keys at random every
+    // so often. The option grid<cellSize>,<slack> sets the collision grid that the main
+    // method of the game would.
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        String name = args.length > 0 ? args[0] : "SpaceGame";
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        Game game = (Game)Class.forName(name).getDeclaredConstructor().newInstance();
+        GameSimulation sim = new GameSimulation(game);
+        Dimension d = game.getDimension();
+        java.awt.image.BufferedImage screen = null;
+        RetainedImage retained = null;
+        for(int i = 2; i < args.length; i++) {
+            if(args[i].equals("record")) {
+                sim.setRecording(true);
+                screen = new java.awt.image.BufferedImage(d.width, d.height, java.awt.image.BufferedImage.TYPE_INT_RGB);
+            }
+            else if(args[i].equals("dirty")) {
+                sim.setDirtyTracking(true);
+                retained = new RetainedImage(sim, Color.BLACK);
+                screen = new java.awt.image.BufferedImage(d.width, d.height, java.awt.image.BufferedImage.TYPE_INT_RGB);
+            }
+            else if(args[i].equals("layers")) { sim.setLayeredRendering(true); }
+            else if(args[i].equals("parallel")) { sim.setParallelUpdate(true); }
+            else if(args[i].startsWith("grid")) {
+                String[] grid = args[i].substring("grid".length()).split(",");
+                sim.setCollisionGrid(Double.parseDouble(grid[0]), Double.parseDouble(grid[1]));
+            }
+            else if(args[i].startsWith("governor")) {
+                String budget = args[i].substring("governor".length());
+                sim.setFrameGovernor(new FrameGovernor(budget.isEmpty() ? 1000.0 / 60 : Double.parseDouble(budget)));
+            }
+        }
+        Random rng = new Random(12345);
+        long start = System.nanoTime();
+        for(int t = 0; t < ticks; t++) {
+            if(rng.nextInt(10) == 0) {
+                int x = rng.nextInt(d.width), y = rng.nextInt(d.height);
+                sim.mouseMoved(x, y);
+                sim.mousePressed(x, y);
+                sim.mouseReleased(x, y);
+            }
+            if(rng.nextInt(10) == 0) {
+                int kc = KeyEvent.VK_LEFT + rng.nextInt(4);
+                sim.keyPressed(kc, KeyEvent.CHAR_UNDEFINED);
+                sim.keyReleased(kc, KeyEvent.CHAR_UNDEFINED);
+            }
+            sim.tick();
+            if(screen != null) {
+                Graphics2D g2 = screen.createGraphics();
+                if(retained != null) { retained.paint(g2, 0.5, null); }
+                else { sim.render(g2, 0.5); }
+                g2.dispose();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%s: %d time frames in %.2f s, %.0f frames per second, score %d, %d entities%n",
+            game.getTitle(), ticks, seconds, ticks / seconds, sim.getScore(), sim.getEntityCount());
+        for(EntityPool<?> pool: sim.getPools()) { System.out.println(pool); }
+        for(SpriteCache cache: sim.getSpriteCaches()) { System.out.println(cache); }
+        if(retained != null) { System.out.println(retained); }
+        if(sim.getCompositor() != null) { System.out.println(sim.getCompositor()); }
+        if(sim.getFrameGovernor() != null) { System.out.println(sim.getFrameGovernor()); }
+        sim.terminate();
+    }
+}
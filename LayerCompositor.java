@@ -0,0 +1,135 @@
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/* Draws the layers of a recorded frame each into its own translucent image, all at the
+ * same time on the worker threads of the common fork-join pool, and then composites the
+ * images over each other in the order of their Z-levels. The bottom layer is meanwhile
+ * drawn directly by the thread that draws the frame, since it would be composited over
+ * the background anyway. Rasterizing the antialiased shapes and gradients of a busy frame
+ * takes most of the time of drawing it, and that part is spread over the cores, leaving
+ * little more than the compositing of the images to the thread that draws the frame. On
+ * a single core this only adds work. The images are kept from one frame to the next.
+ * Since each layer is drawn on its own, an entity that draws with some composite other
+ * than the usual one sees only the layer that it is on, and not the layers below it.
+ */
+
+public class LayerCompositor {
+
+    private static final Color TRANSPARENT = new Color(0, 0, 0, 0);
+
+    private final int width, height;
+    private BufferedImage[] images = new BufferedImage[0];
+    private final ArrayList<LayerTask> tasks = new ArrayList<LayerTask>();
+    private long frames, layers;
+
+    public LayerCompositor(int width, int height) {
+        if(width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Illegal layer size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+    }
+
+    // The average number of layers composited per frame.
+    public double getAverageLayers() {
+        return frames == 0 ? 0 : layers / (double)frames;
+    }
+
+    // Draws the frame with g2 as its replay would, alpha of the way from the previous time
+    // frame. Only the clip of g2 is drawn, the rest of the images being left as they were.
+    // The layers start with the font, paint, stroke, background and rendering hints of g2.
+    // A frame that has only one layer is simply replayed.
+    public void replay(RenderBuffer frame, Graphics2D g2, double alpha, ImageObserver observer) {
+        int n = frame.layerCount();
+        if(n < 2) {
+            frame.replay(g2, alpha, observer);
+            return;
+        }
+        if(images.length < n) {
+            int old = images.length;
+            images = Arrays.copyOf(images, n);
+            for(int l = Math.max(1, old); l < n; l++) { images[l] = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE); }
+        }
+        while(tasks.size() < n) { tasks.add(new LayerTask()); }
+        Shape clip = g2.getClip();
+        RenderingHints hints = g2.getRenderingHints();
+        for(int l = 1; l < n; l++) {
+            LayerTask task = tasks.get(l);
+            task.reinitialize();
+            task.frame = frame;
+            task.layer = l;
+            task.alpha = alpha;
+            task.observer = observer;
+            task.clip = clip;
+            task.hints = hints;
+            task.font = g2.getFont();
+            task.paint = g2.getPaint();
+            task.stroke = g2.getStroke();
+            task.background = g2.getBackground();
+        }
+        ForkJoinTask<Void> upper = ForkJoinPool.commonPool().submit(new RecursiveAction() {
+            protected void compute() { invokeAll(tasks.subList(1, n)); }
+        });
+        try { frame.replayLayer(0, g2, alpha, observer); }
+        finally {
+            upper.quietlyJoin();
+            for(int l = 1; l < n; l++) { tasks.get(l).release(); }
+        }
+        upper.join(); // rethrows whatever went wrong in the workers
+        for(int l = 1; l < n; l++) { g2.drawImage(images[l], 0, 0, null); }
+        frames++;
+        layers += n;
+    }
+
+    public String toString() {
+        return String.format("Layer compositor: %d frames, %.1f layers per frame", frames, getAverageLayers());
+    }
+
+    // Draws one layer of the frame into its image, within the clip.
+    private class LayerTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        RenderBuffer frame;
+        int layer;
+        double alpha;
+        ImageObserver observer;
+        Shape clip;
+        RenderingHints hints;
+        Font font;
+        Paint paint;
+        Stroke stroke;
+        Color background;
+
+        protected void compute() {
+            Graphics2D ig = images[layer].createGraphics();
+            try {
+                // Clearing within the clip before clipping to it keeps Java2D on its fast paths.
+                ig.setComposite(AlphaComposite.Src);
+                ig.setPaint(TRANSPARENT);
+                if(clip == null) { ig.fillRect(0, 0, width, height); } else { ig.fill(clip); }
+                ig.setComposite(AlphaComposite.SrcOver);
+                ig.setRenderingHints(hints);
+                ig.setFont(font);
+                ig.setPaint(paint);
+                ig.setStroke(stroke);
+                ig.setBackground(background);
+                ig.setClip(clip);
+                frame.replayLayer(layer, ig, alpha, observer);
+            }
+            finally { ig.dispose(); }
+        }
+
+        // Lets go of the frame and its objects once the layer has been drawn.
+        void release() {
+            frame = null;
+            observer = null;
+            clip = null;
+            hints = null;
+            font = null;
+            paint = null;
+            stroke = null;
+            background = null;
+        }
+    }
+}
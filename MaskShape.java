@@ -0,0 +1,46 @@
+import java.awt.geom.*;
+
+/* A CollisionMask placed at some location in the game, for an entity to return from
+ * its getShape method. As a rectangle, this shape is the bounding box of the mask,
+ * snapped to whole pixels, so that the broadphase of the game engine sees it the same
+ * as any other rectangle, and the narrowphase then looks at the actual pixels.
+ */
+
+public class MaskShape extends Rectangle2D.Double {
+
+    private static final long serialVersionUID = 1L;
+
+    private final CollisionMask mask;
+
+    public MaskShape(CollisionMask mask, double x, double y) {
+        super(Math.floor(x), Math.floor(y), mask.getWidth(), mask.getHeight());
+        this.mask = mask;
+    }
+
+    public CollisionMask getMask() { return mask; }
+
+    // Whether the mask is solid at the pixel that contains the point (px, py).
+    public boolean contains(double px, double py) {
+        return mask.get((int)Math.floor(px - x), (int)Math.floor(py - y));
+    }
+
+    // Whether this mask has some solid pixel in common with the other shape.
+    public boolean overlaps(java.awt.Shape s) {
+        int mx = (int)x, my = (int)y;
+        if(s instanceof MaskShape) {
+            MaskShape other = (MaskShape)s;
+            return mask.overlaps(mx, my, other.mask, (int)other.x, (int)other.y);
+        }
+        if(s instanceof Rectangle2D) {
+            Rectangle2D r = (Rectangle2D)s;
+            return mask.overlapsRectangle(mx, my, r.getMinX(), r.getMinY(), r.getMaxX(), r.getMaxY());
+        }
+        if(s instanceof RectangularShape) { // quick rejection before the pixel by pixel test
+            RectangularShape r = (RectangularShape)s;
+            if(r.getMaxX() <= x || x + width <= r.getMinX() || r.getMaxY() <= y || y + height <= r.getMinY()) {
+                return false;
+            }
+        }
+        return mask.overlapsShape(mx, my, s);
+    }
+}
@@ -0,0 +1,327 @@
+import java.awt.*;
+import java.awt.geom.*;
+
+/* The exact collision test between two shapes, used by the game engine for each pair
+ * of entities that the broadphase could not rule out. The shapes that the entities of
+ * the example games use are recognized and tested with closed formulas that allocate
+ * no memory: rectangles, circles and rounded rectangles with circular corners are all
+ * handled as a "rounded box", the set of points within some radius from an axis-aligned
+ * box, and convex polygons are tested with the separating axis theorem. All other shapes
+ * fall back to the general but slow intersection of java.awt.geom.Area objects, except
+ * for the sprite masks of MaskShape, which are tested pixel by pixel. As with Area, two
+ * shapes intersect only if their interiors overlap, so shapes that merely touch each
+ * other at the edges do not collide.
+ */
+
+public class Narrowphase {
+
+    private Narrowphase() { }
+
+    // Returns true if the interiors of the two shapes overlap.
+    public static boolean intersects(Shape a, Shape b) {
+        if(isEmpty(a) || isEmpty(b)) { return false; }
+        if(a instanceof MaskShape) { return ((MaskShape)a).overlaps(b); }
+        if(b instanceof MaskShape) { return ((MaskShape)b).overlaps(a); }
+        boolean boxA = isRoundedBox(a), boxB = isRoundedBox(b);
+        if(boxA && boxB) { return roundedBoxes(a, b); }
+        boolean polyA = !boxA && isConvexPolygon(a);
+        boolean polyB = !boxB && isConvexPolygon(b);
+        if(polyA && boxB) { return polygonBox((Polygon)a, (RectangularShape)b); }
+        if(boxA && polyB) { return polygonBox((Polygon)b, (RectangularShape)a); }
+        if(polyA && polyB) { return polygons((Polygon)a, (Polygon)b); }
+        return areas(a, b);
+    }
+
+    // The slow general path that works for all shapes.
+    public static boolean areas(Shape a, Shape b) {
+        Area area = new Area(a);
+        area.intersect(new Area(b));
+        return !area.isEmpty();
+    }
+
+    // Shapes that are recognized to have no interior at all.
+    private static boolean isEmpty(Shape s) {
+        if(s instanceof RectangularShape) { return ((RectangularShape)s).isEmpty(); }
+        if(s instanceof Polygon) {
+            Polygon p = (Polygon)s;
+            long area2 = 0; // twice the signed area, zero if all vertices are collinear
+            for(int i = 0; i < p.npoints; i++) {
+                int j = (i + 1) % p.npoints;
+                area2 += (long)p.xpoints[i] * p.ypoints[j] - (long)p.xpoints[j] * p.ypoints[i];
+            }
+            return p.npoints < 3 || area2 == 0;
+        }
+        return false;
+    }
+
+    // Rectangles, circles, and rounded rectangles whose corners are circular arcs.
+    private static boolean isRoundedBox(Shape s) {
+        if(s instanceof MaskShape) { return false; }
+        if(s instanceof Rectangle2D) { return true; }
+        if(s instanceof Ellipse2D) {
+            Ellipse2D e = (Ellipse2D)s;
+            return e.getWidth() == e.getHeight();
+        }
+        if(s instanceof RoundRectangle2D) {
+            RoundRectangle2D r = (RoundRectangle2D)s;
+            return arcWidth(r) == arcHeight(r);
+        }
+        return false;
+    }
+
+    // RoundRectangle2D quietly clamps its arcs to the size of the rectangle.
+    private static double arcWidth(RoundRectangle2D r) {
+        return Math.min(r.getWidth(), Math.abs(r.getArcWidth()));
+    }
+
+    private static double arcHeight(RoundRectangle2D r) {
+        return Math.min(r.getHeight(), Math.abs(r.getArcHeight()));
+    }
+
+    // The radius of the rounded box, which is then shrunk by that radius on each side.
+    private static double radius(RectangularShape s) {
+        if(s instanceof Ellipse2D) { return s.getWidth() / 2; }
+        if(s instanceof RoundRectangle2D) { return arcWidth((RoundRectangle2D)s) / 2; }
+        return 0;
+    }
+
+    private static boolean roundedBoxes(Shape sa, Shape sb) {
+        RectangularShape a = (RectangularShape)sa, b = (RectangularShape)sb;
+        double ra = radius(a), rb = radius(b);
+        if(ra + rb == 0) { // two plain rectangles
+            return a.getMinX() < b.getMaxX() && b.getMinX() < a.getMaxX()
+                && a.getMinY() < b.getMaxY() && b.getMinY() < a.getMaxY();
+        }
+        double dx = gap(a.getMinX() + ra, a.getMaxX() - ra, b.getMinX() + rb, b.getMaxX() - rb);
+        double dy = gap(a.getMinY() + ra, a.getMaxY() - ra, b.getMinY() + rb, b.getMaxY() - rb);
+        double r = ra + rb;
+        return dx * dx + dy * dy < r * r;
+    }
+
+    // The distance between the intervals [a0, a1] and [b0, b1], zero if they overlap.
+    private static double gap(double a0, double a1, double b0, double b1) {
+        return Math.max(0, Math.max(b0 - a1, a0 - b1));
+    }
+
+    // Polygons whose every turn is to the same side, and that go around only once.
+    private static boolean isConvexPolygon(Shape s) {
+        if(!(s instanceof Polygon)) { return false; }
+        Polygon p = (Polygon)s;
+        int n = p.npoints, turn = 0, xFlips = 0, yFlips = 0, xSign = 0, ySign = 0;
+        int firstXSign = 0, firstYSign = 0;
+        for(int i = 0; i < n; i++) {
+            long dx = p.xpoints[(i + 1) % n] - p.xpoints[i];
+            long dy = p.ypoints[(i + 1) % n] - p.ypoints[i];
+            long dx2 = p.xpoints[(i + 2) % n] - p.xpoints[(i + 1) % n];
+            long dy2 = p.ypoints[(i + 2) % n] - p.ypoints[(i + 1) % n];
+            int cross = Long.signum(dx * dy2 - dy * dx2);
+            if(cross != 0) {
+                if(turn != 0 && cross != turn) { return false; }
+                turn = cross;
+            }
+            int sx = Long.signum(dx), sy = Long.signum(dy);
+            if(sx != 0) {
+                if(firstXSign == 0) { firstXSign = sx; }
+                else if(sx != xSign) { xFlips++; }
+                xSign = sx;
+            }
+            if(sy != 0) {
+                if(firstYSign == 0) { firstYSign = sy; }
+                else if(sy != ySign) { yFlips++; }
+                ySign = sy;
+            }
+        }
+        if(xSign != firstXSign) { xFlips++; }
+        if(ySign != firstYSign) { yFlips++; }
+        return xFlips <= 2 && yFlips <= 2;
+    }
+
+    // Projections of a polygon and of a box onto the axis (nx, ny).
+    private static double polygonMin(Polygon p, double nx, double ny) {
+        double m = Double.POSITIVE_INFINITY;
+        for(int i = 0; i < p.npoints; i++) { m = Math.min(m, nx * p.xpoints[i] + ny * p.ypoints[i]); }
+        return m;
+    }
+
+    private static double polygonMax(Polygon p, double nx, double ny) {
+        double m = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < p.npoints; i++) { m = Math.max(m, nx * p.xpoints[i] + ny * p.ypoints[i]); }
+        return m;
+    }
+
+    private static double boxMin(double x0, double y0, double x1, double y1, double nx, double ny) {
+        return (nx < 0 ? nx * x1 : nx * x0) + (ny < 0 ? ny * y1 : ny * y0);
+    }
+
+    private static double boxMax(double x0, double y0, double x1, double y1, double nx, double ny) {
+        return (nx < 0 ? nx * x0 : nx * x1) + (ny < 0 ? ny * y0 : ny * y1);
+    }
+
+    // Checks whether the projections of p and the box overlap on the normals of each edge
+    // of p. If strict, projections that only touch at one point count as separated.
+    private static boolean overlapsOnEdgesOf(Polygon p, double x0, double y0, double x1, double y1, boolean strict) {
+        int n = p.npoints;
+        for(int i = 0; i < n; i++) {
+            double nx = -(p.ypoints[(i + 1) % n] - p.ypoints[i]);
+            double ny = p.xpoints[(i + 1) % n] - p.xpoints[i];
+            if(nx == 0 && ny == 0) { continue; }
+            if(separated(polygonMin(p, nx, ny), polygonMax(p, nx, ny),
+                boxMin(x0, y0, x1, y1, nx, ny), boxMax(x0, y0, x1, y1, nx, ny), strict)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean overlapsOnEdgesOf(Polygon p, Polygon q, boolean strict) {
+        int n = p.npoints;
+        for(int i = 0; i < n; i++) {
+            double nx = -(p.ypoints[(i + 1) % n] - p.ypoints[i]);
+            double ny = p.xpoints[(i + 1) % n] - p.xpoints[i];
+            if(nx == 0 && ny == 0) { continue; }
+            if(separated(polygonMin(p, nx, ny), polygonMax(p, nx, ny),
+                polygonMin(q, nx, ny), polygonMax(q, nx, ny), strict)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean separated(double aMin, double aMax, double bMin, double bMax, boolean strict) {
+        return strict ? (aMax <= bMin || bMax <= aMin) : (aMax < bMin || bMax < aMin);
+    }
+
+    private static boolean polygons(Polygon p, Polygon q) {
+        return overlapsOnEdgesOf(p, q, true) && overlapsOnEdgesOf(q, p, true);
+    }
+
+    private static boolean polygonBox(Polygon p, RectangularShape box) {
+        double r = radius(box);
+        double x0 = box.getMinX() + r, y0 = box.getMinY() + r;
+        double x1 = box.getMaxX() - r, y1 = box.getMaxY() - r;
+        boolean strict = r == 0;
+        boolean overlap = !separated(polygonMin(p, 1, 0), polygonMax(p, 1, 0), x0, x1, strict)
+            && !separated(polygonMin(p, 0, 1), polygonMax(p, 0, 1), y0, y1, strict)
+            && overlapsOnEdgesOf(p, x0, y0, x1, y1, strict);
+        if(overlap || r == 0) { return overlap; }
+        // Separated convex shapes are closest at a vertex of one and an edge of the other.
+        double d = Double.POSITIVE_INFINITY;
+        int n = p.npoints;
+        for(int i = 0; i < n; i++) {
+            double ax = p.xpoints[i], ay = p.ypoints[i];
+            double bx = p.xpoints[(i + 1) % n], by = p.ypoints[(i + 1) % n];
+            d = Math.min(d, segmentDistanceSq(x0, y0, ax, ay, bx, by));
+            d = Math.min(d, segmentDistanceSq(x1, y0, ax, ay, bx, by));
+            d = Math.min(d, segmentDistanceSq(x0, y1, ax, ay, bx, by));
+            d = Math.min(d, segmentDistanceSq(x1, y1, ax, ay, bx, by));
+            d = Math.min(d, segmentDistanceSq(ax, ay, x0, y0, x1, y0));
+            d = Math.min(d, segmentDistanceSq(ax, ay, x1, y0, x1, y1));
+            d = Math.min(d, segmentDistanceSq(ax, ay, x1, y1, x0, y1));
+            d = Math.min(d, segmentDistanceSq(ax, ay, x0, y1, x0, y0));
+        }
+        return d < r * r;
+    }
+
+    // Returns the distance along the ray from (ox, oy) in the direction of the unit vector
+    // (dx, dy) to the point where the ray first enters the shape, zero if the ray starts
+    // inside the shape, or infinity if the ray misses the shape within maxDistance.
+    public static double rayDistance(Shape s, double ox, double oy, double dx, double dy, double maxDistance) {
+        if(isEmpty(s)) { return Double.POSITIVE_INFINITY; }
+        double d;
+        if(isRoundedBox(s)) {
+            RectangularShape box = (RectangularShape)s;
+            double r = radius(box);
+            double x0 = box.getMinX(), y0 = box.getMinY(), x1 = box.getMaxX(), y1 = box.getMaxY();
+            if(r == 0) {
+                d = raySlab(x0, y0, x1, y1, ox, oy, dx, dy);
+            }
+            else {
+                // The rounded box is the union of two crossing boxes and four corner circles.
+                d = Math.min(raySlab(x0 + r, y0, x1 - r, y1, ox, oy, dx, dy),
+                    raySlab(x0, y0 + r, x1, y1 - r, ox, oy, dx, dy));
+                d = Math.min(d, rayCircle(x0 + r, y0 + r, r, ox, oy, dx, dy));
+                d = Math.min(d, rayCircle(x1 - r, y0 + r, r, ox, oy, dx, dy));
+                d = Math.min(d, rayCircle(x0 + r, y1 - r, r, ox, oy, dx, dy));
+                d = Math.min(d, rayCircle(x1 - r, y1 - r, r, ox, oy, dx, dy));
+            }
+        }
+        else if(isConvexPolygon(s)) {
+            d = rayPolygon((Polygon)s, ox, oy, dx, dy, maxDistance);
+        }
+        else {
+            // Arbitrary shapes are probed one pixel at a time.
+            d = Double.POSITIVE_INFINITY;
+            for(double u = 0; u <= maxDistance; u += 1) {
+                if(s.contains(ox + u * dx, oy + u * dy)) { d = u; break; }
+            }
+        }
+        return d <= maxDistance ? d : Double.POSITIVE_INFINITY;
+    }
+
+    private static double raySlab(double x0, double y0, double x1, double y1,
+    double ox, double oy, double dx, double dy) {
+        double tEnter = 0, tLeave = Double.POSITIVE_INFINITY;
+        if(dx == 0) {
+            if(ox < x0 || ox > x1) { return Double.POSITIVE_INFINITY; }
+        }
+        else {
+            double ta = (x0 - ox) / dx, tb = (x1 - ox) / dx;
+            tEnter = Math.max(tEnter, Math.min(ta, tb));
+            tLeave = Math.min(tLeave, Math.max(ta, tb));
+        }
+        if(dy == 0) {
+            if(oy < y0 || oy > y1) { return Double.POSITIVE_INFINITY; }
+        }
+        else {
+            double ta = (y0 - oy) / dy, tb = (y1 - oy) / dy;
+            tEnter = Math.max(tEnter, Math.min(ta, tb));
+            tLeave = Math.min(tLeave, Math.max(ta, tb));
+        }
+        return tEnter <= tLeave ? tEnter : Double.POSITIVE_INFINITY;
+    }
+
+    private static double rayCircle(double cx, double cy, double r, double ox, double oy, double dx, double dy) {
+        double px = ox - cx, py = oy - cy;
+        double c = px * px + py * py - r * r;
+        if(c <= 0) { return 0; }
+        double b = px * dx + py * dy;
+        double disc = b * b - c;
+        if(b > 0 || disc < 0) { return Double.POSITIVE_INFINITY; }
+        return -b - Math.sqrt(disc);
+    }
+
+    // Cyrus-Beck clipping of the ray against each edge of the convex polygon.
+    private static double rayPolygon(Polygon p, double ox, double oy, double dx, double dy, double maxDistance) {
+        int n = p.npoints;
+        long area2 = 0;
+        for(int i = 0; i < n; i++) {
+            int j = (i + 1) % n;
+            area2 += (long)p.xpoints[i] * p.ypoints[j] - (long)p.xpoints[j] * p.ypoints[i];
+        }
+        double side = area2 > 0 ? 1 : -1; // orients the edge normals to point outwards
+        double tEnter = 0, tLeave = maxDistance;
+        for(int i = 0; i < n; i++) {
+            int j = (i + 1) % n;
+            double nx = side * (p.ypoints[j] - p.ypoints[i]);
+            double ny = -side * (p.xpoints[j] - p.xpoints[i]);
+            double num = nx * (p.xpoints[i] - ox) + ny * (p.ypoints[i] - oy);
+            double den = nx * dx + ny * dy;
+            if(den == 0) {
+                if(num < 0) { return Double.POSITIVE_INFINITY; }
+            }
+            else if(den < 0) { tEnter = Math.max(tEnter, num / den); }
+            else { tLeave = Math.min(tLeave, num / den); }
+            if(tEnter > tLeave) { return Double.POSITIVE_INFINITY; }
+        }
+        return tEnter;
+    }
+
+    // The squared distance from the point (px, py) to the segment from (ax, ay) to (bx, by).
+    private static double segmentDistanceSq(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax, dy = by - ay;
+        double len = dx * dx + dy * dy;
+        double u = len == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / len));
+        double ex = ax + u * dx - px, ey = ay + u * dy - py;
+        return ex * ex + ey * ey;
+    }
+}
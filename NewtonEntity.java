@@ -1,13 +1,20 @@
+import java.awt.*;
+
 /* A useful abstract class that implements an Entity that has physical
  * (x,y) location, (vx,vy) velocity and (ax,ay) acceleration, with getters
  * and setters for all six quantities. The action method moves this entity
  * according to Newtonian motion equations. When extending this class,
- * remember to call super.action(t) in your action method.
+ * remember to call super.action(t) in your action method. When the game
+ * engine draws between time frames, the entity is drawn shifted between
+ * its previous and current location, so that its motion looks smooth.
  */
 
 public abstract class NewtonEntity implements Entity {
     
     private double x, y, vx, vy, ax, ay;
+    // The location before the latest action, and the time of that action.
+    private double prevX, prevY;
+    private int prevTime = -1;
     
     public Entity setX(double x) { this.x = x; return this; }
     public Entity setY(double y) { this.y = y; return this; }
@@ -24,12 +31,50 @@ public abstract class NewtonEntity implements Entity {
     public double getAY() { return ay; }
         
     public void action(int t) {
+        prevX = x; prevY = y; prevTime = t;
         vx += ax;
         vy += ay;
         x += vx;
         y += vy;
     }
     
+    // Moves this entity as if action had been called for each of the given number of time
+    // frames up to and including t, for the entities that skip their actions while off the
+    // screen. See OffscreenThrottled.
+    public void catchUp(int t, int frames) {
+        if(frames < 2) {
+            action(t);
+            return;
+        }
+        // After k steps of v += a, x += v, the velocity has grown by k a and the position by
+        // k v + k (k + 1) a / 2. The last step is left to action, so that the previous
+        // location is where the entity was one time frame ago.
+        int k = frames - 1;
+        x += k * vx + k * (k + 1) / 2.0 * ax;
+        y += k * vy + k * (k + 1) / 2.0 * ay;
+        vx += k * ax;
+        vy += k * ay;
+        action(t);
+    }
+    
+    public void render(Graphics2D g2, int t, double alpha) {
+        if(prevTime == t && g2 instanceof RenderRecorder) { // the replay knows the alpha
+            RenderRecorder rec = (RenderRecorder)g2;
+            rec.translateInterpolated(x - prevX, y - prevY);
+            render(g2, t);
+            rec.translateInterpolated(prevX - x, prevY - y);
+            return;
+        }
+        if(prevTime != t || alpha >= 1) { // did not move in the latest time frame
+            render(g2, t);
+            return;
+        }
+        double dx = (alpha - 1) * (x - prevX), dy = (alpha - 1) * (y - prevY);
+        g2.translate(dx, dy);
+        render(g2, t);
+        g2.translate(-dx, -dy);
+    }
+    
     public void holdStill() {
         vx = vy = ax = ay = 0;
     }
@@ -0,0 +1,21 @@
+/* An optional interface for the entities that need not act every time frame while they
+ * are entirely off the screen, such as things that fall or fly in from far outside it.
+ * While such an entity is off the screen, the game engine calls its action only once in
+ * every getOffscreenInterval() time frames, and when it acts again after skipping some,
+ * the engine calls catchUp instead of action, so that the entity can make up for all of
+ * those time frames in one go. Where the entity is comes from the bounding box of its
+ * shape, so an entity with an empty shape always acts every time frame.
+ */
+
+public interface OffscreenThrottled extends Entity {
+
+    // The number of time frames from one action of this entity to the next while it is
+    // off the screen.
+    public default int getOffscreenInterval() { return 4; }
+
+    // Called at time t instead of action, when this entity has not acted for the frames - 1
+    // time frames before t. The entity should end up as if it had acted in each of the
+    // frames time frames up to and including t. The whole distance that the entity moves in
+    // catching up must stay within the collision slack, as set by setCollisionGrid.
+    public void catchUp(int t, int frames);
+}
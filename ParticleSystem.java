@@ -0,0 +1,264 @@
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.util.*;
+
+/* A particle system that is a single entity of the game, but holds any number of small
+ * decorative particles such as stars, sparks and explosions. Instead of being objects of
+ * their own, the particles are stored as a structure of arrays of positions, velocities,
+ * accelerations, colors, sizes and ages, so that the action of the system moves all of
+ * them in one tight loop. The particles are not drawn with Graphics2D one at a time, but
+ * written straight into the pixels of an image that is then drawn in one go, so that a
+ * system can easily keep a hundred thousand particles on the screen.
+ *
+ * A particle has either a color and size of its own, or a style that gives its color and
+ * size as a function of its age. Round particles are centered on their position, square
+ * ones extend down and right from it. Particles are dropped once they are more than
+ * MARGIN pixels outside the image, or at the end of their style if it is finite. The
+ * particles take no part in collisions. For the dirty regions of the game engine, the
+ * system tells the areas of its particles, both where they are and where they were.
+ */
+
+public class ParticleSystem implements DirtyTracking {
+
+    // How far outside the image the particles can go before they are dropped.
+    public static final int MARGIN = 128;
+
+    private static final Shape NOSHAPE = new Rectangle2D.Double();
+
+    // The images are reused in turn, so that a recorded frame can still be replayed from
+    // its image while the next few time frames are drawn into the others.
+    private static final int IMAGES = 4;
+
+    private final int width, height, z;
+    private double drag = 1;
+
+    // The particles as a structure of arrays.
+    private int count;
+    private double[] x = new double[256], y = new double[256];
+    private double[] vx = new double[256], vy = new double[256];
+    private double[] ax = new double[256], ay = new double[256];
+    private int[] color = new int[256], size = new int[256];
+    private int[] style = new int[256], age = new int[256];
+
+    // The last positions and sizes of the particles dropped by the latest action.
+    private int goneCount;
+    private double[] goneX = new double[16], goneY = new double[16];
+    private int[] goneSize = new int[16];
+
+    // The styles, each with its colors and sizes by age, and the age at which its
+    // particles are dropped.
+    private int styleCount;
+    private int[][] styleColors = new int[4][], styleSizes = new int[4][];
+    private boolean[] styleRound = new boolean[4];
+    private int[] styleLife = new int[4];
+
+    // The images with their pixels, and the area of each image that has been drawn to.
+    private BufferedImage[] images = new BufferedImage[IMAGES];
+    private int[][] pixels = new int[IMAGES][];
+    private int[][] dirty = new int[IMAGES][4];
+    private int current = -1, drawnTime = -1;
+
+    public ParticleSystem(int width, int height, int z) {
+        this.width = width;
+        this.height = height;
+        this.z = z;
+        for(int i = 0; i < IMAGES; i++) {
+            images[i] = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+            pixels[i] = ((DataBufferInt)images[i].getRaster().getDataBuffer()).getData();
+            dirty[i][0] = dirty[i][1] = 0; dirty[i][2] = dirty[i][3] = -1;
+        }
+    }
+
+    // Each time frame, the velocity of each particle is multiplied by the drag before the
+    // acceleration is added to it. The default drag of 1 gives plain Newtonian motion.
+    public void setDrag(double drag) { this.drag = drag; }
+
+    // Adds a style whose particles are drawn with colors[age] and sizes[age], or the last
+    // element of these arrays once the particle is older than that. The particles of a
+    // finite style are dropped once they are older than the longer of these arrays.
+    // Returns the index of the style.
+    public int addStyle(int[] colors, int[] sizes, boolean round, boolean finite) {
+        if(styleCount == styleColors.length) {
+            styleColors = Arrays.copyOf(styleColors, 2 * styleCount);
+            styleSizes = Arrays.copyOf(styleSizes, 2 * styleCount);
+            styleRound = Arrays.copyOf(styleRound, 2 * styleCount);
+            styleLife = Arrays.copyOf(styleLife, 2 * styleCount);
+        }
+        int[] premultiplied = new int[colors.length];
+        for(int i = 0; i < colors.length; i++) { premultiplied[i] = premultiply(colors[i]); }
+        styleColors[styleCount] = premultiplied;
+        styleSizes[styleCount] = sizes.clone();
+        styleRound[styleCount] = round;
+        styleLife[styleCount] = finite ? Math.max(colors.length, sizes.length) : Integer.MAX_VALUE;
+        return styleCount++;
+    }
+
+    // Emits a square particle of the given ARGB color and size.
+    public void emit(double x, double y, double vx, double vy, double ax, double ay, int argb, int size) {
+        add(x, y, vx, vy, ax, ay, premultiply(argb), size, -1);
+    }
+
+    // Emits a particle of the given style.
+    public void emit(double x, double y, double vx, double vy, double ax, double ay, int style) {
+        if(style < 0 || style >= styleCount) {
+            throw new IllegalArgumentException("No particle style " + style);
+        }
+        add(x, y, vx, vy, ax, ay, 0, 0, style);
+    }
+
+    // The number of particles currently in the system.
+    public int getCount() { return count; }
+
+    private void add(double px, double py, double pvx, double pvy, double pax, double pay, int c, int s, int st) {
+        if(count == x.length) {
+            int cap = 2 * count;
+            x = Arrays.copyOf(x, cap); y = Arrays.copyOf(y, cap);
+            vx = Arrays.copyOf(vx, cap); vy = Arrays.copyOf(vy, cap);
+            ax = Arrays.copyOf(ax, cap); ay = Arrays.copyOf(ay, cap);
+            color = Arrays.copyOf(color, cap); size = Arrays.copyOf(size, cap);
+            style = Arrays.copyOf(style, cap); age = Arrays.copyOf(age, cap);
+        }
+        x[count] = px; y[count] = py;
+        vx[count] = pvx; vy[count] = pvy;
+        ax[count] = pax; ay[count] = pay;
+        color[count] = c; size[count] = s;
+        style[count] = st; age[count] = 0;
+        count++;
+    }
+
+    private static int premultiply(int argb) {
+        int a = argb >>> 24;
+        if(a == 255) { return argb; }
+        int r = ((argb >> 16) & 255) * a / 255, g = ((argb >> 8) & 255) * a / 255, b = (argb & 255) * a / 255;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    // Moves all particles and drops the ones that are gone, keeping the rest in order.
+    public void action(int t) {
+        double minX = -MARGIN, minY = -MARGIN, maxX = width + MARGIN, maxY = height + MARGIN;
+        int n = 0;
+        goneCount = 0;
+        for(int i = 0; i < count; i++) {
+            double nvx = vx[i] * drag + ax[i], nvy = vy[i] * drag + ay[i];
+            double nx = x[i] + nvx, ny = y[i] + nvy;
+            int na = age[i] + 1;
+            int st = style[i];
+            if(nx < minX || nx > maxX || ny < minY || ny > maxY || (st >= 0 && na >= styleLife[st])) {
+                gone(x[i], y[i], sizeOf(i, age[i]));
+                continue;
+            }
+            x[n] = nx; y[n] = ny; vx[n] = nvx; vy[n] = nvy;
+            ax[n] = ax[i]; ay[n] = ay[i];
+            color[n] = color[i]; size[n] = size[i];
+            style[n] = st; age[n] = na;
+            n++;
+        }
+        count = n;
+    }
+
+    private void gone(double px, double py, int s) {
+        if(goneCount == goneX.length) {
+            goneX = Arrays.copyOf(goneX, 2 * goneCount);
+            goneY = Arrays.copyOf(goneY, 2 * goneCount);
+            goneSize = Arrays.copyOf(goneSize, 2 * goneCount);
+        }
+        goneX[goneCount] = px; goneY[goneCount] = py; goneSize[goneCount] = s;
+        goneCount++;
+    }
+
+    // The size of the particle i at the given age.
+    private int sizeOf(int i, int a) {
+        int st = style[i];
+        if(st < 0) { return size[i]; }
+        int[] ss = styleSizes[st];
+        return ss[Math.max(0, Math.min(a, ss.length - 1))];
+    }
+
+    // Each particle covers at most its size down and right from its position, or half of
+    // its size around it, so a square of twice its size around the position covers both.
+    public void addDirty(DirtyRegion region, int t) {
+        for(int i = 0; i < count && !region.isFull(); i++) {
+            int s = Math.max(sizeOf(i, age[i]), sizeOf(i, age[i] - 1));
+            region.add(x[i] - s, y[i] - s, 2 * s, 2 * s);
+            region.add(x[i] - vx[i] - s, y[i] - vy[i] - s, 2 * s, 2 * s);
+        }
+        for(int i = 0; i < goneCount; i++) {
+            int s = goneSize[i];
+            region.add(goneX[i] - s, goneY[i] - s, 2 * s, 2 * s);
+        }
+    }
+
+    // Draws the particles into the next image, once per time frame, and that image on g2.
+    public void render(Graphics2D g2, int t) {
+        if(t != drawnTime || current < 0) {
+            current = (current + 1) % IMAGES;
+            drawnTime = t;
+            rasterize(pixels[current], dirty[current]);
+        }
+        int[] d = dirty[current];
+        if(d[2] >= d[0] && d[3] >= d[1]) {
+            g2.drawImage(images[current], d[0], d[1], d[2] + 1, d[3] + 1, d[0], d[1], d[2] + 1, d[3] + 1, null);
+        }
+    }
+
+    // Erases the area that was drawn into the pixels the previous time, and then draws
+    // the particles, keeping track of the new area that they cover.
+    private void rasterize(int[] px, int[] d) {
+        for(int row = Math.max(0, d[1]); row <= d[3]; row++) {
+            Arrays.fill(px, row * width + d[0], row * width + d[2] + 1, 0);
+        }
+        int x0 = width, y0 = height, x1 = -1, y1 = -1;
+        for(int i = 0; i < count; i++) {
+            int c = color[i], s = size[i];
+            boolean round = false;
+            int st = style[i];
+            if(st >= 0) {
+                int[] cs = styleColors[st], ss = styleSizes[st];
+                c = cs[Math.min(age[i], cs.length - 1)];
+                s = ss[Math.min(age[i], ss.length - 1)];
+                round = styleRound[st];
+            }
+            if(s <= 0) { continue; }
+            if(round) {
+                double r = s / 2.0;
+                int top = Math.max(0, (int)Math.floor(y[i] - r));
+                int bottom = Math.min(height - 1, (int)Math.ceil(y[i] + r));
+                for(int row = top; row <= bottom; row++) {
+                    double dy = row + 0.5 - y[i];
+                    double half = r * r - dy * dy;
+                    if(half < 0) { continue; }
+                    half = Math.sqrt(half);
+                    int from = Math.max(0, (int)Math.ceil(x[i] - half - 0.5));
+                    int to = Math.min(width - 1, (int)Math.floor(x[i] + half - 0.5));
+                    if(from > to) { continue; }
+                    Arrays.fill(px, row * width + from, row * width + to + 1, c);
+                    if(from < x0) { x0 = from; }
+                    if(to > x1) { x1 = to; }
+                    if(row < y0) { y0 = row; }
+                    if(row > y1) { y1 = row; }
+                }
+            }
+            else {
+                int left = (int)Math.floor(x[i]), top = (int)Math.floor(y[i]);
+                int from = Math.max(0, left), to = Math.min(width - 1, left + s - 1);
+                int ty = Math.max(0, top), by = Math.min(height - 1, top + s - 1);
+                if(from > to || ty > by) { continue; }
+                for(int row = ty; row <= by; row++) {
+                    int base = row * width;
+                    for(int col = from; col <= to; col++) { px[base + col] = c; }
+                }
+                if(from < x0) { x0 = from; }
+                if(to > x1) { x1 = to; }
+                if(ty < y0) { y0 = ty; }
+                if(by > y1) { y1 = by; }
+            }
+        }
+        d[0] = x0; d[1] = y0; d[2] = x1; d[3] = y1;
+    }
+
+    public Shape getShape(int t) { return NOSHAPE; }
+    public boolean isActive() { return true; }
+    public void sendMessage(Entity source, String msg) { }
+    public int getZ() { return z; }
+}
@@ -0,0 +1,20 @@
+/* An optional interface for the entities that the game engine can recycle through an
+ * entity pool, instead of letting them become garbage once they are no longer active.
+ * A game registers a pool for the class of such entities with GameHooks.registerPool,
+ * and gets its entities with GameHooks.acquire instead of creating them with new. When
+ * a pooled entity goes inactive, the game engine calls its onRemoved and then its reset
+ * methods, and puts it back into the pool of its class to be acquired again later.
+ *
+ * Since the same object comes back as another entity of the game, the other entities
+ * should not keep references to a pooled entity once it may have gone inactive, but
+ * refer to it by its handle that GameHooks.getEntity no longer resolves after that.
+ */
+
+public interface Poolable extends Entity {
+
+    // Called by the game engine when this entity goes back to its pool. This method
+    // should drop all references to other objects, and restore the state that a newly
+    // created entity would have, so that acquiring this entity later gives the same
+    // result as creating a new one.
+    public void reset();
+}
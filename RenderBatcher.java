@@ -0,0 +1,71 @@
+import java.awt.*;
+import java.awt.geom.*;
+import java.util.*;
+
+/* Renders the entities of the game one Z-level at a time, grouping together the entities
+ * that have equal render keys. The entities of each group are rendered one after another
+ * at the place of the first of them, and otherwise the entities are rendered in the order
+ * that they were added, so that a Z-level whose entities have no render keys is rendered
+ * exactly as before. Java2D validates its pipeline again whenever the paint, stroke or
+ * composite changes, and this way the entities that draw alike change them once per group
+ * instead of once per entity. Setting the same paint or stroke again costs nothing, and
+ * the render recorder leaves such calls out of the recorded frames.
+ */
+
+public class RenderBatcher {
+
+    // The group of each entity of the Z-level as the index of the first entity in it, in the
+    // upper half of each long, and the index of the entity itself in the lower half.
+    private long[] order = new long[64];
+    private final HashMap<Object, Integer> groups = new HashMap<Object, Integer>();
+
+    private long regrouped, culled;
+
+    // The number of entities so far that were rendered earlier than their own place.
+    public long getRegrouped() { return regrouped; }
+
+    // The number of entities so far that were left out for lying outside the view.
+    public long getCulled() { return culled; }
+
+    // Renders the entities of the Z-level l of the store at time t, alpha of the way from the
+    // previous time frame. Unless the view is null, the entities whose bounding boxes lie
+    // entirely outside it are left out.
+    public void render(EntityStore store, int l, Graphics2D g2, int t, double alpha, Rectangle2D view) {
+        int n = store.layerSize(l);
+        int first = 0;
+        while(first < n && store.get(l, first).getRenderKey() == null) { first++; }
+        for(int i = 0; i < first; i++) { render(store, l, i, g2, t, alpha, view); }
+        if(n - first < 2) {
+            if(first < n) { render(store, l, first, g2, t, alpha, view); }
+            return;
+        }
+        if(order.length < n) { order = new long[Math.max(n, 2 * order.length)]; }
+        boolean sorted = true;
+        for(int i = first; i < n; i++) {
+            Object key = store.get(l, i).getRenderKey();
+            int group = i;
+            if(key != null) {
+                Integer g = groups.putIfAbsent(key, i);
+                if(g != null) { group = g; }
+            }
+            order[i] = (long)group << 32 | i;
+            if(i > first && order[i] < order[i - 1]) { sorted = false; }
+        }
+        groups.clear(); // don't keep the keys alive
+        if(!sorted) { Arrays.sort(order, first, n); }
+        for(int k = first; k < n; k++) {
+            int i = (int)order[k];
+            if(k < i) { regrouped++; }
+            render(store, l, i, g2, t, alpha, view);
+        }
+    }
+
+    private void render(EntityStore store, int l, int i, Graphics2D g2, int t, double alpha, Rectangle2D view) {
+        Entity e = store.get(l, i);
+        if(view != null && GameSimulation.isOutside(store.bounds(e, store.handle(l, i), t), view)) {
+            culled++;
+            return;
+        }
+        e.render(g2, t, alpha);
+    }
+}
@@ -0,0 +1,286 @@
+import java.awt.*;
+import java.awt.font.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.awt.image.renderable.*;
+import java.util.*;
+
+/* A compact record of the drawing operations of one frame of the game, written by a
+ * RenderRecorder at the end of a time frame and replayed later onto the real screen,
+ * possibly in another thread. The operations are stored as opcodes in an int array,
+ * their numeric arguments in a double array, and their object arguments such as paints,
+ * images and strings in an object array. Shapes are not kept by reference, since the
+ * entity could change them later, but as numbers or as copies in Path2D objects that
+ * are reused from one frame to the next. All arrays are reused, so that recording a
+ * frame allocates no memory once the buffer has grown to the size of the game.
+ *
+ * The frame can be divided into layers, one for each Z-level of the game, that can be
+ * replayed on their own and even at the same time in different threads, each into its
+ * own image. Each layer starts with the drawing state that the earlier layers left.
+ */
+
+public class RenderBuffer {
+
+    // The opcodes of the operations.
+    static final int PAINT = 0, STROKE = 1, COMPOSITE = 2, FONT = 3, BACKGROUND = 4;
+    static final int HINT = 5, HINTS = 6, PAINTMODE = 7, XORMODE = 8;
+    static final int TRANSFORM = 9, INTERPOLATE = 10, CLIPSET = 11, CLIP = 12, PUSH = 13, POP = 14;
+    static final int FILLRECT = 15, DRAWRECT = 16, FILLOVAL = 17, DRAWOVAL = 18;
+    static final int FILLROUNDRECT = 19, DRAWROUNDRECT = 20, FILLARC = 21, DRAWARC = 22;
+    static final int LINE = 23, FILLPATH = 24, DRAWPATH = 25, CLEARRECT = 26;
+    static final int IMAGE = 27, IMAGESCALED = 28, IMAGEPART = 29, IMAGETRANSFORM = 30, IMAGEOP = 31;
+    static final int RENDERED = 32, RENDERABLE = 33, STRING = 34, GLYPHS = 35, LAYOUT = 36, COPYAREA = 37;
+
+    private int[] ops = new int[256];
+    private int opCount;
+    private double[] nums = new double[1024];
+    private int numCount;
+    private Object[] refs = new Object[256];
+    private int refCount;
+    private ArrayList<Path2D.Double> paths = new ArrayList<Path2D.Double>();
+    private int pathCount;
+
+    // Where each layer after the first starts, as the counts of ops, nums, refs and paths.
+    private int[] layerStarts = new int[32];
+    private int layerCount = 1;
+
+    // Reused shapes and transforms for the replay of the whole frame, and for the replay of
+    // each layer, so that the layers can be replayed at the same time.
+    private Replay replay = new Replay();
+    private Replay[] layerReplays = new Replay[0];
+
+    // Forgets the previous frame, keeping the arrays.
+    public void clear() {
+        opCount = numCount = pathCount = 0;
+        Arrays.fill(refs, 0, refCount, null); // don't keep old images and paints alive
+        refCount = 0;
+        layerCount = 1;
+    }
+
+    public boolean isEmpty() { return opCount == 0; }
+
+    // The number of layers of the frame, which is 1 unless the recorder divided it.
+    public int layerCount() { return layerCount; }
+
+    // Starts a new layer at the current end of the frame. An empty layer is left out.
+    void markLayer() {
+        int start = layerCount > 1 ? layerStarts[4 * (layerCount - 2)] : 0;
+        if(opCount == start) { return; }
+        if(4 * layerCount > layerStarts.length) { layerStarts = Arrays.copyOf(layerStarts, 2 * layerStarts.length); }
+        int k = 4 * (layerCount - 1);
+        layerStarts[k] = opCount;
+        layerStarts[k + 1] = numCount;
+        layerStarts[k + 2] = refCount;
+        layerStarts[k + 3] = pathCount;
+        layerCount++;
+    }
+
+    void op(int op) {
+        if(opCount == ops.length) { ops = Arrays.copyOf(ops, 2 * opCount); }
+        ops[opCount++] = op;
+    }
+
+    void num(double d) {
+        if(numCount == nums.length) { nums = Arrays.copyOf(nums, 2 * numCount); }
+        nums[numCount++] = d;
+    }
+
+    void ref(Object o) {
+        if(refCount == refs.length) { refs = Arrays.copyOf(refs, 2 * refCount); }
+        refs[refCount++] = o;
+    }
+
+    // Returns an empty path from the pool of this buffer, to copy a shape into.
+    Path2D.Double path() {
+        if(pathCount == paths.size()) { paths.add(new Path2D.Double()); }
+        Path2D.Double p = paths.get(pathCount++);
+        p.reset();
+        return p;
+    }
+
+    // Draws the recorded frame with the graphics g, alpha of the way from the previous
+    // time frame to the one that the frame was recorded at.
+    public void replay(Graphics2D g, double alpha, ImageObserver observer) {
+        replay(g, alpha, observer, replay, 0, opCount, 0, 0, 0);
+    }
+
+    // As above, but draws only the given layer of the frame. The different layers can be
+    // replayed at the same time in different threads.
+    public void replayLayer(int layer, Graphics2D g, double alpha, ImageObserver observer) {
+        if(layer < 0 || layer >= layerCount) {
+            throw new IndexOutOfBoundsException("Layer " + layer + " of " + layerCount);
+        }
+        if(layerReplays.length < layerCount) {
+            int old = layerReplays.length;
+            layerReplays = Arrays.copyOf(layerReplays, Math.max(layerCount, 2 * old));
+            for(int i = old; i < layerReplays.length; i++) { layerReplays[i] = new Replay(); }
+        }
+        int k0 = 0, n0 = 0, r0 = 0, p0 = 0;
+        if(layer > 0) {
+            int s = 4 * (layer - 1);
+            k0 = layerStarts[s]; n0 = layerStarts[s + 1]; r0 = layerStarts[s + 2]; p0 = layerStarts[s + 3];
+        }
+        int k1 = layer < layerCount - 1 ? layerStarts[4 * layer] : opCount;
+        replay(g, alpha, observer, layerReplays[layer], k0, k1, n0, r0, p0);
+    }
+
+    // The reused shapes and transforms of one replay.
+    private static class Replay {
+        Rectangle2D.Double rect = new Rectangle2D.Double();
+        Ellipse2D.Double oval = new Ellipse2D.Double();
+        RoundRectangle2D.Double roundRect = new RoundRectangle2D.Double();
+        Arc2D.Double arc = new Arc2D.Double();
+        Line2D.Double line = new Line2D.Double();
+        AffineTransform current = new AffineTransform(), full = new AffineTransform();
+        AffineTransform scratch = new AffineTransform();
+        double[] scratchMatrix = new double[6];
+    }
+
+    // Replays the ops from k0 to k1, whose arguments start at n0, r0 and p0.
+    private void replay(Graphics2D g, double alpha, ImageObserver observer, Replay rp, int k0, int k1, int n0, int r0, int p0) {
+        Rectangle2D.Double rect = rp.rect;
+        Ellipse2D.Double oval = rp.oval;
+        RoundRectangle2D.Double roundRect = rp.roundRect;
+        Arc2D.Double arc = rp.arc;
+        Line2D.Double line = rp.line;
+        AffineTransform current = rp.current, full = rp.full, scratch = rp.scratch;
+        double[] scratchMatrix = rp.scratchMatrix;
+        AffineTransform base = g.getTransform();
+        Shape baseClip = g.getClip();
+        Graphics2D[] stack = new Graphics2D[4];
+        double[] saved = new double[12];
+        int depth = 0;
+        double ix = 0, iy = 0; // the sum of the interpolated translations
+        current.setToIdentity();
+        int n = n0, r = r0, p = p0;
+        for(int k = k0; k < k1; k++) {
+            switch(ops[k]) {
+                case PAINT: g.setPaint((Paint)refs[r++]); break;
+                case STROKE: g.setStroke((Stroke)refs[r++]); break;
+                case COMPOSITE: g.setComposite((Composite)refs[r++]); break;
+                case FONT: g.setFont((Font)refs[r++]); break;
+                case BACKGROUND: g.setBackground((Color)refs[r++]); break;
+                case HINT: g.setRenderingHint((RenderingHints.Key)refs[r], refs[r + 1]); r += 2; break;
+                case HINTS: g.setRenderingHints((Map<?, ?>)refs[r++]); break;
+                case PAINTMODE: g.setPaintMode(); break;
+                case XORMODE: g.setXORMode((Color)refs[r++]); break;
+                case TRANSFORM:
+                    current.setTransform(nums[n], nums[n + 1], nums[n + 2], nums[n + 3], nums[n + 4], nums[n + 5]);
+                    n += 6;
+                    setTransform(g, full, base, current, (alpha - 1) * ix, (alpha - 1) * iy);
+                    break;
+                case INTERPOLATE:
+                    ix += nums[n]; iy += nums[n + 1]; n += 2;
+                    setTransform(g, full, base, current, (alpha - 1) * ix, (alpha - 1) * iy);
+                    break;
+                case CLIPSET: case CLIP:
+                    g.setTransform(base);
+                    if(ops[k] == CLIPSET) { g.setClip(baseClip); }
+                    if(nums[n++] != 0) { g.clip(paths.get(p++)); }
+                    setTransform(g, full, base, current, (alpha - 1) * ix, (alpha - 1) * iy);
+                    break;
+                case PUSH:
+                    if(depth == stack.length) {
+                        stack = Arrays.copyOf(stack, 2 * depth);
+                        saved = Arrays.copyOf(saved, 6 * stack.length);
+                    }
+                    stack[depth] = g;
+                    current.getMatrix(scratchMatrix);
+                    System.arraycopy(scratchMatrix, 0, saved, 6 * depth, 6);
+                    depth++;
+                    g = (Graphics2D)g.create();
+                    break;
+                case POP:
+                    if(depth > 0) {
+                        g.dispose();
+                        depth--;
+                        g = stack[depth];
+                        stack[depth] = null;
+                        current.setTransform(saved[6 * depth], saved[6 * depth + 1], saved[6 * depth + 2],
+                            saved[6 * depth + 3], saved[6 * depth + 4], saved[6 * depth + 5]);
+                    }
+                    break;
+                case FILLRECT: case DRAWRECT: case CLEARRECT:
+                    rect.setRect(nums[n], nums[n + 1], nums[n + 2], nums[n + 3]); n += 4;
+                    if(ops[k] == FILLRECT) { g.fill(rect); }
+                    else if(ops[k] == DRAWRECT) { g.draw(rect); }
+                    else { g.clearRect((int)rect.x, (int)rect.y, (int)rect.width, (int)rect.height); }
+                    break;
+                case FILLOVAL: case DRAWOVAL:
+                    oval.setFrame(nums[n], nums[n + 1], nums[n + 2], nums[n + 3]); n += 4;
+                    if(ops[k] == FILLOVAL) { g.fill(oval); } else { g.draw(oval); }
+                    break;
+                case FILLROUNDRECT: case DRAWROUNDRECT:
+                    roundRect.setRoundRect(nums[n], nums[n + 1], nums[n + 2], nums[n + 3], nums[n + 4], nums[n + 5]);
+                    n += 6;
+                    if(ops[k] == FILLROUNDRECT) { g.fill(roundRect); } else { g.draw(roundRect); }
+                    break;
+                case FILLARC: case DRAWARC:
+                    arc.setArc(nums[n], nums[n + 1], nums[n + 2], nums[n + 3], nums[n + 4], nums[n + 5], (int)nums[n + 6]);
+                    n += 7;
+                    if(ops[k] == FILLARC) { g.fill(arc); } else { g.draw(arc); }
+                    break;
+                case LINE:
+                    line.setLine(nums[n], nums[n + 1], nums[n + 2], nums[n + 3]); n += 4;
+                    g.draw(line);
+                    break;
+                case FILLPATH: g.fill(paths.get(p++)); break;
+                case DRAWPATH: g.draw(paths.get(p++)); break;
+                case IMAGE:
+                    g.drawImage((Image)refs[r], (int)nums[n], (int)nums[n + 1], (Color)refs[r + 1], observer);
+                    r += 2; n += 2;
+                    break;
+                case IMAGESCALED:
+                    g.drawImage((Image)refs[r], (int)nums[n], (int)nums[n + 1], (int)nums[n + 2], (int)nums[n + 3],
+                        (Color)refs[r + 1], observer);
+                    r += 2; n += 4;
+                    break;
+                case IMAGEPART:
+                    g.drawImage((Image)refs[r], (int)nums[n], (int)nums[n + 1], (int)nums[n + 2], (int)nums[n + 3],
+                        (int)nums[n + 4], (int)nums[n + 5], (int)nums[n + 6], (int)nums[n + 7], (Color)refs[r + 1], observer);
+                    r += 2; n += 8;
+                    break;
+                case IMAGETRANSFORM: case RENDERED: case RENDERABLE:
+                    scratch.setTransform(nums[n], nums[n + 1], nums[n + 2], nums[n + 3], nums[n + 4], nums[n + 5]);
+                    n += 6;
+                    if(ops[k] == IMAGETRANSFORM) { g.drawImage((Image)refs[r++], scratch, observer); }
+                    else if(ops[k] == RENDERED) { g.drawRenderedImage((RenderedImage)refs[r++], scratch); }
+                    else { g.drawRenderableImage((RenderableImage)refs[r++], scratch); }
+                    break;
+                case IMAGEOP:
+                    g.drawImage((BufferedImage)refs[r], (BufferedImageOp)refs[r + 1], (int)nums[n], (int)nums[n + 1]);
+                    r += 2; n += 2;
+                    break;
+                case STRING:
+                    g.drawString((String)refs[r++], (float)nums[n], (float)nums[n + 1]); n += 2;
+                    break;
+                case GLYPHS:
+                    g.drawGlyphVector((GlyphVector)refs[r++], (float)nums[n], (float)nums[n + 1]); n += 2;
+                    break;
+                case LAYOUT:
+                    ((TextLayout)refs[r++]).draw(g, (float)nums[n], (float)nums[n + 1]); n += 2;
+                    break;
+                case COPYAREA:
+                    g.copyArea((int)nums[n], (int)nums[n + 1], (int)nums[n + 2], (int)nums[n + 3],
+                        (int)nums[n + 4], (int)nums[n + 5]);
+                    n += 6;
+                    break;
+            }
+        }
+        while(depth > 0) { // a create without a matching dispose
+            g.dispose();
+            g = stack[--depth];
+        }
+        g.setTransform(base);
+        g.setClip(baseClip);
+    }
+
+    // Sets the transform of g to the base transform, followed by the interpolated
+    // translation (dx, dy), followed by the recorded transform m.
+    private static void setTransform(Graphics2D g, AffineTransform full, AffineTransform base, AffineTransform m, double dx, double dy) {
+        full.setTransform(base);
+        full.translate(dx, dy);
+        full.concatenate(m);
+        g.setTransform(full);
+    }
+}
@@ -0,0 +1,509 @@
+import java.awt.*;
+import java.awt.font.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.awt.image.renderable.*;
+import java.text.AttributedCharacterIterator;
+import java.util.*;
+
+/* A Graphics2D that does not draw anything, but records the drawing operations made
+ * with it into a RenderBuffer to be replayed later. The entities render themselves
+ * into this object exactly as they would to the screen. The current drawing state is
+ * kept in a shadow graphics of a tiny image, so that the entity can still ask for its
+ * font metrics, transform and such. Changes of the transform are recorded lazily, only
+ * when something is drawn after them. Paints, fonts, images and the like are recorded
+ * by reference, so the entities should not modify an image after drawing it. Shapes
+ * are copied, so the entities are free to reuse and modify their shape objects.
+ */
+
+public class RenderRecorder extends Graphics2D {
+
+    private static final BufferedImage canvas = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+
+    private RenderBuffer buffer;
+    private Graphics2D shadow;
+    private AffineTransform xform;
+    private double[] matrix = new double[6];
+    private boolean transformChanged;
+    private Paint paint; // the latest recorded paint, null if none yet
+    private boolean child;
+
+    // The parts of the drawing state set since the frame began, to start each new layer
+    // with, and the rendering hints set since then.
+    private static final int STROKESET = 1, COMPOSITESET = 2, FONTSET = 4, BACKGROUNDSET = 8, CLIPSET = 16;
+    private int stateSet;
+    private Map<Object, Object> hints = new HashMap<Object, Object>();
+    private boolean hintsReplaced;
+
+    public RenderRecorder() {
+        xform = new AffineTransform();
+        shadow = canvas.createGraphics();
+    }
+
+    private RenderRecorder(RenderRecorder parent) {
+        buffer = parent.buffer;
+        shadow = (Graphics2D)parent.shadow.create();
+        xform = new AffineTransform(parent.xform);
+        paint = parent.paint;
+        child = true;
+    }
+
+    // Starts recording a new frame into the given buffer, in the default drawing state.
+    public void begin(RenderBuffer buffer) {
+        this.buffer = buffer;
+        buffer.clear();
+        shadow.dispose();
+        shadow = canvas.createGraphics();
+        xform.setToIdentity();
+        transformChanged = false;
+        paint = null;
+        stateSet = 0;
+        hints.clear();
+        hintsReplaced = false;
+    }
+
+    // Starts a new layer of the frame, to be replayed on its own into a separate image.
+    // The new layer begins by setting whatever drawing state was set since the frame began,
+    // so that it draws the same as if the layers were replayed one after another. The
+    // interpolated translations are always undone by the entity that made them, so none
+    // is pending between the entities. This should be called only on the recorder that
+    // began the frame, not on the graphics created from it.
+    public void nextLayer() {
+        buffer.markLayer();
+        if(paint != null) {
+            buffer.op(RenderBuffer.PAINT);
+            buffer.ref(paint);
+        }
+        if((stateSet & STROKESET) != 0) { buffer.op(RenderBuffer.STROKE); buffer.ref(shadow.getStroke()); }
+        if((stateSet & COMPOSITESET) != 0) { buffer.op(RenderBuffer.COMPOSITE); buffer.ref(shadow.getComposite()); }
+        if((stateSet & FONTSET) != 0) { buffer.op(RenderBuffer.FONT); buffer.ref(shadow.getFont()); }
+        if((stateSet & BACKGROUNDSET) != 0) { buffer.op(RenderBuffer.BACKGROUND); buffer.ref(shadow.getBackground()); }
+        if(hintsReplaced) {
+            buffer.op(RenderBuffer.HINTS);
+            buffer.ref(new HashMap<Object, Object>(hints));
+        }
+        else {
+            for(Map.Entry<Object, Object> e: hints.entrySet()) {
+                buffer.op(RenderBuffer.HINT);
+                buffer.ref(e.getKey());
+                buffer.ref(e.getValue());
+            }
+        }
+        if((stateSet & CLIPSET) != 0) { clipShape(RenderBuffer.CLIPSET, shadow.getClip()); }
+        transformChanged = true;
+    }
+
+    // Translates whatever is drawn next by (alpha - 1) * (dx, dy) in screen coordinates,
+    // where alpha is known only when the frame is replayed. NewtonEntity uses this to move
+    // itself between its previous and current position.
+    public void translateInterpolated(double dx, double dy) {
+        buffer.op(RenderBuffer.INTERPOLATE);
+        buffer.num(dx);
+        buffer.num(dy);
+    }
+
+    // Records a drawing operation, preceded by the transform if that has changed.
+    private void record(int op) {
+        if(transformChanged) {
+            transformChanged = false;
+            buffer.op(RenderBuffer.TRANSFORM);
+            xform.getMatrix(matrix);
+            for(int i = 0; i < 6; i++) { buffer.num(matrix[i]); }
+        }
+        buffer.op(op);
+    }
+
+    private void nums(double a, double b, double c, double d) {
+        buffer.num(a); buffer.num(b); buffer.num(c); buffer.num(d);
+    }
+
+    private void nums(AffineTransform at) {
+        if(at == null) { at = new AffineTransform(); }
+        at.getMatrix(matrix);
+        for(int i = 0; i < 6; i++) { buffer.num(matrix[i]); }
+    }
+
+    private void shape(Shape s, boolean fill) {
+        if(s instanceof Rectangle2D) {
+            Rectangle2D r = (Rectangle2D)s;
+            record(fill ? RenderBuffer.FILLRECT : RenderBuffer.DRAWRECT);
+            nums(r.getX(), r.getY(), r.getWidth(), r.getHeight());
+        }
+        else if(s instanceof Ellipse2D) {
+            Ellipse2D e = (Ellipse2D)s;
+            record(fill ? RenderBuffer.FILLOVAL : RenderBuffer.DRAWOVAL);
+            nums(e.getX(), e.getY(), e.getWidth(), e.getHeight());
+        }
+        else if(s instanceof RoundRectangle2D) {
+            RoundRectangle2D r = (RoundRectangle2D)s;
+            record(fill ? RenderBuffer.FILLROUNDRECT : RenderBuffer.DRAWROUNDRECT);
+            nums(r.getX(), r.getY(), r.getWidth(), r.getHeight());
+            buffer.num(r.getArcWidth());
+            buffer.num(r.getArcHeight());
+        }
+        else if(s instanceof Arc2D) {
+            Arc2D a = (Arc2D)s;
+            record(fill ? RenderBuffer.FILLARC : RenderBuffer.DRAWARC);
+            nums(a.getX(), a.getY(), a.getWidth(), a.getHeight());
+            buffer.num(a.getAngleStart());
+            buffer.num(a.getAngleExtent());
+            buffer.num(a.getArcType());
+        }
+        else if(s instanceof Line2D && !fill) {
+            Line2D l = (Line2D)s;
+            record(RenderBuffer.LINE);
+            nums(l.getX1(), l.getY1(), l.getX2(), l.getY2());
+        }
+        else {
+            record(fill ? RenderBuffer.FILLPATH : RenderBuffer.DRAWPATH);
+            buffer.path().append(s, false);
+        }
+    }
+
+    private void poly(int[] xs, int[] ys, int n, boolean close, boolean fill) {
+        if(n < 1) { return; }
+        record(fill ? RenderBuffer.FILLPATH : RenderBuffer.DRAWPATH);
+        Path2D.Double p = buffer.path();
+        p.moveTo(xs[0], ys[0]);
+        for(int i = 1; i < n; i++) { p.lineTo(xs[i], ys[i]); }
+        if(close) { p.closePath(); }
+    }
+
+    private void clipShape(int op, Shape s) {
+        buffer.op(op);
+        buffer.num(s == null ? 0 : 1);
+        if(s != null) { buffer.path().append(s.getPathIterator(xform), false); }
+    }
+
+    private void transformChanged() {
+        shadow.setTransform(xform);
+        transformChanged = true;
+    }
+
+    // The drawing state.
+
+    public void setPaint(Paint p) {
+        if(p == null || p == paint) { return; }
+        shadow.setPaint(p);
+        paint = p;
+        buffer.op(RenderBuffer.PAINT);
+        buffer.ref(p);
+    }
+
+    public void setColor(Color c) { setPaint(c); }
+    public Paint getPaint() { return shadow.getPaint(); }
+    public Color getColor() { return shadow.getColor(); }
+
+    public void setStroke(Stroke s) {
+        if((stateSet & STROKESET) != 0 && s == shadow.getStroke()) { return; }
+        shadow.setStroke(s);
+        stateSet |= STROKESET;
+        buffer.op(RenderBuffer.STROKE);
+        buffer.ref(s);
+    }
+
+    public Stroke getStroke() { return shadow.getStroke(); }
+
+    public void setComposite(Composite c) {
+        if((stateSet & COMPOSITESET) != 0 && c == shadow.getComposite()) { return; }
+        shadow.setComposite(c);
+        stateSet |= COMPOSITESET;
+        buffer.op(RenderBuffer.COMPOSITE);
+        buffer.ref(c);
+    }
+
+    public Composite getComposite() { return shadow.getComposite(); }
+
+    public void setFont(Font f) {
+        if(f == null) { return; }
+        shadow.setFont(f);
+        stateSet |= FONTSET;
+        buffer.op(RenderBuffer.FONT);
+        buffer.ref(f);
+    }
+
+    public Font getFont() { return shadow.getFont(); }
+    public FontMetrics getFontMetrics(Font f) { return shadow.getFontMetrics(f); }
+    public FontRenderContext getFontRenderContext() { return shadow.getFontRenderContext(); }
+
+    public void setBackground(Color c) {
+        shadow.setBackground(c);
+        stateSet |= BACKGROUNDSET;
+        buffer.op(RenderBuffer.BACKGROUND);
+        buffer.ref(c);
+    }
+
+    public Color getBackground() { return shadow.getBackground(); }
+
+    public void setPaintMode() {
+        shadow.setPaintMode();
+        stateSet |= COMPOSITESET;
+        buffer.op(RenderBuffer.PAINTMODE);
+    }
+
+    public void setXORMode(Color c) {
+        shadow.setXORMode(c);
+        stateSet |= COMPOSITESET;
+        buffer.op(RenderBuffer.XORMODE);
+        buffer.ref(c);
+    }
+
+    public void setRenderingHint(RenderingHints.Key key, Object value) {
+        shadow.setRenderingHint(key, value);
+        hints.put(key, value);
+        buffer.op(RenderBuffer.HINT);
+        buffer.ref(key);
+        buffer.ref(value);
+    }
+
+    public Object getRenderingHint(RenderingHints.Key key) { return shadow.getRenderingHint(key); }
+
+    // Makes getRenderingHint answer the value that the graphics that the frame will be
+    // replayed into are expected to have for the key, without recording anything. Only
+    // lasts until the next frame begins.
+    public void assumeRenderingHint(RenderingHints.Key key, Object value) {
+        shadow.setRenderingHint(key, value);
+    }
+
+    public void setRenderingHints(Map<?, ?> hints) {
+        shadow.setRenderingHints(hints);
+        this.hints.clear();
+        this.hints.putAll(hints);
+        hintsReplaced = true;
+        buffer.op(RenderBuffer.HINTS);
+        buffer.ref(new HashMap<Object, Object>(hints));
+    }
+
+    public void addRenderingHints(Map<?, ?> hints) {
+        for(Map.Entry<?, ?> e: hints.entrySet()) {
+            setRenderingHint((RenderingHints.Key)e.getKey(), e.getValue());
+        }
+    }
+
+    public RenderingHints getRenderingHints() { return shadow.getRenderingHints(); }
+    public GraphicsConfiguration getDeviceConfiguration() { return shadow.getDeviceConfiguration(); }
+
+    // The transform.
+
+    public void translate(int x, int y) { xform.translate(x, y); transformChanged(); }
+    public void translate(double tx, double ty) { xform.translate(tx, ty); transformChanged(); }
+    public void rotate(double theta) { xform.rotate(theta); transformChanged(); }
+    public void rotate(double theta, double x, double y) { xform.rotate(theta, x, y); transformChanged(); }
+    public void scale(double sx, double sy) { xform.scale(sx, sy); transformChanged(); }
+    public void shear(double shx, double shy) { xform.shear(shx, shy); transformChanged(); }
+    public void transform(AffineTransform tx) { xform.concatenate(tx); transformChanged(); }
+    public void setTransform(AffineTransform tx) { xform.setTransform(tx); transformChanged(); }
+    public AffineTransform getTransform() { return new AffineTransform(xform); }
+
+    // The clip, recorded in the coordinates of the frame.
+
+    public void setClip(Shape s) {
+        shadow.setClip(s);
+        stateSet |= CLIPSET;
+        clipShape(RenderBuffer.CLIPSET, s);
+    }
+
+    public void clip(Shape s) {
+        shadow.clip(s);
+        stateSet |= CLIPSET;
+        clipShape(s == null ? RenderBuffer.CLIPSET : RenderBuffer.CLIP, s);
+    }
+
+    public void setClip(int x, int y, int w, int h) { setClip(new Rectangle(x, y, w, h)); }
+    public void clipRect(int x, int y, int w, int h) { clip(new Rectangle(x, y, w, h)); }
+    public Shape getClip() { return shadow.getClip(); }
+    public Rectangle getClipBounds() { return shadow.getClipBounds(); }
+
+    public boolean hit(Rectangle rect, Shape s, boolean onStroke) {
+        return shadow.hit(rect, s, onStroke);
+    }
+
+    // The graphics created from this one record into the same buffer, in their own state
+    // that is thrown away when they are disposed.
+
+    public Graphics create() {
+        record(RenderBuffer.PUSH);
+        return new RenderRecorder(this);
+    }
+
+    public void dispose() {
+        if(child && buffer != null) {
+            buffer.op(RenderBuffer.POP);
+            shadow.dispose();
+            buffer = null; // dispose only once
+        }
+    }
+
+    // The drawing operations.
+
+    public void fill(Shape s) { shape(s, true); }
+    public void draw(Shape s) { shape(s, false); }
+
+    public void fillRect(int x, int y, int w, int h) {
+        record(RenderBuffer.FILLRECT);
+        nums(x, y, w, h);
+    }
+
+    public void drawRect(int x, int y, int w, int h) {
+        if(w < 0 || h < 0) { return; }
+        record(RenderBuffer.DRAWRECT);
+        nums(x, y, w, h);
+    }
+
+    public void clearRect(int x, int y, int w, int h) {
+        record(RenderBuffer.CLEARRECT);
+        nums(x, y, w, h);
+    }
+
+    public void drawLine(int x1, int y1, int x2, int y2) {
+        record(RenderBuffer.LINE);
+        nums(x1, y1, x2, y2);
+    }
+
+    public void fillOval(int x, int y, int w, int h) {
+        record(RenderBuffer.FILLOVAL);
+        nums(x, y, w, h);
+    }
+
+    public void drawOval(int x, int y, int w, int h) {
+        record(RenderBuffer.DRAWOVAL);
+        nums(x, y, w, h);
+    }
+
+    public void fillRoundRect(int x, int y, int w, int h, int aw, int ah) {
+        record(RenderBuffer.FILLROUNDRECT);
+        nums(x, y, w, h);
+        buffer.num(aw);
+        buffer.num(ah);
+    }
+
+    public void drawRoundRect(int x, int y, int w, int h, int aw, int ah) {
+        record(RenderBuffer.DRAWROUNDRECT);
+        nums(x, y, w, h);
+        buffer.num(aw);
+        buffer.num(ah);
+    }
+
+    public void fillArc(int x, int y, int w, int h, int start, int extent) {
+        record(RenderBuffer.FILLARC);
+        nums(x, y, w, h);
+        buffer.num(start);
+        buffer.num(extent);
+        buffer.num(Arc2D.PIE);
+    }
+
+    public void drawArc(int x, int y, int w, int h, int start, int extent) {
+        record(RenderBuffer.DRAWARC);
+        nums(x, y, w, h);
+        buffer.num(start);
+        buffer.num(extent);
+        buffer.num(Arc2D.OPEN);
+    }
+
+    public void drawPolyline(int[] xs, int[] ys, int n) { poly(xs, ys, n, false, false); }
+    public void drawPolygon(int[] xs, int[] ys, int n) { poly(xs, ys, n, true, false); }
+    public void fillPolygon(int[] xs, int[] ys, int n) { poly(xs, ys, n, true, true); }
+
+    public void copyArea(int x, int y, int w, int h, int dx, int dy) {
+        record(RenderBuffer.COPYAREA);
+        nums(x, y, w, h);
+        buffer.num(dx);
+        buffer.num(dy);
+    }
+
+    public void drawString(String s, int x, int y) { drawString(s, (float)x, (float)y); }
+
+    public void drawString(String s, float x, float y) {
+        record(RenderBuffer.STRING);
+        buffer.ref(s);
+        buffer.num(x);
+        buffer.num(y);
+    }
+
+    public void drawString(AttributedCharacterIterator it, int x, int y) { drawString(it, (float)x, (float)y); }
+
+    public void drawString(AttributedCharacterIterator it, float x, float y) {
+        if(it.getBeginIndex() == it.getEndIndex()) { return; }
+        record(RenderBuffer.LAYOUT);
+        buffer.ref(new TextLayout(it, getFontRenderContext()));
+        buffer.num(x);
+        buffer.num(y);
+    }
+
+    public void drawGlyphVector(GlyphVector gv, float x, float y) {
+        record(RenderBuffer.GLYPHS);
+        buffer.ref(gv);
+        buffer.num(x);
+        buffer.num(y);
+    }
+
+    // The images. The return value of true claims that each image has been drawn in full,
+    // which the replay will eventually do with the observer given to it.
+
+    public boolean drawImage(Image img, int x, int y, ImageObserver observer) {
+        return drawImage(img, x, y, null, observer);
+    }
+
+    public boolean drawImage(Image img, int x, int y, Color bg, ImageObserver observer) {
+        record(RenderBuffer.IMAGE);
+        buffer.ref(img);
+        buffer.ref(bg);
+        buffer.num(x);
+        buffer.num(y);
+        return true;
+    }
+
+    public boolean drawImage(Image img, int x, int y, int w, int h, ImageObserver observer) {
+        return drawImage(img, x, y, w, h, null, observer);
+    }
+
+    public boolean drawImage(Image img, int x, int y, int w, int h, Color bg, ImageObserver observer) {
+        record(RenderBuffer.IMAGESCALED);
+        buffer.ref(img);
+        buffer.ref(bg);
+        nums(x, y, w, h);
+        return true;
+    }
+
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2,
+        int sx1, int sy1, int sx2, int sy2, ImageObserver observer) {
+        return drawImage(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null, observer);
+    }
+
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2,
+        int sx1, int sy1, int sx2, int sy2, Color bg, ImageObserver observer) {
+        record(RenderBuffer.IMAGEPART);
+        buffer.ref(img);
+        buffer.ref(bg);
+        nums(dx1, dy1, dx2, dy2);
+        nums(sx1, sy1, sx2, sy2);
+        return true;
+    }
+
+    public boolean drawImage(Image img, AffineTransform tx, ImageObserver observer) {
+        record(RenderBuffer.IMAGETRANSFORM);
+        nums(tx);
+        buffer.ref(img);
+        return true;
+    }
+
+    public void drawImage(BufferedImage img, BufferedImageOp op, int x, int y) {
+        record(RenderBuffer.IMAGEOP);
+        buffer.ref(img);
+        buffer.ref(op);
+        buffer.num(x);
+        buffer.num(y);
+    }
+
+    public void drawRenderedImage(RenderedImage img, AffineTransform tx) {
+        record(RenderBuffer.RENDERED);
+        nums(tx);
+        buffer.ref(img);
+    }
+
+    public void drawRenderableImage(RenderableImage img, AffineTransform tx) {
+        record(RenderBuffer.RENDERABLE);
+        nums(tx);
+        buffer.ref(img);
+    }
+}
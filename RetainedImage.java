@@ -0,0 +1,67 @@
+import java.awt.*;
+import java.awt.image.*;
+
+/* The image of the game that a front end keeps from one frame to the next, so that the
+ * simulation needs to draw only the areas of the screen that have changed since the
+ * previous frame. The static parts of the game, such as a board that stays put between
+ * the moves, then stay in the image as they were drawn earlier, and each frame costs one
+ * drawImage of the retained image plus whatever has actually changed. This needs the
+ * dirty tracking of the simulation, without which every frame is drawn whole.
+ */
+
+public class RetainedImage {
+
+    private final GameSimulation simulation;
+    private final Color background;
+    private final DirtyRegion changed;
+    private BufferedImage image;
+    private GraphicsConfiguration imageConfig;
+    private long frames, drawnTiles;
+
+    public RetainedImage(GameSimulation simulation, Color background) {
+        this.simulation = simulation;
+        this.background = background;
+        Dimension d = simulation.getGame().getDimension();
+        changed = new DirtyRegion(d.width, d.height);
+    }
+
+    // The areas of the image that were drawn again by the latest call of paint.
+    public DirtyRegion getChanged() { return changed; }
+
+    // The average share of the image that has been drawn again in each frame.
+    public double getAverageDrawn() {
+        return frames == 0 ? 0 : drawnTiles / ((double)frames * changed.getTiles());
+    }
+
+    // Draws the image over again at the next call of paint.
+    public void invalidate() { image = null; }
+
+    // Draws the game into the image where it has changed, with the font and rendering hints
+    // of g2, and then the image on g2 at the origin. The image is made compatible with the
+    // given configuration, or is a plain image in memory if the configuration is null.
+    public void paint(Graphics2D g2, double alpha, GraphicsConfiguration gc) {
+        changed.clear();
+        if(image == null || imageConfig != gc) {
+            int w = changed.getWidth(), h = changed.getHeight();
+            image = gc != null ? gc.createCompatibleImage(w, h, Transparency.OPAQUE)
+                : new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            imageConfig = gc;
+            changed.addAll();
+        }
+        Graphics2D ig = image.createGraphics();
+        try {
+            ig.setRenderingHints(g2.getRenderingHints());
+            ig.setFont(g2.getFont());
+            ig.setBackground(background);
+            simulation.render(ig, alpha, changed);
+        }
+        finally { ig.dispose(); }
+        frames++;
+        drawnTiles += changed.getDirtyTiles();
+        g2.drawImage(image, 0, 0, null);
+    }
+
+    public String toString() {
+        return String.format("Retained image: %d frames, %.1f%% of the image drawn per frame", frames, 100 * getAverageDrawn());
+    }
+}
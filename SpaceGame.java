@@ -9,18 +9,61 @@ public class SpaceGame implements Game {
     private final int WIDTH = 500, HEIGHT = 800;
     private GameHooks hooks;
     private static final Random rng = new Random();
-
-    public String getTitle() { return "Space Blasters"; }
+    // The collision categories. All the enemies are in the default category, and the
+    // player and the bullets only collide with them, never with each other.
+    private static final int ENEMY = CollisionFilter.DEFAULTCATEGORY, PLAYER = 2, BULLET = 4;
+
+    // The stress scenarios that can be played instead of the levels of the game: the given
+    // number of spinning balls on the screen at all times, a centipede of the given length,
+    // or the given number of bullets fired every time frame. The scenarios have no player,
+    // so that nothing ends them. See the class StressHarness.
+    public static final java.util.List<String> SCENARIOS = Arrays.asList("balls", "centipede", "bullets");
+    private String scenario;
+    private int load;
+    
+    public SpaceGame() { }
+    
+    // A game of only the given stress scenario at the given load.
+    public SpaceGame(String scenario, int load) {
+        if(!SCENARIOS.contains(scenario)) {
+            throw new IllegalArgumentException("Unknown stress scenario " + scenario);
+        }
+        if(load < 1) {
+            throw new IllegalArgumentException("Illegal stress load " + load);
+        }
+        this.scenario = scenario;
+        this.load = load;
+    }
+    
+    public String getTitle() { return scenario == null ? "Space Blasters" : "Space Blasters stress " + scenario + " " + load; }
     public String getAuthor() { return "Ilkka Kokkarinen"; }
     
     public java.util.List<Level> startNewGame(GameHooks hooks) {
         this.hooks = hooks;
         ArrayList<Level> levels = new ArrayList<Level>();
-        levels.add(new CentipedeLevel());
-        levels.add(new SpaceInvadersLevel());
-        levels.add(new BallsLevel());
-        levels.add(new SierpinskiLevel());        
-        hooks.addEntity(new SpacePlayer());
+        if(scenario == null) {
+            levels.add(new CentipedeLevel(CENTILENGTH, false));
+            levels.add(new SpaceInvadersLevel());
+            levels.add(new BallsLevel());
+            levels.add(new SierpinskiLevel());
+        }
+        else if(scenario.equals("centipede")) { levels.add(new CentipedeLevel(load, true)); }
+        else { levels.add(new StressLevel()); }
+        stars = new ParticleSystem(WIDTH, HEIGHT, 0);
+        explosions = new ParticleSystem(WIDTH, HEIGHT, 4);
+        explosionStyle = explosions.addStyle(explosionColor, explosionSize, true, true);
+        hooks.addEntity(stars);
+        hooks.addEntity(explosions);
+        bullets = new EcsWorld(hooks, 2);
+        // A bullet is destroyed once its box is entirely above the screen, as the bullets
+        // always were.
+        bullets.setBounds(-10, -10, WIDTH + 10, HEIGHT);
+        hooks.addEntity(bullets);
+        if(scenario == null) { hooks.addEntity(new SpacePlayer()); }
+        // The triangles and balls come and go all the time, so they are recycled.
+        hooks.registerPool(Sierpinski.class, Sierpinski::new, 256);
+        hooks.registerPool(SpinnyBall.class, SpinnyBall::new, 32);
+        hooks.registerSpriteCache(sprites);
         return levels;
     }
 
@@ -30,12 +73,19 @@ public class SpaceGame implements Game {
 
     public void terminate() { }
     
+    // The spinning balls and the triangles are painted with gradients, so they are drawn
+    // from sprites painted once for each size and, for the balls, spin of the gradient.
+    // When the game engine lowers the quality, they are painted in flat colors instead.
+    // The sprites of a normal game fit into two or three pages, so four leave room to spare.
+    private final SpriteCache sprites = new SpriteCache(1024, 4);
+    private static final long BALLSPRITE = 1L << 56, SIERSPRITE = 2L << 56, FLATSPRITE = 1L << 55;
+    
     private class SierpinskiLevel implements Level {
         private int startTime;
         public void initialize(int t) {
             hooks.setMessage("Break down the Sierpinski triangle!", 25);
             this.startTime = t;
-            hooks.addEntity(new Sierpinski(10, -(WIDTH - 20), WIDTH - 20, WIDTH - 20)); 
+            hooks.addEntity(hooks.acquire(Sierpinski.class).init(10, -(WIDTH - 20), WIDTH - 20, WIDTH - 20));
         }
 
         public boolean isCompleted(int t) {
@@ -44,7 +94,7 @@ public class SpaceGame implements Game {
 
         public void action(int t) {
             if(rng.nextInt(100) < 10) {
-                hooks.addEntity(new Star());
+                addStar();
             }
         }    
     }
@@ -53,12 +103,15 @@ public class SpaceGame implements Game {
     private static final double[][] SIDIRS = { { 2, 0 }, { 0, 2 }, { -2, 0 }, { 0, 2 } };
     private class SpaceInvadersLevel implements Level {
         private Image si;
+        private CollisionMask siMask;
         public SpaceInvadersLevel() {
             si = Toolkit.getDefaultToolkit().getImage("spaceinvader.jpeg");
             MediaTracker m = new MediaTracker(hooks.getComponent());
             m.addImage(si, 0);
             try { m.waitForAll(); } catch(InterruptedException e) { }
             si = si.getScaledInstance(15, 15, Image.SCALE_AREA_AVERAGING);
+            // The image is a JPEG without transparency, so its black background is empty.
+            siMask = new CollisionMask(si, Color.BLACK, 40);
         }
         
         private int alienCount, sidir, downtime;
@@ -67,6 +120,7 @@ public class SpaceGame implements Game {
             hooks.setMessage("Space Invaders!", 25);
             alienCount = downtime = sidir = 0;
             minX = 25; maxX = 25 + (SICOLS - 1) * (WIDTH - 150) / SICOLS; 
+            hooks.reserveEntities(SIROWS * SICOLS);
             for(int row = 0; row < SIROWS; row++) {
                 for(int col = 0; col < SICOLS; col++) {
                     hooks.addEntity(new SpaceInvader(25 + col * (WIDTH - 150) / SICOLS, 40 + 30 * row));
@@ -92,7 +146,7 @@ public class SpaceGame implements Game {
             else if(sidir == 3 && t - downtime > 10) { sidir = 0; }
             else if(sidir == 2 && minX < 20) { sidir = 3; downtime = t; }
             if(rng.nextInt(100) < 10) {
-                hooks.addEntity(new Star());
+                addStar();
             }
             maxX = 0; minX = WIDTH;
         }   
@@ -105,12 +159,14 @@ public class SpaceGame implements Game {
             }
         
             public Shape getShape(int t) {
-                return new Rectangle2D.Double(getX(), getY(), 15, 15);
+                return new MaskShape(siMask, getX(), getY());
             }
 
             public void render(Graphics2D g2, int t) {
                 g2.drawImage(si, (int)getX(), (int)getY(), null);
             }
+            
+            public Object getRenderKey() { return si; }
 
             public void action(int t) {
                 this.setVX(SIDIRS[sidir][0] * speedMultiplier);
@@ -121,17 +177,18 @@ public class SpaceGame implements Game {
             }
 
             public boolean isActive() { 
-                if(isAlive && getY() > HEIGHT) {
-                    isAlive = false; alienCount--;
-                }
-                return isAlive;
+                return isAlive && getY() <= HEIGHT;
+            }
+
+            // Whether shot down or escaped below the screen, the invader no longer counts.
+            public void onRemoved(int t) {
+                alienCount--;
             }
 
             public void sendMessage(Entity source, String msg) {
                 if(msg.equals("Die!")) {
                     this.isAlive = false;
-                    alienCount--;
-                    hooks.addEntity(new Explosion(getX() + 7, getY() + 7));
+                    explode(getX() + 7, getY() + 7);
                 }
                 source.sendMessage(this, "Die!");
             }
@@ -155,26 +212,74 @@ public class SpaceGame implements Game {
 
         public void action(int t) {
             if(t % 20 == 0) {
-                hooks.addEntity(new SpinnyBall());
+                hooks.addEntity(hooks.acquire(SpinnyBall.class).init());
             }
             if(rng.nextInt(100) < 10) {
-                hooks.addEntity(new Star());
+                addStar();
             }
         }    
     }
 
+    // The stress scenarios of spinning balls and bullets.
+    private class StressLevel implements Level {
+        private int[] balls = new int[0];
+        
+        public void initialize(int t) {
+            if(scenario.equals("balls")) {
+                balls = new int[load];
+                hooks.reserveEntities(load);
+                for(int i = 0; i < load; i++) { // spread out over the screen to begin with
+                    balls[i] = hooks.addEntity(hooks.acquire(SpinnyBall.class).init(rng.nextDouble() * (HEIGHT + 100) - 100));
+                }
+            }
+        }
+        
+        public boolean isCompleted(int t) { return false; }
+        
+        // Replaces the balls that have left the screen, or fires the bullets.
+        public void action(int t) {
+            for(int i = 0; i < balls.length; i++) {
+                if(hooks.getEntity(balls[i]) == null) {
+                    balls[i] = hooks.addEntity(hooks.acquire(SpinnyBall.class).init());
+                }
+            }
+            if(scenario.equals("bullets")) {
+                for(int i = 0; i < load; i++) { shoot(10 + rng.nextDouble() * (WIDTH - 20), HEIGHT - 111); }
+            }
+            if(rng.nextInt(100) < 10) {
+                addStar();
+            }
+        }
+    }
+
     private static final int CENTILENGTH = 50;
+    // The stress scenario lays the centipede out on the screen, row by row back and forth,
+    // since a long one descending from above would mostly stay off the screen.
     private class CentipedeLevel implements Level {        
+        private final int length;
+        private final boolean onScreen;
         private int bodyCount;
 
+        public CentipedeLevel(int length, boolean onScreen) {
+            this.length = length;
+            this.onScreen = onScreen;
+        }
+
         public void initialize(int t) {
             bodyCount = 0;
             hooks.setMessage("Split up the centipede!", 25);
-            CentipedePiece prev = null;
-            for(int i = 0; i < CENTILENGTH; i++) {
-                prev = new CentipedePiece(WIDTH / 2 + 5 * i , - 5 * i, prev);
+            hooks.reserveEntities(length);
+            int prev = EntityStore.NOHANDLE;
+            int perRow = (WIDTH - 2 * CR) / 5;
+            for(int i = 0; i < length; i++) {
+                double x = WIDTH / 2 + 5 * i, y = -5 * i;
+                if(onScreen) {
+                    int row = i / perRow, col = row % 2 == 0 ? i % perRow : perRow - 1 - i % perRow;
+                    x = CR + 5 * col;
+                    y = CR + (40 * row) % (HEIGHT - 2 * CR);
+                }
+                prev = hooks.addEntity(new CentipedePiece(x, y, prev));
                 ++bodyCount;
-                hooks.addEntity(prev);
             }
         }
 
@@ -184,14 +289,14 @@ public class SpaceGame implements Game {
 
         public void action(int t) {
             if(rng.nextInt(100) < 10) {
-                hooks.addEntity(new Star());
+                addStar();
             }
         }
 
         private final int CR = 25;
         private class CentipedePiece implements Entity {
             private double cx, cy, tx, ty;
-            private CentipedePiece prev;
+            private int prev; // the handle of the piece in front of this one
             private boolean isAlive;
             private void chooseRandomTarget() {
                 tx = cx + rng.nextDouble() * 300 - 150;
@@ -202,10 +307,10 @@ public class SpaceGame implements Game {
                 if(ty > HEIGHT) { ty = HEIGHT - (ty - HEIGHT); }
             }
 
-            public CentipedePiece(double cx, double cy, CentipedePiece prev) {
+            public CentipedePiece(double cx, double cy, int prev) {
                 this.cx = cx; this.cy = cy; this.prev = prev;
                 this.isAlive = true;
-                if(prev == null) { chooseRandomTarget(); }
+                if(prev == EntityStore.NOHANDLE) { chooseRandomTarget(); }
             }
 
             public Shape getShape(int t) {
@@ -214,18 +319,21 @@ public class SpaceGame implements Game {
 
             public void render(Graphics2D g2, int t) {
                 g2.setPaint(Color.WHITE);
-                g2.draw(this.getShape(t));
+                g2.draw(hooks.getShape(this));
                 g2.setPaint(Color.MAGENTA);
-                g2.fill(this.getShape(t));
+                g2.fill(hooks.getShape(this));
             }
+            
+            public Object getRenderKey() { return Color.MAGENTA; }
 
             public void action(int t) {
-                if(prev != null) {
-                    if(prev.isActive()) {
-                        tx = prev.cx; ty = prev.cy;
+                if(prev != EntityStore.NOHANDLE) {
+                    CentipedePiece p = (CentipedePiece)hooks.getEntity(prev);
+                    if(p != null) {
+                        tx = p.cx; ty = p.cy;
                     }
                     else {
-                        prev = null;
+                        prev = EntityStore.NOHANDLE;
                         chooseRandomTarget();    
                     }
                 }
@@ -243,7 +351,7 @@ public class SpaceGame implements Game {
             public void sendMessage(Entity source, String msg) {
                 if(msg.equals("Die!")) {
                     this.isAlive = false;
-                    hooks.addEntity(new Explosion(cx, cy));
+                    explode(cx, cy);
                     bodyCount--;
                 }
                 source.sendMessage(this, "Die!");
@@ -254,14 +362,14 @@ public class SpaceGame implements Game {
 
     }
 
-    private class SpacePlayer extends MouseAdapter implements Entity {
+    private class SpacePlayer extends MouseAdapter implements Collider, CollisionFilter {
         public double x, y, mouseX;
         private boolean isActive = true;
         public SpacePlayer() {
             x = WIDTH / 2;
             y = HEIGHT - 100;
-            hooks.getComponent().addMouseListener(this);
-            hooks.getComponent().addMouseMotionListener(this);
+            hooks.addMouseListener(this);
+            hooks.addMouseMotionListener(this);
         }
 
         public Shape getShape(int t) {
@@ -270,20 +378,24 @@ public class SpaceGame implements Game {
 
         public void render(Graphics2D g2, int t) {
             g2.setColor(Color.RED);
-            g2.fill(this.getShape(t));
+            g2.fill(hooks.getShape(this));
         }
 
         public void action(int t) {
             x += (mouseX - x) / 10;
             if(x < 10) { x = 10; }
             if(x > WIDTH - 10) { x = WIDTH - 10; }
-            Rectangle2D.Double r = new Rectangle2D.Double(x - 10, y - 10, 20, 20);
-            java.util.List<Entity> collisions = hooks.getCollisions(this, null);
-            for(Entity e: collisions) {
-                e.sendMessage(this, "Crash!");
-            }
         }
 
+        // The game engine tells the player about each thing that it crashed into.
+        public void collide(Entity other) {
+            other.sendMessage(this, "Crash!");
+        }
+
+        public int getCollisionCategory() { return PLAYER; }
+        public int getCollisionMask() { return ENEMY; }
+        public int getCollisionLayer() { return 2; }
+
         public boolean isActive() {
             return isActive;
         }
@@ -291,11 +403,11 @@ public class SpaceGame implements Game {
         public void sendMessage(Entity source, String msg) {
             if(msg.equals("Die!")) {
                 this.isActive = false;
-                hooks.getComponent().removeMouseListener(this);
-                hooks.getComponent().removeMouseMotionListener(this);
+                hooks.removeMouseListener(this);
+                hooks.removeMouseMotionListener(this);
                 for(int i = 0; i < 5; i++) {
-                    hooks.addEntity(new Explosion(x + rng.nextDouble() * 100 - 50,
-                            y + rng.nextDouble() * 100 - 50));
+                    explode(x + rng.nextDouble() * 100 - 50,
+                            y + rng.nextDouble() * 100 - 50);
                 }
             }
         }
@@ -305,81 +417,94 @@ public class SpaceGame implements Game {
         }
 
         public void mousePressed(MouseEvent me) {
-            hooks.addEntity(new PewPew(x, y - 11));
+            shoot(x, y - 11);
         }
 
         public int getZ() { return 2; }
     }
 
-    private class PewPew extends NewtonEntity {
-        public PewPew(double x, double y) {
-            this.setX(x);
-            this.setY(y);
-            this.setVY(-5);
-            this.setAY(-0.17);
-        }
-
-        public Shape getShape(int t) {
-            return new Rectangle2D.Double(getX() - 2, getY() - 10, 4, 10);
-        }
-
-        public void render(Graphics2D g2, int t) {
-            g2.setPaint(Color.GREEN);
-            g2.fill(this.getShape(t));
-        }
-
-        public void action(int t) {
-            super.action(t);
-            java.util.List<Entity> collisions = hooks.getCollisions(this, null);
-            if(collisions.size() > 0) {
-                for(Entity e: collisions) {
-                    hooks.grantPoints(10);
-                    e.sendMessage(this, "Die!");
-                }
-            }
+    // The bullets are rows of an ECS world instead of entities of their own, and the
+    // handler of their colliders does what the bullets do when they hit something.
+    private EcsWorld bullets;
+    private final EcsWorld.Handler bulletHandler = new EcsWorld.Handler() {
+        public void collide(EcsWorld world, int h, Entity other) {
+            hooks.grantPoints(10);
+            other.sendMessage(world.getBody(h), "Die!");
         }
 
-        public boolean isActive() {
-            return getY() >= 0;
-        }
-
-        public void sendMessage(Entity source, String msg) {
-            if(msg.equals("Die!")) { setY(-1000); }
+        // A bullet that hits something is moved out of the bounds of the world, which destroys
+        // it in the next time frame, so that it still hits everything else that it overlaps
+        // in this one.
+        public void receive(EcsWorld world, int h, Entity source, String msg) {
+            if(msg.equals("Die!")) { world.setPosition(h, world.getX(h), -1000); }
         }
+    };
 
-        public int getZ() { return 2; }
+    // A bullet flies up from (x, y) until it hits something or leaves the top of the screen.
+    private void shoot(double x, double y) {
+        int h = bullets.create(x - 2, y - 10);
+        bullets.setMotion(h, 0, -5, 0, -0.17);
+        bullets.setCollider(h, 4, 10, BULLET, ENEMY, 2, true, bulletHandler);
+        bullets.setRenderable(h, 4, 10, 0xFF00FF00, false);
     }
 
     private static final float[] DIST = {0f, 0.3f, .9f, 1f};
     private static final Color[] COLORS = {
         new Color(66, 240, 15), new Color(110, 110, 255), new Color(99, 14, 33), new Color(23, 88, 99)
     };
-    private class SpinnyBall extends NewtonEntity {
+    private class SpinnyBall extends NewtonEntity implements Poolable, ConcurrentEntity, SpriteCache.Painter, OffscreenThrottled {
         private double tx, ty, radius, offset, speed;
-        private boolean isAlive = true;
+        private boolean isAlive;
+
+        public SpinnyBall init() { return init(-100); }
 
-        public SpinnyBall() {
+        public SpinnyBall init(double y) {
+            isAlive = true;
             radius = rng.nextInt(20) + 10;
             offset = rng.nextDouble() * 60;
             speed = rng.nextDouble() * 15 + 5;
             setX(rng.nextDouble() * WIDTH);
-            setY(-100);
+            setY(y);
             setVY(2.0);
             tx = getX();
             ty = getY();
+            return this;
+        }
+
+        public void reset() {
+            holdStill();
+            setX(0); setY(0);
+            tx = ty = radius = offset = speed = 0;
+            isAlive = false;
         }
 
         public Shape getShape(int t) {
             return new Ellipse2D.Double(tx - radius, ty - radius, 2 * radius, 2 * radius);
         }
 
+        // The key of the sprite holds the radius, whether the ball is painted flat, and the
+        // focus of its gradient relative to the center, in steps of 2 pixels.
         public void render(Graphics2D g2, int t) {
-            g2.setPaint(new RadialGradientPaint(
-            (float)tx, (float)ty, (float)radius,
-            (float)(tx + Math.sin(-t / 19.0) * 11.0),
-            (float)(ty + Math.cos(-t / 25.0) * 11.0),
-            DIST, COLORS, MultipleGradientPaint.CycleMethod.NO_CYCLE));
-            g2.fill(this.getShape(t));
+            boolean flat = hooks.getQuality() >= FrameGovernor.FLATPAINT;
+            int fx = flat ? 0 : (int)Math.round(Math.sin(-t / 19.0) * 5.5);
+            int fy = flat ? 0 : (int)Math.round(Math.cos(-t / 25.0) * 5.5);
+            int r = (int)radius, size = 2 * r + 2;
+            long key = BALLSPRITE | (flat ? FLATSPRITE : 0) | (long)r << 16 | (fx + 128) << 8 | (fy + 128);
+            sprites.draw(g2, t, key, size, size, tx - r - 1, ty - r - 1, this);
+        }
+        
+        public Object getRenderKey() { return sprites; }
+
+        // Paints the ball of the key centered in its sprite.
+        public void paint(Graphics2D g2, long key) {
+            int r = (int)(key >> 16) & 0xFF, fx = (int)(key >> 8 & 0xFF) - 128, fy = (int)(key & 0xFF) - 128;
+            float c = r + 1;
+            if((key & FLATSPRITE) != 0) { g2.setPaint(COLORS[1]); }
+            else {
+                g2.setPaint(new RadialGradientPaint(c, c, r, c + 2 * fx, c + 2 * fy,
+                    DIST, COLORS, MultipleGradientPaint.CycleMethod.NO_CYCLE));
+            }
+            g2.fill(new Ellipse2D.Double(1, 1, 2 * r, 2 * r));
         }
 
         public void action(int t) {
@@ -395,7 +520,7 @@ public class SpaceGame implements Game {
         public void sendMessage(Entity source, String msg) {
             if(msg.equals("Die!")) {
                 this.isAlive = false;
-                hooks.addEntity(new Explosion(tx, ty));
+                explode(tx, ty);
             }
             source.sendMessage(this, "Die!");
         }
@@ -403,83 +528,43 @@ public class SpaceGame implements Game {
         public int getZ() { return 2; }
     }
 
-    private class Star extends NewtonEntity {
-        private Color color;
-        public Star() {
-            this.setX(rng.nextDouble() * WIDTH);
-            this.setY(-1);
-            int shade = rng.nextInt(255);
-            this.color = new Color(shade, shade, shade);
-            this.setVY(shade / 100.0);
-        }
-
-        public Shape getShape(int t) {
-            return new Rectangle2D.Double(getX(), getY(), 3, 3);
-        }
-
-        public void render(Graphics2D g2, int t) {
-            g2.setPaint(color);
-            g2.fill(this.getShape(t));
-        }
-
-        public void action(int t) {
-            super.action(t);
-        }
-
-        public boolean isActive() {
-            return getY() < HEIGHT;
-        }
-
-        public void sendMessage(Entity source, String msg) { }
-
-        public int getZ() { return 0; }
-    }
-
-    private static final double[] explosionSize = { 30, 100, 90, 75, 60 };
-    private static final Color[] explosionColor = {
-            Color.WHITE, new Color(250, 100, 100),
-            new Color(150, 50, 50), new Color(100, 20, 20), new Color(50, 0, 0)
+    // The stars falling in the background and the explosions in the foreground are
+    // particles instead of entities of their own.
+    private static final int[] explosionSize = { 30, 100, 90, 75, 60 };
+    private static final int[] explosionColor = {
+            0xFFFFFFFF, 0xFFFA6464, 0xFF963232, 0xFF641414, 0xFF320000
         };
-    private class Explosion extends NewtonEntity {
-        private int age;
-        public Explosion(double x, double y) {
-            this.setX(x); this.setY(y); this.age = 0;
-        }
-
-        public Explosion(double x, double y, double vx, double vy) {
-            this(x, y);
-            this.setVX(vx); this.setVY(vy);
-        }
-
-        public Shape getShape(int t) {
-            double r = explosionSize[age] / 2;
-            return new Ellipse2D.Double(getX() - r, getY() - r, 2 * r, 2 * r);
-        }
-
-        public void render(Graphics2D g2, int t) {
-            g2.setPaint(explosionColor[age]);
-            g2.fill(this.getShape(t));   
-        }
-
-        public void action(int t) { 
-            age++;
-        }
-
-        public boolean isActive() { return age < explosionSize.length; }
-
-        public void sendMessage(Entity source, String msg) {}
+    private ParticleSystem stars, explosions;
+    private int explosionStyle;
+
+    // The dimmer the star, the slower it falls. The stars and explosions are decorative, so
+    // the game engine may drop them when it falls behind.
+    private void addStar() {
+        if(!hooks.admitDecorative()) { return; }
+        int shade = 1 + rng.nextInt(254);
+        stars.emit(rng.nextDouble() * WIDTH, -1, 0, shade / 100.0, 0, 0, 0xFF000000 | shade * 0x010101, 3);
+    }
 
-        public int getZ() { return 4; }
+    private void explode(double x, double y) {
+        if(!hooks.admitDecorative()) { return; }
+        explosions.emit(x, y, 0, 0, 0, 0, explosionStyle);
     }
 
     private static final double SIERCUTOFF = 10;
     private static final Color SC1 = new Color(44, 99, 120);
     private static final Color SC2 = new Color(189, 22, 73);
-    private class Sierpinski extends NewtonEntity {
+    private class Sierpinski extends NewtonEntity implements Poolable, ConcurrentEntity, SpriteCache.Painter, OffscreenThrottled {
         private double width, height;
-        public Sierpinski(double x, double y, double width, double height) {
+        public Sierpinski init(double x, double y, double width, double height) {
             this.setX(x); this.setY(y); this.width = width; this.height = height;
             this.setVY(2.0);
+            return this;
+        }
+
+        public void reset() {
+            holdStill();
+            setX(0); setY(0);
+            width = height = 0;
         }
 
         public Shape getShape(int t) {
@@ -492,9 +577,28 @@ public class SpaceGame implements Game {
         }
 
         public void render(Graphics2D g2, int t) {
-            g2.setPaint(new GradientPaint(new Point2D.Double(getX() + width * 0.3, getY()), SC1,
-            new Point2D.Double(getX() + width * 0.7, getY() + height), SC2, true));
-            g2.fill(this.getShape(t));   
+            int w = (int)width + 1, h = (int)height + 1;
+            boolean flat = hooks.getQuality() >= FrameGovernor.FLATPAINT;
+            long key = SIERSPRITE | (flat ? FLATSPRITE : 0) | (long)w << 24 | h;
+            sprites.draw(g2, t, key, w, h, (int)getX(), (int)getY(), this);
+        }
+        
+        public Object getRenderKey() { return sprites; }
+
+        // Paints the triangle of the key, which holds its size in whole pixels, with its top
+        // left corner at the origin.
+        public void paint(Graphics2D g2, long key) {
+            int w = (int)(key >> 24 & 0xFFFFFF) - 1, h = (int)(key & 0xFFFFFF) - 1;
+            if((key & FLATSPRITE) != 0) { g2.setPaint(SC2); }
+            else {
+                g2.setPaint(new GradientPaint(new Point2D.Double(w * 0.3, 0), SC1,
+                new Point2D.Double(w * 0.7, h), SC2, true));
+            }
+            Polygon p = new Polygon();
+            p.addPoint(0, 0);
+            p.addPoint(w, 0);
+            p.addPoint(w / 2, h);
+            g2.fill(p);
         }
 
         public void action(int t) {
@@ -506,12 +610,12 @@ public class SpaceGame implements Game {
         public void sendMessage(Entity source, String msg) {
 
             if(msg.equals("Die!")) {
-                hooks.addEntity(new Explosion(getX() + width / 2, getY() + height / 2));
+                explode(getX() + width / 2, getY() + height / 2);
                 width = width / 2;
                 height = height / 2;
                 if(width >= SIERCUTOFF) {
-                    hooks.addEntity(new Sierpinski(getX() + width, getY() + 2, width, height));
-                    hooks.addEntity(new Sierpinski(getX() + width / 2, getY() + height + 2, width, height));
+                    hooks.addEntity(hooks.acquire(Sierpinski.class).init(getX() + width, getY() + 2, width, height));
+                    hooks.addEntity(hooks.acquire(Sierpinski.class).init(getX() + width / 2, getY() + height + 2, width, height));
                 }
             }
             source.sendMessage(this, "Die!");}
@@ -522,6 +626,12 @@ public class SpaceGame implements Game {
     public static void main(String[] args) {
         final JFrame f = new JFrame("Space Blasters!");
         final GameEngine blast = new GameEngine(new SpaceGame());
+        // Centipede pieces are 50 pixels wide. The bullets speed up to about 20 pixels per frame
+        // and the player to 48, but a spinning ball can jump up to 52 pixels in its first frame,
+        // or when it catches up for the frames that it skipped above the screen.
+        blast.setCollisionGrid(50, 55);
+        // Busy levels may not keep up at 60 frames per second, so trade looks for speed.
+        blast.setFrameGovernor(new FrameGovernor(1000.0 / 60));
         f.add(blast);
         // Must ensure that timer is stopped when the Frame closes
         f.addWindowListener(new WindowAdapter() {
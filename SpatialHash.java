@@ -0,0 +1,269 @@
+import java.awt.*;
+import java.awt.geom.*;
+import java.util.*;
+
+/* A uniform spatial hash grid over the entities of one Z-level, used by the game
+ * engine as the broadphase of collision detection. The grid is rebuilt from the
+ * bounding boxes of the entities once per time frame, after which a query needs to
+ * look only at the entities whose boxes share a grid cell with the query rectangle.
+ * The cells are hashed into a table instead of being stored as a fixed array, so the
+ * entities can wander arbitrarily far outside the visible game area. All arrays are
+ * reused from one frame to the next, so that rebuilding and querying the grid does
+ * not allocate any memory once the arrays have grown large enough.
+ */
+
+public class SpatialHash {
+
+    // An entity whose bounding box covers more cells than this is not stored in the
+    // cells, but in a separate list that every query looks at.
+    private static final int MAXCELLS = 64;
+
+    private double cellSize;
+
+    // The entities with their shapes and bounding boxes (minX, minY, maxX, maxY) in slot
+    // order. The shapes are those that the entities had when the grid was built.
+    private int count;
+    private Entity[] entities = new Entity[16];
+    private Shape[] shapes = new Shape[16];
+    private int[] handles = new int[16];
+    private double[] bounds = new double[64];
+    private int[] categories = new int[16], masks = new int[16];
+
+    // The hash table of cells, as a counting sort of the cell entries by bucket.
+    private int mask;
+    private int[] bucketStart = new int[17];
+    private int[] bucketFill = new int[16];
+    private int[] cellEntries = new int[64];
+    private int[] oversized = new int[16];
+    private int oversizedCount;
+
+    // The bounding box of all the entities in the grid.
+    private double[] extent = new double[4];
+
+    // Stamps to report each entity at most once per query, and the stack of query results.
+    private int[] stamps = new int[16];
+    private int stamp;
+    private int[] found = new int[16];
+    private int top;
+    private int queryCategory, queryMask;
+
+    public SpatialHash(double cellSize) {
+        setCellSize(cellSize);
+    }
+
+    // The cell size takes effect from the next rebuild of the grid.
+    public void setCellSize(double cellSize) {
+        if(cellSize <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive, was " + cellSize);
+        }
+        this.cellSize = cellSize;
+    }
+
+    public double getCellSize() { return cellSize; }
+
+    // Returns the number of entities stored in the grid.
+    public int size() { return count; }
+
+    // Rebuilding the grid at time t starts with begin, followed by adding each active
+    // entity of the collision layer, and ends with finish.
+    public void begin() {
+        count = 0;
+        oversizedCount = 0;
+        top = 0;
+        extent[0] = extent[1] = Double.POSITIVE_INFINITY;
+        extent[2] = extent[3] = Double.NEGATIVE_INFINITY;
+    }
+
+    public void add(Entity e, int t) {
+        Shape s = e.getShape(t);
+        add(e, EntityStore.NOHANDLE, s, s.getBounds2D());
+    }
+
+    // As above, but with the handle of the entity, and its shape and bounding box as they
+    // are already known.
+    public void add(Entity e, int handle, Shape s, Rectangle2D r) {
+        if(count == entities.length) {
+            int cap = 2 * count;
+            entities = Arrays.copyOf(entities, cap);
+            shapes = Arrays.copyOf(shapes, cap);
+            handles = Arrays.copyOf(handles, cap);
+            bounds = Arrays.copyOf(bounds, 4 * cap);
+            categories = Arrays.copyOf(categories, cap);
+            masks = Arrays.copyOf(masks, cap);
+            stamps = new int[cap];
+            stamp = 0;
+        }
+        entities[count] = e;
+        shapes[count] = s;
+        handles[count] = handle;
+        categories[count] = CollisionFilter.categoryOf(e);
+        masks[count] = CollisionFilter.maskOf(e);
+        bounds[4 * count] = r.getMinX();
+        bounds[4 * count + 1] = r.getMinY();
+        bounds[4 * count + 2] = r.getMaxX();
+        bounds[4 * count + 3] = r.getMaxY();
+        extent[0] = Math.min(extent[0], r.getMinX());
+        extent[1] = Math.min(extent[1], r.getMinY());
+        extent[2] = Math.max(extent[2], r.getMaxX());
+        extent[3] = Math.max(extent[3], r.getMaxY());
+        count++;
+    }
+
+    public void finish() {
+        for(int i = count; i < entities.length && entities[i] != null; i++) {
+            entities[i] = null; // don't keep dead entities alive
+            shapes[i] = null;
+        }
+
+        int buckets = 16;
+        while(buckets < 2 * count) { buckets *= 2; }
+        if(bucketFill.length < buckets) {
+            bucketFill = new int[buckets];
+            bucketStart = new int[buckets + 1];
+        }
+        mask = buckets - 1;
+        Arrays.fill(bucketFill, 0, buckets, 0);
+
+        // First pass counts how many entries each bucket gets.
+        int total = 0;
+        for(int i = 0; i < count; i++) {
+            int cx0 = cell(bounds[4 * i]), cy0 = cell(bounds[4 * i + 1]);
+            int cx1 = cell(bounds[4 * i + 2]), cy1 = cell(bounds[4 * i + 3]);
+            if(((long)cx1 - cx0 + 1) * ((long)cy1 - cy0 + 1) > MAXCELLS) {
+                if(oversizedCount == oversized.length) {
+                    oversized = Arrays.copyOf(oversized, 2 * oversized.length);
+                }
+                oversized[oversizedCount++] = i;
+                continue;
+            }
+            for(int cx = cx0; cx <= cx1; cx++) {
+                for(int cy = cy0; cy <= cy1; cy++) {
+                    bucketFill[hash(cx, cy)]++;
+                    total++;
+                }
+            }
+        }
+        bucketStart[0] = 0;
+        for(int b = 0; b < buckets; b++) {
+            bucketStart[b + 1] = bucketStart[b] + bucketFill[b];
+            bucketFill[b] = bucketStart[b];
+        }
+        if(cellEntries.length < total) {
+            cellEntries = new int[Math.max(total, 2 * cellEntries.length)];
+        }
+
+        // Second pass places the entity slots into their buckets, in slot order.
+        int o = 0;
+        for(int i = 0; i < count; i++) {
+            if(o < oversizedCount && oversized[o] == i) { o++; continue; }
+            int cx0 = cell(bounds[4 * i]), cy0 = cell(bounds[4 * i + 1]);
+            int cx1 = cell(bounds[4 * i + 2]), cy1 = cell(bounds[4 * i + 3]);
+            for(int cx = cx0; cx <= cx1; cx++) {
+                for(int cy = cy0; cy <= cy1; cy++) {
+                    cellEntries[bucketFill[hash(cx, cy)]++] = i;
+                }
+            }
+        }
+    }
+
+    // Pushes onto the result stack the slots of the entities whose bounding boxes intersect
+    // the given rectangle, in the order that they were in the list that the grid was built
+    // from. Returns the index where these results start, so that the caller can look at the
+    // results from there up to top() with entityAt, and then pop them off with release. Since
+    // the results are kept in a stack, another query can be made while looking at them.
+    public int collect(double minX, double minY, double maxX, double maxY) {
+        return collect(minX, minY, maxX, maxY, CollisionFilter.ALLCATEGORIES, CollisionFilter.ALLCATEGORIES);
+    }
+
+    // As above, but finds only the entities that can collide with the given category and
+    // mask, rejecting the others before even looking at their bounding boxes.
+    public int collect(double minX, double minY, double maxX, double maxY, int category, int mask) {
+        queryCategory = category;
+        queryMask = mask;
+        if(++stamp == 0) { // wrapped around, so old stamps are no longer trustworthy
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+        int from = top;
+        if(found.length < top + count) {
+            found = Arrays.copyOf(found, Math.max(top + count, 2 * found.length));
+        }
+        int cx0 = cell(minX), cy0 = cell(minY), cx1 = cell(maxX), cy1 = cell(maxY);
+        if(((long)cx1 - cx0 + 1) * ((long)cy1 - cy0 + 1) > count) {
+            // Cheaper to just look at every entity than every cell of the query.
+            for(int i = 0; i < count; i++) {
+                if(overlaps(i, minX, minY, maxX, maxY)) { found[top++] = i; }
+            }
+        }
+        else {
+            for(int cx = cx0; cx <= cx1; cx++) {
+                for(int cy = cy0; cy <= cy1; cy++) {
+                    int b = hash(cx, cy);
+                    for(int k = bucketStart[b]; k < bucketStart[b + 1]; k++) {
+                        visit(cellEntries[k], minX, minY, maxX, maxY);
+                    }
+                }
+            }
+            for(int k = 0; k < oversizedCount; k++) {
+                visit(oversized[k], minX, minY, maxX, maxY);
+            }
+            Arrays.sort(found, from, top);
+        }
+        return from;
+    }
+
+    // The end of the results of the latest query.
+    public int top() { return top; }
+
+    // The entity found at the given index of the result stack.
+    public Entity entityAt(int idx) { return entities[found[idx]]; }
+
+    // The shape that the entity found at the given index had when the grid was built.
+    public Shape shapeAt(int idx) { return shapes[found[idx]]; }
+
+    // The handle of the entity found at the given index of the result stack.
+    public int handleAt(int idx) { return handles[found[idx]]; }
+
+    // The entity and the handle in the given slot of the grid, from 0 up to size() - 1.
+    public Entity entity(int slot) { return entities[slot]; }
+    public int handle(int slot) { return handles[slot]; }
+
+    // How far the farthest side of the rectangle lies outside the bounding box that the
+    // entity in the given slot had when the grid was built, or 0 if the box contains it.
+    // An empty box on either side counts as 0, since an empty shape overlaps nothing.
+    public double distanceOutside(int slot, Rectangle2D r) {
+        int b = 4 * slot;
+        if(r.isEmpty() || bounds[b + 2] <= bounds[b] || bounds[b + 3] <= bounds[b + 1]) { return 0; }
+        return Math.max(0, Math.max(Math.max(bounds[b] - r.getMinX(), bounds[b + 1] - r.getMinY()),
+            Math.max(r.getMaxX() - bounds[b + 2], r.getMaxY() - bounds[b + 3])));
+    }
+
+    // Pops the results of a query off the result stack, so that top() becomes from.
+    public void release(int from) { top = from; }
+
+    // Whether the rectangle contains the bounding boxes of all the entities in the grid.
+    public boolean covers(double minX, double minY, double maxX, double maxY) {
+        return minX <= extent[0] && minY <= extent[1] && extent[2] <= maxX && extent[3] <= maxY;
+    }
+
+    private void visit(int i, double minX, double minY, double maxX, double maxY) {
+        if(stamps[i] != stamp) {
+            stamps[i] = stamp;
+            if(overlaps(i, minX, minY, maxX, maxY)) { found[top++] = i; }
+        }
+    }
+
+    private boolean overlaps(int i, double minX, double minY, double maxX, double maxY) {
+        return CollisionFilter.accepts(queryCategory, queryMask, categories[i], masks[i])
+            && bounds[4 * i] <= maxX && minX <= bounds[4 * i + 2]
+            && bounds[4 * i + 1] <= maxY && minY <= bounds[4 * i + 3];
+    }
+
+    private int cell(double c) {
+        return (int)Math.floor(c / cellSize);
+    }
+
+    private int hash(int cx, int cy) {
+        return ((cx * 73856093) ^ (cy * 19349663)) & mask;
+    }
+}
@@ -0,0 +1,324 @@
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+
+/* A cache of sprites, that is, small images of entities that would be expensive to paint
+ * from scratch each frame, for example with gradients and antialiased shapes. Each sprite
+ * is identified by a long key that the entity packs from the parameters that decide how
+ * it looks, and the cache paints the sprite the first time that key is drawn. After that,
+ * drawing the entity is a single drawImage of the part of an atlas page that holds it.
+ *
+ * The atlas pages are images compatible with the screen, so that they can be drawn fast.
+ * A sprite goes into a square cell of the smallest size from 16 to 256 pixels that it fits
+ * in, and a sprite that does not fit into the largest cells is painted directly every time.
+ * The sprites of all sizes share the pages: each page starts out as cells of the largest
+ * size, and a cell is split into four cells of half the size when a smaller one is needed.
+ * When there is no free cell of the size and no more pages can be made, the least recently
+ * used page is emptied for the new sprites. A page with a sprite drawn during the last KEEP
+ * time frames is never emptied, so that the recorded frames that are still to be replayed
+ * find their sprites intact.
+ *
+ * The sprites are painted with the antialiasing of the graphics that they are drawn into,
+ * so a sprite that was painted with different antialiasing is painted again.
+ */
+
+public class SpriteCache {
+
+    // Paints the sprite of the key with its top left corner at the origin. The sprite may
+    // be painted long after the entity drew it, and by the thread that draws the frames, so
+    // the painter should take whatever decides how the sprite looks from the key.
+    public interface Painter {
+        public void paint(Graphics2D g2, long key);
+    }
+
+    private static final int MINCELL = 16, CLASSES = 5, MAXCELL = MINCELL << (CLASSES - 1);
+    private static final int KEEP = 4;
+    private static final long NOKEY = Long.MIN_VALUE;
+
+    private final GraphicsConfiguration gc;
+    private final int pageSize, maxPages;
+    private ArrayList<BufferedImage> pages = new ArrayList<BufferedImage>();
+    // The time frame in which a sprite of each page was last drawn.
+    private int[] pageTimes = new int[4];
+
+    // The cells, with the sprite in each: its key, size, whether it was painted with
+    // antialiasing, and the size class and page of the cell. The cells of an emptied page
+    // are reused from the dead cells.
+    private int cellCount;
+    private long[] cellKeys = new long[64];
+    private int[] cellPages = new int[64], cellX = new int[64], cellY = new int[64];
+    private int[] cellW = new int[64], cellH = new int[64], cellClasses = new int[64];
+    private boolean[] cellSmooth = new boolean[64];
+    private int[] dead = new int[16];
+    private int deadCount;
+
+    // The free cells of each size class, on any page.
+    private int[][] free = new int[CLASSES][16];
+    private int[] freeCounts = new int[CLASSES];
+
+    // The cell of each key, in an open addressing hash table.
+    private long[] keys = new long[128];
+    private int[] keyCells = new int[128];
+    private int keyCount;
+
+    private long hits, misses, evictions, uncached;
+
+    // Creates a cache of at most maxPages pages of pageSize times pageSize pixels, with
+    // images compatible with the default screen, if there is one.
+    public SpriteCache(int pageSize, int maxPages) {
+        this(GraphicsEnvironment.isHeadless() ? null
+            : GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration(),
+            pageSize, maxPages);
+    }
+
+    public SpriteCache(GraphicsConfiguration gc, int pageSize, int maxPages) {
+        if(pageSize < MAXCELL || maxPages < 1) {
+            throw new IllegalArgumentException("Illegal sprite cache of " + maxPages + " pages of size " + pageSize);
+        }
+        this.gc = gc;
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+        Arrays.fill(keys, NOKEY);
+    }
+
+    // The number of draws that found their sprite, that had to paint it into the cache,
+    // and that painted directly without the cache, and the number of sprites that were
+    // evicted to make room for others.
+    public long getHits() { return hits; }
+    public long getMisses() { return misses; }
+    public long getEvictions() { return evictions; }
+    public long getUncached() { return uncached; }
+
+    // Draws the sprite of the given key and size with its top left corner at (x, y) at
+    // time t, having the painter paint it into the cache first if it is not there yet.
+    public void draw(Graphics2D g2, int t, long key, int w, int h, double x, double y, Painter painter) {
+        if(key == NOKEY || w <= 0 || h <= 0 || w > MAXCELL || h > MAXCELL) {
+            paintDirectly(g2, key, x, y, painter);
+            return;
+        }
+        boolean smooth = g2.getRenderingHint(RenderingHints.KEY_ANTIALIASING) == RenderingHints.VALUE_ANTIALIAS_ON;
+        int c = find(key);
+        if(c >= 0 && (cellW[c] != w || cellH[c] != h)) { // same key, different size
+            evict(c);
+            c = -1;
+        }
+        if(c >= 0 && cellSmooth[c] == smooth) { hits++; }
+        else {
+            if(c < 0) {
+                c = allocate(sizeClass(Math.max(w, h)), t);
+                if(c < 0) {
+                    paintDirectly(g2, key, x, y, painter);
+                    return;
+                }
+                cellKeys[c] = key;
+                cellW[c] = w;
+                cellH[c] = h;
+                insert(key, c);
+            }
+            misses++;
+            paint(c, smooth, painter);
+        }
+        pageTimes[cellPages[c]] = t;
+        int dx = (int)Math.round(x), dy = (int)Math.round(y);
+        g2.drawImage(pages.get(cellPages[c]), dx, dy, dx + w, dy + h,
+            cellX[c], cellY[c], cellX[c] + w, cellY[c] + h, null);
+    }
+
+    private void paintDirectly(Graphics2D g2, long key, double x, double y, Painter painter) {
+        uncached++;
+        g2.translate(x, y);
+        painter.paint(g2, key);
+        g2.translate(-x, -y);
+    }
+
+    // Clears the cell and has the painter paint the sprite into it.
+    private void paint(int c, boolean smooth, Painter painter) {
+        cellSmooth[c] = smooth;
+        Graphics2D g = pages.get(cellPages[c]).createGraphics();
+        try {
+            g.setComposite(AlphaComposite.Clear);
+            g.fillRect(cellX[c], cellY[c], cellW[c], cellH[c]);
+            g.setComposite(AlphaComposite.SrcOver);
+            g.clipRect(cellX[c], cellY[c], cellW[c], cellH[c]);
+            g.translate(cellX[c], cellY[c]);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                smooth ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+            painter.paint(g, cellKeys[c]);
+        }
+        finally { g.dispose(); }
+    }
+
+    private static int sizeClass(int size) {
+        int k = 0;
+        while((MINCELL << k) < size) { k++; }
+        return k;
+    }
+
+    // Returns a free cell of the size class, splitting a larger cell, making a new page or
+    // emptying the least recently used page if needed, or -1 if there is no such cell.
+    private int allocate(int k, int t) {
+        int j = k;
+        while(j < CLASSES && freeCounts[j] == 0) { j++; }
+        if(j == CLASSES) {
+            if(pages.size() < maxPages) { addPage(); }
+            else {
+                int lru = -1;
+                for(int p = 0; p < pages.size(); p++) {
+                    if(pageTimes[p] <= t - KEEP && (lru < 0 || pageTimes[p] < pageTimes[lru])) { lru = p; }
+                }
+                if(lru < 0) { return -1; } // everything is still in use
+                empty(lru);
+            }
+            j = CLASSES - 1;
+        }
+        // Split the cell down to the size class, keeping the other three quarters free.
+        int c = free[j][--freeCounts[j]];
+        while(j > k) {
+            j--;
+            int half = MINCELL << j;
+            for(int q = 3; q >= 1; q--) {
+                release(newCell(cellPages[c], cellX[c] + (q & 1) * half, cellY[c] + (q >> 1) * half, j));
+            }
+            cellClasses[c] = j;
+        }
+        return c;
+    }
+
+    private void addPage() {
+        int p = pages.size();
+        pages.add(gc != null ? gc.createCompatibleImage(pageSize, pageSize, Transparency.TRANSLUCENT)
+            : new BufferedImage(pageSize, pageSize, BufferedImage.TYPE_INT_ARGB_PRE));
+        if(p == pageTimes.length) { pageTimes = Arrays.copyOf(pageTimes, 2 * p); }
+        fill(p);
+    }
+
+    // Divides the page into free cells of the largest size.
+    private void fill(int p) {
+        pageTimes[p] = Integer.MIN_VALUE;
+        for(int y = (pageSize / MAXCELL - 1) * MAXCELL; y >= 0; y -= MAXCELL) {
+            for(int x = (pageSize / MAXCELL - 1) * MAXCELL; x >= 0; x -= MAXCELL) {
+                release(newCell(p, x, y, CLASSES - 1));
+            }
+        }
+    }
+
+    // Evicts the sprites of the page and divides it into free cells of the largest size again.
+    private void empty(int p) {
+        for(int c = 0; c < cellCount; c++) {
+            if(cellPages[c] != p || cellClasses[c] < 0) { continue; }
+            if(cellKeys[c] != NOKEY) {
+                evictions++;
+                remove(cellKeys[c]);
+            }
+            cellClasses[c] = -1;
+            if(deadCount == dead.length) { dead = Arrays.copyOf(dead, 2 * deadCount); }
+            dead[deadCount++] = c;
+        }
+        for(int k = 0; k < CLASSES; k++) {
+            int n = 0;
+            for(int i = 0; i < freeCounts[k]; i++) {
+                if(cellPages[free[k][i]] != p) { free[k][n++] = free[k][i]; }
+            }
+            freeCounts[k] = n;
+        }
+        fill(p);
+    }
+
+    private int newCell(int p, int x, int y, int k) {
+        int c;
+        if(deadCount > 0) { c = dead[--deadCount]; }
+        else {
+            if(cellCount == cellKeys.length) { growCells(); }
+            c = cellCount++;
+        }
+        cellPages[c] = p;
+        cellX[c] = x;
+        cellY[c] = y;
+        cellClasses[c] = k;
+        return c;
+    }
+
+    // Drops the sprite of the cell, if any, and puts the cell into the free cells of its class.
+    private void release(int c) {
+        cellKeys[c] = NOKEY;
+        int k = cellClasses[c];
+        if(freeCounts[k] == free[k].length) { free[k] = Arrays.copyOf(free[k], 2 * freeCounts[k]); }
+        free[k][freeCounts[k]++] = c;
+    }
+
+    private void evict(int c) {
+        remove(cellKeys[c]);
+        release(c);
+    }
+
+    private void growCells() {
+        int cap = 2 * cellKeys.length;
+        cellKeys = Arrays.copyOf(cellKeys, cap);
+        cellPages = Arrays.copyOf(cellPages, cap);
+        cellX = Arrays.copyOf(cellX, cap); cellY = Arrays.copyOf(cellY, cap);
+        cellW = Arrays.copyOf(cellW, cap); cellH = Arrays.copyOf(cellH, cap);
+        cellClasses = Arrays.copyOf(cellClasses, cap);
+        cellSmooth = Arrays.copyOf(cellSmooth, cap);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+
+    private int find(long key) {
+        int m = keys.length - 1;
+        for(int i = hash(key) & m; keys[i] != NOKEY; i = (i + 1) & m) {
+            if(keys[i] == key) { return keyCells[i]; }
+        }
+        return -1;
+    }
+
+    private void insert(long key, int c) {
+        if(2 * (keyCount + 1) > keys.length) {
+            long[] oldKeys = keys;
+            int[] oldCells = keyCells;
+            keys = new long[2 * oldKeys.length];
+            keyCells = new int[2 * oldKeys.length];
+            Arrays.fill(keys, NOKEY);
+            keyCount = 0;
+            for(int i = 0; i < oldKeys.length; i++) {
+                if(oldKeys[i] != NOKEY) { insert(oldKeys[i], oldCells[i]); }
+            }
+        }
+        int m = keys.length - 1;
+        int i = hash(key) & m;
+        while(keys[i] != NOKEY) { i = (i + 1) & m; }
+        keys[i] = key;
+        keyCells[i] = c;
+        keyCount++;
+    }
+
+    // Removes the key from the hash table, moving back the entries after it that would
+    // otherwise no longer be found.
+    private void remove(long key) {
+        int m = keys.length - 1;
+        int i = hash(key) & m;
+        while(keys[i] != key) {
+            if(keys[i] == NOKEY) { return; }
+            i = (i + 1) & m;
+        }
+        keys[i] = NOKEY;
+        keyCount--;
+        for(int j = (i + 1) & m; keys[j] != NOKEY; j = (j + 1) & m) {
+            int home = hash(keys[j]) & m;
+            if(((j - home) & m) >= ((j - i) & m)) {
+                keys[i] = keys[j];
+                keyCells[i] = keyCells[j];
+                keys[j] = NOKEY;
+                i = j;
+            }
+        }
+    }
+
+    public String toString() {
+        long draws = hits + misses + uncached;
+        return String.format("Sprite cache: %d pages, %d sprites, %d hits, %d misses (%.1f%% hits), %d evictions, %d uncached",
+            pages.size(), keyCount, hits, misses, draws == 0 ? 0.0 : 100.0 * hits / draws, evictions, uncached);
+    }
+}
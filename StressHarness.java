@@ -0,0 +1,318 @@
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+/* Plays the stress scenarios of SpaceGame at growing loads, and measures how the whole
+ * engine holds up as the screen fills: the time of each time frame, the time to draw it,
+ * the garbage collections meanwhile, and the peak size of the heap. Each time frame is
+ * recorded and then replayed into an image, the same as GameEngine does, only here in a
+ * single thread. The results go into a CSV file with a row for each scenario and load,
+ * and an HTML page that draws the scaling curves of each scenario against the budget of
+ * a frame, marking the knee, the first load at which the slowest time frames no longer
+ * fit in the budget. Running the harness before and after a change shows whether the
+ * change moves the knee. After every time frame, the harness also counts the entities on
+ * the screen, and stops with an error if a scenario keeps fewer of them there than its
+ * load calls for, since a scenario whose entities are stuck off the screen would only
+ * draw a flat curve.
+ *
+ * The arguments are optional pairs: -s with a comma separated list of scenarios, -n with
+ * a comma separated list of loads to sweep instead of the defaults, -t with the number of
+ * measured time frames for each load, -b with the budget in milliseconds, and -o with the
+ * prefix of the output files, which is "target/stress" by default. The results depend on
+ * the machine, so they are written next to the build outputs instead of into the sources.
+ */
+
+public class StressHarness {
+
+    // The time frames that each load runs before the measurements start.
+    private static final int WARMUP = 200;
+    // The default loads of each scenario, doubling from one to the next.
+    private static final Map<String, int[]> LOADS = new LinkedHashMap<String, int[]>();
+    static {
+        LOADS.put("balls", new int[] { 25, 50, 100, 200, 400, 800 });
+        LOADS.put("centipede", new int[] { 50, 100, 200, 400, 800, 1600 });
+        LOADS.put("bullets", new int[] { 1, 2, 4, 8, 16, 32 });
+    }
+
+    private static final String[] COLUMNS = {
+        "scenario", "load", "entities", "on_screen", "tick_ms", "tick_p95_ms", "render_ms", "render_p95_ms",
+        "frame_p95_ms", "gc_count", "gc_ms", "peak_heap_mb"
+    };
+
+    // The measurements of one scenario at one load.
+    private static class Point {
+        String scenario;
+        int load, entities, onScreen, gcCount;
+        double tickMillis, tickP95, renderMillis, renderP95, frameP95, gcMillis, peakHeapMB;
+
+        Object[] row() {
+            return new Object[] { scenario, load, entities, onScreen, tickMillis, tickP95, renderMillis, renderP95,
+                frameP95, gcCount, gcMillis, peakHeapMB };
+        }
+    }
+
+    // Plays the scenario at the load for the given number of time frames after the warmup.
+    private static Point measure(String scenario, int load, int ticks) {
+        SpaceGame game = new SpaceGame(scenario, load);
+        GameSimulation sim = new GameSimulation(game);
+        sim.setCollisionGrid(50, 55);
+        sim.setRecording(true);
+        Dimension d = game.getDimension();
+        BufferedImage screen = new BufferedImage(d.width, d.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = screen.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.setBackground(Color.BLACK);
+        double[] tick = new double[ticks], render = new double[ticks], frame = new double[ticks];
+        long gcCount = 0, gcMillis = 0;
+        int entities = 0;
+        long onScreen = 0;
+        int[] visible = new int[1];
+        EntityVisitor counter = e -> { visible[0]++; return true; };
+        try {
+            for(int t = -WARMUP; t < ticks; t++) {
+                if(t == 0) {
+                    System.gc(); // start from a clean heap, and count only the collections from now on
+                    gcCount = -collections();
+                    gcMillis = -collectionMillis();
+                    for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) { pool.resetPeakUsage(); }
+                }
+                long start = System.nanoTime();
+                sim.tick();
+                long ticked = System.nanoTime();
+                g2.clearRect(0, 0, d.width, d.height);
+                sim.render(g2, 1.0);
+                long rendered = System.nanoTime();
+                if(t >= 0) {
+                    tick[t] = (ticked - start) / 1e6;
+                    render[t] = (rendered - ticked) / 1e6;
+                    frame[t] = tick[t] + render[t];
+                    entities += sim.getEntityCount();
+                    visible[0] = 0;
+                    for(int z = 0; z <= MAXZ; z++) { sim.getHooks().visitRectangle(z, 0, 0, d.width, d.height, counter); }
+                    onScreen += visible[0];
+                }
+            }
+        }
+        finally {
+            g2.dispose();
+            sim.terminate();
+        }
+        Point p = new Point();
+        p.scenario = scenario;
+        p.load = load;
+        p.entities = entities / ticks;
+        p.onScreen = (int)(onScreen / ticks);
+        int least = leastOnScreen(scenario, load);
+        if(p.onScreen < least) {
+            throw new IllegalStateException("Stress scenario " + scenario + " at load " + load + " has only " + p.onScreen
+                + " entities on the screen on average, when it should have at least " + least);
+        }
+        p.tickMillis = mean(tick);
+        p.tickP95 = percentile(tick, 0.95);
+        p.renderMillis = mean(render);
+        p.renderP95 = percentile(render, 0.95);
+        p.frameP95 = percentile(frame, 0.95);
+        p.gcCount = (int)(gcCount + collections());
+        p.gcMillis = gcMillis + collectionMillis();
+        long peak = 0;
+        for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) { peak += pool.getPeakUsage().getUsed(); }
+        }
+        p.peakHeapMB = peak / (double)(1 << 20);
+        return p;
+    }
+
+    // The highest Z-level of the entities of SpaceGame.
+    private static final int MAXZ = 4;
+
+    // The fewest entities that the scenario should keep on the screen on average. The balls
+    // come in from above the screen and leave below it, so some of them are always outside,
+    // whereas the centipede starts on the screen and stays there. Each volley of bullets
+    // stays on the screen for many time frames.
+    private static int leastOnScreen(String scenario, int load) {
+        return scenario.equals("bullets") ? load * 10 : load / 2;
+    }
+
+    private static long collections() {
+        long n = 0;
+        for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) { n += Math.max(0, gc.getCollectionCount()); }
+        return n;
+    }
+
+    private static long collectionMillis() {
+        long ms = 0;
+        for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) { ms += Math.max(0, gc.getCollectionTime()); }
+        return ms;
+    }
+
+    private static double mean(double[] a) {
+        double sum = 0;
+        for(double v: a) { sum += v; }
+        return sum / a.length;
+    }
+
+    private static double percentile(double[] a, double q) {
+        double[] s = a.clone();
+        Arrays.sort(s);
+        return s[Math.min(s.length - 1, (int)Math.ceil(q * s.length) - 1)];
+    }
+
+    // The first load of the points at which the slowest time frames do not fit in the
+    // budget, or -1 if they always do.
+    private static int knee(java.util.List<Point> points, double budget) {
+        for(Point p: points) {
+            if(p.frameP95 > budget) { return p.load; }
+        }
+        return -1;
+    }
+
+    private static void writeCsv(String file, java.util.List<Point> points) throws IOException {
+        try(PrintWriter w = new PrintWriter(new FileWriter(file))) {
+            w.println(String.join(",", COLUMNS));
+            for(Point p: points) {
+                Object[] row = p.row();
+                StringBuilder line = new StringBuilder();
+                for(int i = 0; i < row.length; i++) {
+                    if(i > 0) { line.append(','); }
+                    line.append(row[i] instanceof Double ? String.format(Locale.ROOT, "%.3f", row[i]) : row[i].toString());
+                }
+                w.println(line);
+            }
+        }
+    }
+
+    // The curves of each scenario as an SVG chart of milliseconds against the load, on a
+    // logarithmic axis since the loads double, with the budget as a dashed line.
+    private static final int CW = 640, CH = 360, LEFT = 60, RIGHT = 20, TOP = 20, BOTTOM = 50;
+    private static final String[] CURVES = { "tick_ms", "render_ms", "frame_p95_ms" };
+    private static final String[] CURVECOLORS = { "#1f77b4", "#2ca02c", "#d62728" };
+
+    private static void writeHtml(String file, Map<String, java.util.List<Point>> byScenario, double budget) throws IOException {
+        try(PrintWriter w = new PrintWriter(new FileWriter(file))) {
+            w.println("<!DOCTYPE html>");
+            w.println("<html><head><meta charset=\"utf-8\"><title>SpaceGame stress scenarios</title>");
+            w.println("<style>body { font-family: sans-serif; } table { border-collapse: collapse; } "
+                + "td, th { border: 1px solid #ccc; padding: 2px 6px; text-align: right; }</style></head><body>");
+            w.printf(Locale.ROOT, "<h1>SpaceGame stress scenarios</h1><p>Budget %.2f ms per frame. Java %s, %d processors.</p>%n",
+                budget, System.getProperty("java.version"), Runtime.getRuntime().availableProcessors());
+            for(Map.Entry<String, java.util.List<Point>> entry: byScenario.entrySet()) {
+                java.util.List<Point> points = entry.getValue();
+                int knee = knee(points, budget);
+                w.printf("<h2>%s</h2><p>%s</p>%n", entry.getKey(),
+                    knee < 0 ? "Holds the frame rate at every load." : "Stops holding the frame rate at load " + knee + ".");
+                writeChart(w, points, budget, knee);
+                w.println("<table><tr>");
+                for(String c: COLUMNS) { w.printf("<th>%s</th>", c); }
+                w.println("</tr>");
+                for(Point p: points) {
+                    w.print("<tr>");
+                    for(Object v: p.row()) {
+                        w.printf("<td>%s</td>", v instanceof Double ? String.format(Locale.ROOT, "%.3f", v) : v.toString());
+                    }
+                    w.println("</tr>");
+                }
+                w.println("</table>");
+            }
+            w.println("</body></html>");
+        }
+    }
+
+    private static void writeChart(PrintWriter w, java.util.List<Point> points, double budget, int knee) {
+        double minLoad = points.get(0).load, maxLoad = points.get(points.size() - 1).load;
+        double maxMs = budget;
+        for(Point p: points) { maxMs = Math.max(maxMs, Math.max(p.frameP95, p.tickMillis + p.renderMillis)); }
+        maxMs *= 1.1;
+        double pw = CW - LEFT - RIGHT, ph = CH - TOP - BOTTOM;
+        w.printf("<svg width=\"%d\" height=\"%d\" xmlns=\"http://www.w3.org/2000/svg\">%n", CW, CH);
+        w.printf(Locale.ROOT, "<rect x=\"%d\" y=\"%d\" width=\"%.0f\" height=\"%.0f\" fill=\"none\" stroke=\"#888\"/>%n", LEFT, TOP, pw, ph);
+        for(Point p: points) {
+            double x = LEFT + xOf(p.load, minLoad, maxLoad) * pw;
+            w.printf(Locale.ROOT, "<text x=\"%.1f\" y=\"%d\" font-size=\"11\" text-anchor=\"middle\">%d</text>%n", x, CH - BOTTOM + 15, p.load);
+        }
+        w.printf(Locale.ROOT, "<text x=\"%.1f\" y=\"%d\" font-size=\"12\" text-anchor=\"middle\">load</text>%n", LEFT + pw / 2, CH - 10);
+        for(int i = 0; i <= 4; i++) {
+            double ms = maxMs * i / 4, y = TOP + ph - ms / maxMs * ph;
+            w.printf(Locale.ROOT, "<text x=\"%d\" y=\"%.1f\" font-size=\"11\" text-anchor=\"end\">%.1f</text>%n", LEFT - 5, y + 4, ms);
+        }
+        w.printf(Locale.ROOT, "<text x=\"15\" y=\"%.1f\" font-size=\"12\" transform=\"rotate(-90 15 %.1f)\" text-anchor=\"middle\">ms</text>%n",
+            TOP + ph / 2, TOP + ph / 2);
+        double by = TOP + ph - budget / maxMs * ph;
+        w.printf(Locale.ROOT, "<line x1=\"%d\" y1=\"%.1f\" x2=\"%.0f\" y2=\"%.1f\" stroke=\"#000\" stroke-dasharray=\"6,4\"/>%n", LEFT, by, LEFT + pw, by);
+        if(knee >= 0) {
+            double kx = LEFT + xOf(knee, minLoad, maxLoad) * pw;
+            w.printf(Locale.ROOT, "<line x1=\"%.1f\" y1=\"%d\" x2=\"%.1f\" y2=\"%.0f\" stroke=\"#d62728\" stroke-opacity=\"0.4\"/>%n", kx, TOP, kx, TOP + ph);
+        }
+        for(int c = 0; c < CURVES.length; c++) {
+            StringBuilder pts = new StringBuilder();
+            for(Point p: points) {
+                double ms = c == 0 ? p.tickMillis : (c == 1 ? p.renderMillis : p.frameP95);
+                pts.append(String.format(Locale.ROOT, "%.1f,%.1f ", LEFT + xOf(p.load, minLoad, maxLoad) * pw, TOP + ph - ms / maxMs * ph));
+            }
+            w.printf("<polyline points=\"%s\" fill=\"none\" stroke=\"%s\" stroke-width=\"2\"/>%n", pts.toString().trim(), CURVECOLORS[c]);
+            w.printf("<text x=\"%d\" y=\"%d\" font-size=\"12\" fill=\"%s\">%s</text>%n", LEFT + 10 + 110 * c, TOP + 15, CURVECOLORS[c], CURVES[c]);
+        }
+        w.println("</svg>");
+    }
+
+    private static double xOf(double load, double min, double max) {
+        return max == min ? 0.5 : Math.log(load / min) / Math.log(max / min);
+    }
+
+    private static int[] parseLoads(String s) {
+        String[] parts = s.split(",");
+        int[] loads = new int[parts.length];
+        for(int i = 0; i < parts.length; i++) { loads[i] = Integer.parseInt(parts[i].trim()); }
+        Arrays.sort(loads);
+        return loads;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        java.util.List<String> scenarios = new ArrayList<String>(LOADS.keySet());
+        int[] loads = null;
+        int ticks = 500;
+        double budget = 1000.0 / 60;
+        String out = "target/stress";
+        for(int i = 0; i + 1 < args.length; i += 2) {
+            switch(args[i]) {
+                case "-s": scenarios = Arrays.asList(args[i + 1].split(",")); break;
+                case "-n": loads = parseLoads(args[i + 1]); break;
+                case "-t": ticks = Integer.parseInt(args[i + 1]); break;
+                case "-b": budget = Double.parseDouble(args[i + 1]); break;
+                case "-o": out = args[i + 1]; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        Map<String, java.util.List<Point>> byScenario = new LinkedHashMap<String, java.util.List<Point>>();
+        java.util.List<Point> all = new ArrayList<Point>();
+        for(String scenario: scenarios) {
+            if(!SpaceGame.SCENARIOS.contains(scenario)) {
+                throw new IllegalArgumentException("Unknown stress scenario " + scenario);
+            }
+            int[] sweep = loads != null ? loads : LOADS.get(scenario);
+            measure(scenario, sweep[0], ticks); // so that the first load does not pay for the compiler
+            java.util.List<Point> points = new ArrayList<Point>();
+            for(int load: sweep) {
+                Point p = measure(scenario, load, ticks);
+                System.out.printf(Locale.ROOT, "%-10s %6d: %5d entities, %5d on the screen, tick %.2f ms (p95 %.2f), render %.2f ms (p95 %.2f), "
+                    + "frame p95 %.2f ms, %d gcs %d ms, peak heap %.1f MB%n", scenario, load, p.entities, p.onScreen, p.tickMillis,
+                    p.tickP95, p.renderMillis, p.renderP95, p.frameP95, p.gcCount, (long)p.gcMillis, p.peakHeapMB);
+                points.add(p);
+            }
+            int knee = knee(points, budget);
+            System.out.println(scenario + (knee < 0 ? ": holds the frame rate at every load" : ": stops holding the frame rate at load " + knee));
+            byScenario.put(scenario, points);
+            all.addAll(points);
+        }
+        File dir = new File(out).getAbsoluteFile().getParentFile();
+        if(dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create the folder " + dir);
+        }
+        writeCsv(out + ".csv", all);
+        writeHtml(out + ".html", byScenario, budget);
+        System.out.println("Wrote " + out + ".csv and " + out + ".html");
+        System.exit(0);
+    }
+}
@@ -0,0 +1,162 @@
+import java.awt.*;
+import java.awt.geom.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/* The sweep and prune broadphase that the game engine uses to find all pairs of
+ * overlapping entities on one Z-level for the collision pass of each time frame. The
+ * entities are kept sorted by the left edges of their bounding boxes, so that sweeping
+ * through them in that order, each entity needs to be compared only to those entities
+ * that start before it ends. Since entities move only a little from one time frame to
+ * the next, the order of the previous frame is almost right, and an insertion sort puts
+ * it back in order in close to linear time. The pair generation can be split into chunks
+ * that run in parallel, each writing its pairs to its own buffer, so that the final list
+ * of pairs is the same no matter how many cores did the work. Pairs whose collision
+ * categories and masks do not match are skipped before their shapes are looked at.
+ */
+
+public class SweepAndPrune {
+
+    // The entities of this Z-level, sorted by their minX, with their shapes and bounds.
+    private int count;
+    private Entity[] entities = new Entity[16];
+    private int[] handles = new int[16];
+    private Shape[] shapes = new Shape[16];
+    private double[] minX = new double[16], maxX = new double[16];
+    private double[] minY = new double[16], maxY = new double[16];
+    private int[] categories = new int[16], masks = new int[16];
+
+    // The overlapping pairs found by the latest sweep, as pairs of indices.
+    private int[] pairs = new int[32];
+    private int pairCount;
+
+    // The chunks of the parallel sweep, reused from one time frame to the next.
+    private ArrayList<SweepChunk> chunks = new ArrayList<SweepChunk>();
+
+    // Adds a new entity with its handle in the entity store, which is sorted into its place
+    // in the next update.
+    public void add(Entity e, int handle) {
+        if(count == entities.length) {
+            int cap = 2 * count;
+            entities = Arrays.copyOf(entities, cap);
+            handles = Arrays.copyOf(handles, cap);
+            shapes = Arrays.copyOf(shapes, cap);
+            minX = Arrays.copyOf(minX, cap); maxX = Arrays.copyOf(maxX, cap);
+            minY = Arrays.copyOf(minY, cap); maxY = Arrays.copyOf(maxY, cap);
+            categories = Arrays.copyOf(categories, cap); masks = Arrays.copyOf(masks, cap);
+        }
+        entities[count] = e;
+        handles[count] = handle;
+        categories[count] = CollisionFilter.categoryOf(e);
+        masks[count] = CollisionFilter.maskOf(e);
+        minX[count] = Double.POSITIVE_INFINITY;
+        count++;
+    }
+
+    // Drops the entities that have been removed from the store, refreshes the shapes and
+    // bounds of the rest at time t, and sorts them back in order.
+    public void update(int t, EntityStore store) {
+        int n = 0;
+        for(int i = 0; i < count; i++) {
+            Entity e = entities[i];
+            if(!store.isLive(handles[i])) { continue; }
+            Shape s = store.shape(e, handles[i], t);
+            Rectangle2D r = store.bounds(e, handles[i], t);
+            entities[n] = e;
+            handles[n] = handles[i];
+            shapes[n] = s;
+            categories[n] = categories[i]; masks[n] = masks[i];
+            minX[n] = r.getMinX(); maxX[n] = r.getMaxX();
+            minY[n] = r.getMinY(); maxY[n] = r.getMaxY();
+            n++;
+        }
+        for(int i = n; i < count; i++) { entities[i] = null; shapes[i] = null; }
+        count = n;
+        for(int i = 1; i < count; i++) {
+            if(minX[i - 1] <= minX[i]) { continue; }
+            Entity e = entities[i]; Shape s = shapes[i];
+            int handle = handles[i];
+            int category = categories[i], mask = masks[i];
+            double x0 = minX[i], x1 = maxX[i], y0 = minY[i], y1 = maxY[i];
+            int j = i;
+            while(j > 0 && minX[j - 1] > x0) {
+                entities[j] = entities[j - 1]; shapes[j] = shapes[j - 1];
+                handles[j] = handles[j - 1];
+                minX[j] = minX[j - 1]; maxX[j] = maxX[j - 1];
+                minY[j] = minY[j - 1]; maxY[j] = maxY[j - 1];
+                categories[j] = categories[j - 1]; masks[j] = masks[j - 1];
+                j--;
+            }
+            entities[j] = e; shapes[j] = s;
+            handles[j] = handle;
+            minX[j] = x0; maxX[j] = x1; minY[j] = y0; maxY[j] = y1;
+            categories[j] = category; masks[j] = mask;
+        }
+    }
+
+    // Finds all the overlapping pairs in which at least one entity is a Collider. If the
+    // pool is not null, the sweep is split into chunks that the pool runs in parallel.
+    public void findPairs(ForkJoinPool pool) {
+        int chunkCount = pool == null ? 1 : Math.max(1, Math.min(count / 256, 4 * pool.getParallelism()));
+        while(chunks.size() < chunkCount) { chunks.add(new SweepChunk()); }
+        for(int c = 0; c < chunkCount; c++) {
+            SweepChunk chunk = chunks.get(c);
+            chunk.reinitialize();
+            chunk.start = (int)((long)count * c / chunkCount);
+            chunk.end = (int)((long)count * (c + 1) / chunkCount);
+        }
+        if(chunkCount == 1) {
+            chunks.get(0).compute();
+        }
+        else {
+            pool.invoke(new RecursiveAction() {
+                protected void compute() { invokeAll(chunks.subList(0, chunkCount)); }
+            });
+        }
+        pairCount = 0;
+        for(int c = 0; c < chunkCount; c++) {
+            SweepChunk chunk = chunks.get(c);
+            ensurePairCapacity(pairCount + chunk.pairCount);
+            System.arraycopy(chunk.pairs, 0, pairs, 2 * pairCount, 2 * chunk.pairCount);
+            pairCount += chunk.pairCount;
+        }
+    }
+
+    private void ensurePairCapacity(int n) {
+        if(pairs.length < 2 * n) { pairs = Arrays.copyOf(pairs, Math.max(2 * n, 2 * pairs.length)); }
+    }
+
+    // The number of entities in this sweep.
+    public int size() { return count; }
+
+    // The number of pairs found by the latest sweep, and the entities of each pair.
+    public int pairCount() { return pairCount; }
+    public Entity pairFirst(int k) { return entities[pairs[2 * k]]; }
+    public Entity pairSecond(int k) { return entities[pairs[2 * k + 1]]; }
+
+    private class SweepChunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private int start, end, pairCount;
+        private int[] pairs = new int[32];
+
+        private void addPair(int k, int i, int j) {
+            if(pairs.length < 2 * (k + 1)) { pairs = Arrays.copyOf(pairs, 2 * pairs.length); }
+            pairs[2 * k] = i; pairs[2 * k + 1] = j;
+        }
+
+        // Sweeps the entities from start to end, comparing each to the entities after it.
+        protected void compute() {
+            pairCount = 0;
+            for(int i = start; i < end; i++) {
+                boolean collider = entities[i] instanceof Collider;
+                for(int j = i + 1; j < count && minX[j] < maxX[i]; j++) {
+                    if(!collider && !(entities[j] instanceof Collider)) { continue; }
+                    if(!CollisionFilter.accepts(categories[i], masks[i], categories[j], masks[j])) { continue; }
+                    if(minY[j] < maxY[i] && minY[i] < maxY[j] && Narrowphase.intersects(shapes[i], shapes[j])) {
+                        addPair(pairCount++, i, j);
+                    }
+                }
+            }
+        }
+    }
+}
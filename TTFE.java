@@ -13,6 +13,11 @@ public class TTFE implements Game {
     private GameHooks hooks;
     private Random rng = new Random();
     private TTFELevel gameLevel = new TTFELevel();
+    // The stars that fly out of the middle, speeding up and brightening as they go.
+    private ParticleSystem stars;
+    private int starStyle;
+    // The tiles are drawn from sprites painted once for each value, sixteen to a page.
+    private final SpriteCache sprites = new SpriteCache(1024, 2);
 
     private Color getColor(int v) {
         int r = (201 * v) % 235 + 20;
@@ -27,6 +32,16 @@ public class TTFE implements Game {
     public java.util.List<Level> startNewGame(GameHooks hooks) {
         this.hooks = hooks;
         TILE = (WIDTH - 2 * BORDER) / SIZE;
+        int[] shades = new int[86];
+        for(int age = 0; age < shades.length; age++) {
+            int shade = Math.min(3 * age, 254);
+            shades[age] = 0xFF000000 | shade * 0x010101;
+        }
+        stars = new ParticleSystem(WIDTH, HEIGHT, 0);
+        stars.setDrag(1.01);
+        starStyle = stars.addStyle(shades, new int[] { 3 }, false, false);
+        hooks.addEntity(stars);
+        hooks.registerSpriteCache(sprites);
         Level[] levels = { gameLevel };
         return Arrays.asList(levels);
     }
@@ -73,12 +88,12 @@ public class TTFE implements Game {
             addRandomTile(1 + rng.nextInt(2)); 
             if(keyListener == null) {
                 keyListener = new MyKeyListener();
-                hooks.getComponent().addKeyListener(keyListener);
+                hooks.addKeyListener(keyListener);
             }
         }
 
         public void terminate() {
-            hooks.getComponent().removeKeyListener(keyListener);
+            hooks.removeKeyListener(keyListener);
         }
 
         public boolean isCompleted(int t) { 
@@ -86,7 +101,10 @@ public class TTFE implements Game {
         }
 
         public void action(int t) { 
-            if(t % STARFREQ == 0) { hooks.addEntity(new Star()); }
+            if(t % STARFREQ == 0 && hooks.admitDecorative()) {
+                double d = rng.nextDouble() * 2 * Math.PI;
+                stars.emit(WIDTH / 2, HEIGHT / 2, Math.cos(d) * 3, Math.sin(d) * 3, 0, 0, starStyle);
+            }
             if(!moving || t < nextMovingCheck) { return; }
             boolean somebodyMoves = false;
             for(int x = 0; x < SIZE; x++) {
@@ -126,7 +144,7 @@ public class TTFE implements Game {
             }
         }
 
-        private class TTFETile extends BezierEntity {
+        private class TTFETile extends BezierEntity implements SpriteCache.Painter {
             private int v;
             private boolean isAlive = true;
             private int timeToCheck;
@@ -140,16 +158,40 @@ public class TTFE implements Game {
                 this.setY(BORDER + ty * TILE);
             }
 
+            // The shape depends only on the position and the value of the tile, so it is
+            // built again only when either of these has changed.
+            private double keyX = Double.NaN, keyY;
+            private int keyV;
+            private long shapeKey;
+            public long getShapeKey() {
+                if(getX() != keyX || getY() != keyY || v != keyV) {
+                    keyX = getX(); keyY = getY(); keyV = v;
+                    shapeKey++;
+                }
+                return shapeKey;
+            }
+
             public Shape getShape(int t) {
+                return tileShape(getX(), getY(), v);
+            }
+
+            private Shape tileShape(double x, double y, int v) {
                 int v2 = 3*(v+1);
-                Area a = new Area(new Rectangle2D.Double(getX(), getY(), TILE, TILE));
-                a.subtract(new Area(new Ellipse2D.Double(getX() + TILE/2 - v2, getY() + TILE/2 - v2, 2*v2, 2*v2)));
+                Area a = new Area(new Rectangle2D.Double(x, y, TILE, TILE));
+                a.subtract(new Area(new Ellipse2D.Double(x + TILE/2 - v2, y + TILE/2 - v2, 2*v2, 2*v2)));
                 return a;
             }
 
             public void render(Graphics2D g2, int t) {
-                g2.setPaint(getColor(v));
-                g2.fill(this.getShape(t));
+                sprites.draw(g2, t, v, TILE, TILE, getX(), getY(), this);
+            }
+            
+            public Object getRenderKey() { return sprites; }
+
+            // Paints the tile of the value of the key with its top left corner at the origin.
+            public void paint(Graphics2D g2, long key) {
+                g2.setPaint(getColor((int)key));
+                g2.fill(tileShape(0, 0, (int)key));
             }
 
             public void action(int t) {
@@ -172,48 +214,14 @@ public class TTFE implements Game {
             public boolean isActive() { return this.isAlive; }
             public int getZ() { return 1; }
         }
-
-        private class Star extends NewtonEntity {
-            private int age;
-            public Star() {
-                age = 0;
-                this.setX(WIDTH / 2);
-                this.setY(HEIGHT / 2);
-                double d = rng.nextDouble() * 2 * Math.PI;
-                this.setVY(Math.sin(d) * 3);
-                this.setVX(Math.cos(d) * 3);
-            }
-
-            public Shape getShape(int t) {
-                return new Rectangle2D.Double(getX(), getY(), 3, 3);
-            }
-
-            public void render(Graphics2D g2, int t) {
-                int shade = 3 * age;
-                if(shade > 254) { shade = 254; }
-                g2.setPaint(new Color(shade, shade, shade));
-                g2.fill(this.getShape(t));
-            }
-
-            public void action(int t) {
-                super.action(t);
-                age++;
-                setAX(getVX() * 0.01);
-                setAY(getVY() * 0.01);
-                
-            }
-
-            public boolean isActive() {
-                return getX() >= 0 && getY() >= 0 && getX() <= WIDTH && getY() <= HEIGHT;
-            }
-
-            public int getZ() { return 0; }
-        }
     }
 
     public static void main(String[] args) {
         final JFrame f = new JFrame("2048!");
         final GameEngine ttfe = new GameEngine(new TTFE());
+        // The tiles are 135 pixels wide, and slide 22.5 pixels per frame, except that a tile
+        // that starts to slide before its first action makes up for it with a double step.
+        ttfe.setCollisionGrid(135, 50);
         f.add(ttfe);
         // Must ensure that timer is stopped when the Frame closes
         f.addWindowListener(new WindowAdapter() {
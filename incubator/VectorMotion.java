@@ -0,0 +1,33 @@
+import jdk.incubator.vector.*;
+
+/* The integrator of the motion system of EcsWorld that uses the Vector API to move as
+ * many rows per instruction as the vectors of the processor can hold doubles. Since the
+ * Vector API is still an incubator module of the JDK, this class is kept in a folder of
+ * its own, so that the rest of the engine compiles and runs without it. To use it,
+ * compile and run the engine with the incubator module, for example
+ *
+ *   javac --add-modules jdk.incubator.vector -d out *.java incubator/*.java
+ *   java --add-modules jdk.incubator.vector -cp out SpaceGame
+ *
+ * and EcsWorld finds this class by its name. Without the module, EcsWorld falls back to
+ * its plain loop.
+ */
+
+public class VectorMotion implements EcsWorld.Integrator {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    public void integrate(double[] x, double[] v, double[] a, int n) {
+        int i = 0;
+        for(int upper = SPECIES.loopBound(n); i < upper; i += SPECIES.length()) {
+            DoubleVector nv = DoubleVector.fromArray(SPECIES, v, i).add(DoubleVector.fromArray(SPECIES, a, i));
+            nv.intoArray(v, i);
+            DoubleVector.fromArray(SPECIES, x, i).add(nv).intoArray(x, i);
+        }
+        for(; i < n; i++) { // the rows that do not fill a whole vector
+            double nv = v[i] + a[i];
+            v[i] = nv;
+            x[i] += nv;
+        }
+    }
+}
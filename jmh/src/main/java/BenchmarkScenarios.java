@@ -0,0 +1,214 @@
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.util.*;
+import java.util.function.*;
+
+/* The setups of the benchmarks in blasters.jmh.EngineBenchmarks: running the time frames at
+ * growing numbers of entities, the collision queries and the shapes of the entities of a busy
+ * SpaceGame, the motion along a Bezier path, a particle system, the motion system of an ECS
+ * world, and rendering each game into an image the way that the Swing front end paints its
+ * panel. See blasters.jmh.Scenarios for why they are here in the unnamed package.
+ */
+
+public class BenchmarkScenarios implements blasters.jmh.Scenarios {
+
+    // One time frame of a game that has n entities moving about the screen, each of which
+    // looks for its collisions every time frame, as the entities of the games do.
+    public IntSupplier tick(int n) {
+        GameSimulation sim = new GameSimulation(new Swarm(n));
+        sim.setCollisionGrid(25, 5);
+        return () -> { sim.tick(); return sim.getTime(); };
+    }
+
+    // The collision queries and the shapes of the entities of a SpaceGame in the thick of its
+    // first level, with the centipede pieces, the bullets and the player, one entity of the
+    // mix after another. The game picks its random numbers without a seed, so the mix is a
+    // little different on each run.
+    public IntSupplier collisions() {
+        GameSimulation sim = spaceGame();
+        GameHooks hooks = sim.getHooks();
+        ArrayList<Entity> mix = mix(sim);
+        int[] i = new int[1];
+        return () -> hooks.getCollisions(mix.get(i[0] = (i[0] + 1) % mix.size()), null).size();
+    }
+
+    public Supplier<Object> shapes() {
+        GameSimulation sim = spaceGame();
+        ArrayList<Entity> mix = mix(sim);
+        int t = sim.getTime();
+        int[] i = new int[1];
+        return () -> mix.get(i[0] = (i[0] + 1) % mix.size()).getShape(t);
+    }
+
+    private static GameSimulation spaceGame() {
+        GameSimulation sim = new GameSimulation(new SpaceGame());
+        sim.setCollisionGrid(50, 55);
+        play(sim, 300);
+        return sim;
+    }
+
+    private static ArrayList<Entity> mix(GameSimulation sim) {
+        GameHooks hooks = sim.getHooks();
+        Dimension d = sim.getGame().getDimension();
+        ArrayList<Entity> mix = new ArrayList<Entity>();
+        for(int z = 0; z < 4; z++) {
+            hooks.visitRectangle(z, -1000, -1000, d.width + 2000, d.height + 2000, e -> mix.add(e));
+        }
+        return mix;
+    }
+
+    // One time frame of an entity that moves along a Bezier path of a hundred time frames,
+    // again and again.
+    public DoubleSupplier bezier() {
+        Mover m = new Mover();
+        int[] t = new int[1];
+        return () -> {
+            if(t[0] == 0) {
+                m.setX(0); m.setY(0);
+                m.setBezierPath(100, 300, 500, -200, 600, 400, 0, 100);
+            }
+            m.action(t[0]);
+            t[0] = (t[0] + 1) % 100;
+            return m.getY();
+        };
+    }
+
+    public Runnable particles(int n) {
+        ParticleSystem ps = new ParticleSystem(800, 600, 0);
+        Random rng = new Random(12345);
+        BufferedImage screen = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = screen.createGraphics();
+        int[] t = new int[1];
+        return () -> {
+            while(ps.getCount() < n) {
+                ps.emit(rng.nextDouble() * 800, rng.nextDouble() * 600, rng.nextGaussian(), rng.nextGaussian(),
+                    0, 0.05, 0xFF000000 | rng.nextInt(0x1000000), 2);
+            }
+            ps.action(t[0]);
+            ps.render(g2, t[0]++);
+        };
+    }
+
+    public Runnable motion(int n) {
+        EcsWorld world = new EcsWorld(null, 0);
+        Random rng = new Random(12345);
+        for(int i = 0; i < n; i++) {
+            int h = world.create(rng.nextDouble() * 800, rng.nextDouble() * 600);
+            world.setMotion(h, rng.nextGaussian(), rng.nextGaussian(), 0, 0.001);
+        }
+        int[] t = new int[1];
+        return () -> world.action(t[0]++);
+    }
+
+    // Renders the named game, played for a while first, into an image the way that the panel
+    // of GameEngine is painted, either directly or by replaying its recorded frame.
+    public Runnable render(String name, boolean replay) {
+        Game game;
+        int ticks;
+        switch(name) {
+            case "spacegame": game = new SpaceGame(); ticks = 300; break;
+            case "flappybird": game = new FlappyBird(); ticks = 1000; break;
+            case "ttfe": game = new TTFE(); ticks = 1000; break;
+            default: throw new IllegalArgumentException("Unknown game " + name);
+        }
+        GameSimulation sim = new GameSimulation(game);
+        play(sim, ticks);
+        if(replay) {
+            sim.setRecording(true);
+            sim.tick();
+        }
+        Dimension d = game.getDimension();
+        BufferedImage image = new BufferedImage(d.width, d.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = image.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.setBackground(Color.BLACK);
+        return () -> {
+            g2.clearRect(0, 0, d.width, d.height);
+            sim.render(g2, 0.5);
+        };
+    }
+
+    // Plays the game for the given number of time frames, pressing the mouse and the arrow
+    // keys at random every so often, the same way as the main method of GameSimulation.
+    private static void play(GameSimulation sim, int ticks) {
+        Dimension d = sim.getGame().getDimension();
+        Random rng = new Random(12345);
+        for(int t = 0; t < ticks; t++) {
+            if(rng.nextInt(10) == 0) {
+                int x = rng.nextInt(d.width), y = rng.nextInt(d.height);
+                sim.mouseMoved(x, y);
+                sim.mousePressed(x, y);
+                sim.mouseReleased(x, y);
+            }
+            if(rng.nextInt(10) == 0) {
+                int kc = KeyEvent.VK_LEFT + rng.nextInt(4);
+                sim.keyPressed(kc, KeyEvent.CHAR_UNDEFINED);
+                sim.keyReleased(kc, KeyEvent.CHAR_UNDEFINED);
+            }
+            sim.tick();
+        }
+    }
+
+    // A game of n squares that bounce around the screen and look for their collisions.
+    private static class Swarm implements Game, Level {
+        private static final int WIDTH = 800, HEIGHT = 600;
+        private final int n;
+        private GameHooks hooks;
+
+        public Swarm(int n) { this.n = n; }
+
+        public String getTitle() { return "Swarm of " + n; }
+        public String getAuthor() { return "Benchmarks"; }
+        public Dimension getDimension() { return new Dimension(WIDTH, HEIGHT); }
+        public void terminate() { }
+
+        public java.util.List<Level> startNewGame(GameHooks hooks) {
+            this.hooks = hooks;
+            return Arrays.asList(new Level[] { this });
+        }
+
+        public void initialize(int t) {
+            Random rng = new Random(42);
+            hooks.reserveEntities(n);
+            for(int i = 0; i < n; i++) {
+                Square s = new Square();
+                s.setX(rng.nextDouble() * WIDTH);
+                s.setY(rng.nextDouble() * HEIGHT);
+                s.setVX(rng.nextGaussian());
+                s.setVY(rng.nextGaussian());
+                hooks.addEntity(s);
+            }
+        }
+
+        public boolean isCompleted(int t) { return false; }
+        public void action(int t) { }
+
+        private class Square extends NewtonEntity {
+            private int hits;
+
+            public Shape getShape(int t) { return new Rectangle2D.Double(getX(), getY(), 6, 6); }
+            public void render(Graphics2D g2, int t) { g2.fill(hooks.getShape(this)); }
+
+            public void action(int t) {
+                hits += hooks.getCollisions(this, null).size();
+                super.action(t);
+                if(getX() < 0 || getX() > WIDTH) { setVX(-getVX()); }
+                if(getY() < 0 || getY() > HEIGHT) { setVY(-getVY()); }
+            }
+
+            public boolean isActive() { return true; }
+            public void sendMessage(Entity source, String msg) { }
+            public int getZ() { return 0; }
+        }
+    }
+
+    private static class Mover extends BezierEntity {
+        public Shape getShape(int t) { return new Rectangle2D.Double(getX(), getY(), 1, 1); }
+        public void render(Graphics2D g2, int t) { }
+        public boolean isActive() { return true; }
+        public void sendMessage(Entity source, String msg) { }
+        public int getZ() { return 0; }
+    }
+}
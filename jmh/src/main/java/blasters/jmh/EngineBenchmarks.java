@@ -0,0 +1,119 @@
+package blasters.jmh;
+
+import java.util.concurrent.*;
+import java.util.function.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/* Microbenchmarks of the hot paths of the game engine, whose setups are in Scenarios.
+ * Build them and run them from the top of the repository, so that the games find their
+ * images, with the allocation profiler on:
+ *
+ *     mvn -B package
+ *     java -jar jmh/target/benchmarks.jar -prof gc
+ *
+ * The file jmh/baseline.txt holds the results of the current engine with the profiler on,
+ * so that a change that adds allocations to a path that had none shows up in its B/op even
+ * when it does not yet show in the time. The times depend on the machine, so the baseline
+ * is only comparable with runs on the machine that it was made on.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class EngineBenchmarks {
+
+    private static final Scenarios SCENARIOS = Scenarios.load();
+
+    @State(Scope.Thread)
+    public static class Swarm {
+        @Param({"100", "1000", "10000"})
+        public int entities;
+        IntSupplier tick;
+
+        @Setup
+        public void setUp() { tick = SCENARIOS.tick(entities); }
+    }
+
+    @State(Scope.Thread)
+    public static class SpaceGameMix {
+        IntSupplier collisions;
+        Supplier<Object> shapes;
+
+        @Setup
+        public void setUp() {
+            collisions = SCENARIOS.collisions();
+            shapes = SCENARIOS.shapes();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Bezier {
+        DoubleSupplier action;
+
+        @Setup
+        public void setUp() { action = SCENARIOS.bezier(); }
+    }
+
+    @State(Scope.Thread)
+    public static class Particles {
+        @Param({"10000", "100000"})
+        public int particles;
+        Runnable frame;
+
+        @Setup
+        public void setUp() { frame = SCENARIOS.particles(particles); }
+    }
+
+    // The motion system uses the Vector API only if incubator/VectorMotion.java has been
+    // compiled onto the class path and the forks are run with the option
+    // -jvmArgsAppend --add-modules=jdk.incubator.vector, and a plain loop otherwise.
+    @State(Scope.Thread)
+    public static class Motion {
+        @Param({"10000", "100000"})
+        public int rows;
+        Runnable frame;
+
+        @Setup
+        public void setUp() { frame = SCENARIOS.motion(rows); }
+    }
+
+    @State(Scope.Thread)
+    public static class Rendering {
+        @Param({"spacegame", "flappybird", "ttfe"})
+        public String game;
+        Runnable render, replay;
+
+        @Setup
+        public void setUp() {
+            render = SCENARIOS.render(game, false);
+            replay = SCENARIOS.render(game, true);
+        }
+    }
+
+    @Benchmark
+    public void tick(Swarm s, Blackhole bh) { bh.consume(s.tick.getAsInt()); }
+
+    @Benchmark
+    public void collisions(SpaceGameMix s, Blackhole bh) { bh.consume(s.collisions.getAsInt()); }
+
+    @Benchmark
+    public void shape(SpaceGameMix s, Blackhole bh) { bh.consume(s.shapes.get()); }
+
+    @Benchmark
+    public void bezierAction(Bezier s, Blackhole bh) { bh.consume(s.action.getAsDouble()); }
+
+    @Benchmark
+    public void particles(Particles s) { s.frame.run(); }
+
+    @Benchmark
+    public void motion(Motion s) { s.frame.run(); }
+
+    @Benchmark
+    public void render(Rendering s) { s.render.run(); }
+
+    @Benchmark
+    public void replay(Rendering s) { s.replay.run(); }
+}
@@ -0,0 +1,44 @@
+package blasters.jmh;
+
+import java.util.function.*;
+
+/* The setups of the benchmarks, each of which returns an operation that runs one operation
+ * of its benchmark. The engine lives in the unnamed package, which the classes of a named
+ * package cannot refer to, so the setups are implemented by BenchmarkScenarios in the
+ * unnamed package, and the benchmarks call them through this interface. That way the
+ * compiler checks every call, and only the one class name is looked up at run time.
+ */
+
+public interface Scenarios {
+
+    // One time frame of a game of n entities that look for their collisions.
+    public IntSupplier tick(int n);
+
+    // One collision query and one shape of the entities of a busy SpaceGame.
+    public IntSupplier collisions();
+    public Supplier<Object> shapes();
+
+    // One time frame of an entity moving along a Bezier path.
+    public DoubleSupplier bezier();
+
+    // One time frame of a particle system of n particles, moving them and drawing them
+    // into an image, with the particles that left the screen respawned.
+    public Runnable particles(int n);
+
+    // One time frame of the motion system of an ECS world of n moving rows.
+    public Runnable motion(int n);
+
+    // Renders the named game, spacegame, flappybird or ttfe, directly or by replaying its
+    // recorded frame.
+    public Runnable render(String game, boolean replay);
+
+    // The implementation in the unnamed package.
+    public static Scenarios load() {
+        try {
+            return (Scenarios)Class.forName("BenchmarkScenarios").getDeclaredConstructor().newInstance();
+        }
+        catch(ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load the benchmark scenarios", e);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/* Checks the formulas of Narrowphase against the intersection of java.awt.geom.Area
+ * objects, for a corpus of shape pairs, for a batch of random pairs, and for sprite masks.
+ */
+
+public class NarrowphaseTest {
+
+    // Shape pairs that a correct test must get right, including the shapes of the example
+    // games, touching edges that do not count as collisions, and fallbacks to Area.
+    private static Shape[][] corpus() {
+        Area ttfe = new Area(new Rectangle2D.Double(0, 0, 100, 100));
+        ttfe.subtract(new Area(new Ellipse2D.Double(30, 30, 40, 40)));
+        return new Shape[][] {
+            { new Rectangle2D.Double(0, 0, 10, 10), new Rectangle2D.Double(5, 5, 10, 10) },
+            { new Rectangle2D.Double(0, 0, 10, 10), new Rectangle2D.Double(10, 0, 10, 10) },
+            { new Rectangle2D.Double(0, 0, 10, 10), new Rectangle2D.Double(0, 10.5, 10, 10) },
+            { new Rectangle2D.Double(0, 0, 10, 10), new Rectangle2D.Double(2, 2, 3, 3) },
+            { new Rectangle2D.Double(0, 0, 0, 10), new Rectangle2D.Double(-5, -5, 20, 20) },
+            { new Rectangle2D.Double(0, 0, 10, 10), new Ellipse2D.Double(9, 9, 10, 10) },
+            { new Rectangle2D.Double(0, 0, 10, 10), new Ellipse2D.Double(10, 0, 10, 10) },
+            { new Rectangle2D.Double(0, 0, 10, 10), new Ellipse2D.Double(12, 12, 10, 10) },
+            { new Rectangle2D.Double(0, 0, 10, 10), new Ellipse2D.Double(5, -3, 10, 10) },
+            { new Rectangle2D.Double(0, 0, 100, 100), new Ellipse2D.Double(40, 40, 10, 10) },
+            { new Ellipse2D.Double(0, 0, 10, 10), new Ellipse2D.Double(9, 0, 10, 10) },
+            { new Ellipse2D.Double(0, 0, 10, 10), new Ellipse2D.Double(8, 8, 10, 10) },
+            { new Ellipse2D.Double(0, 0, 10, 10), new Ellipse2D.Double(6, 6, 10, 10) },
+            { new Ellipse2D.Double(0, 0, 20, 10), new Ellipse2D.Double(15, 0, 10, 10) },
+            { new RoundRectangle2D.Double(0, 0, 50, 50, 5, 5), new Rectangle2D.Double(49, 49, 4, 10) },
+            { new RoundRectangle2D.Double(0, 0, 50, 50, 5, 5), new Rectangle2D.Double(49.5, 49.5, 4, 10) },
+            { new RoundRectangle2D.Double(0, 0, 50, 50, 5, 5), new RoundRectangle2D.Double(45, 45, 50, 50, 5, 5) },
+            { new RoundRectangle2D.Double(0, 0, 50, 50, 20, 20), new Ellipse2D.Double(46, 46, 10, 10) },
+            { new RoundRectangle2D.Double(0, 0, 50, 50, 20, 20), new Ellipse2D.Double(50, 20, 10, 10) },
+            { new RoundRectangle2D.Double(0, 0, 50, 50, 30, 10), new Rectangle2D.Double(48, 48, 10, 10) },
+            { triangle(10, -480, 480, 480), new Rectangle2D.Double(248, -10, 4, 10) },
+            { triangle(10, -480, 480, 480), new Rectangle2D.Double(20, -10, 4, 10) },
+            { triangle(10, -480, 480, 480), new Rectangle2D.Double(250, 0, 4, 10) },
+            { triangle(10, -480, 480, 480), new Rectangle2D.Double(-100, -500, 600, 20) },
+            { triangle(0, 0, 100, 100), new Ellipse2D.Double(-10, 40, 20, 20) },
+            { triangle(0, 0, 100, 100), new Ellipse2D.Double(80, 80, 20, 20) },
+            { triangle(0, 0, 100, 100), new Ellipse2D.Double(45, -10, 20, 20) },
+            { triangle(0, 0, 100, 100), new RoundRectangle2D.Double(90, 90, 50, 50, 5, 5) },
+            { triangle(0, 0, 100, 100), triangle(50, 50, 100, 100) },
+            { triangle(0, 0, 100, 100), triangle(100, 0, 100, 100) },
+            { triangle(0, 0, 100, 100), triangle(0, 101, 100, 100) },
+            { ttfe, new Rectangle2D.Double(45, 45, 10, 10) },
+            { ttfe, new Rectangle2D.Double(25, 25, 10, 10) },
+            { ttfe, new Ellipse2D.Double(0, 0, 10, 10) },
+        };
+    }
+
+    @Test
+    public void corpusAgreesWithArea() {
+        for(Shape[] pair: corpus()) {
+            for(int k = 0; k < 2; k++) {
+                Shape a = pair[k], b = pair[1 - k];
+                assertEquals(Narrowphase.areas(a, b), Narrowphase.intersects(a, b), a + " and " + b);
+            }
+        }
+    }
+
+    // The random pairs are generated three times, with curved parts slightly shrunk and
+    // grown, and only the pairs whose result does not depend on that are compared, since
+    // Area approximates circular arcs with cubic curves.
+    @Test
+    public void randomPairsAgreeWithArea() {
+        Random rng = new Random(12345);
+        int checked = 0;
+        for(int i = 0; i < 100000; i++) {
+            long s = rng.nextLong();
+            Shape a = randomShape(new Random(s), 1), b = randomShape(new Random(~s), 1);
+            boolean small = Narrowphase.intersects(randomShape(new Random(s), 0.999), randomShape(new Random(~s), 0.999));
+            boolean large = Narrowphase.intersects(randomShape(new Random(s), 1.001), randomShape(new Random(~s), 1.001));
+            if(small != large) { continue; }
+            checked++;
+            assertEquals(Narrowphase.areas(a, b), Narrowphase.intersects(a, b), a + " and " + b);
+        }
+        assertTrue(checked > 99000, "Only " + checked + " random pairs checked");
+    }
+
+    // Sprite masks are compared to the Area made of their solid pixels.
+    @Test
+    public void masksAgreeWithTheirPixels() {
+        Random rng = new Random(54321);
+        for(int i = 0; i < 500; i++) {
+            MaskShape m = randomMask(rng);
+            Shape b = rng.nextInt(3) == 0 ? randomMask(rng) : randomShape(rng, 1);
+            Area ma = maskArea(m);
+            Area mb = b instanceof MaskShape ? maskArea((MaskShape)b) : new Area(b);
+            ma.intersect(mb);
+            if(b instanceof Ellipse2D && Narrowphase.intersects(m, b) != Narrowphase.intersects(m, grow(b, 0.999))) { continue; }
+            assertEquals(!ma.isEmpty(), Narrowphase.intersects(m, b), "Mask at " + m.getFrame() + " and " + b);
+        }
+    }
+
+    private static Polygon triangle(double x, double y, double width, double height) {
+        Polygon p = new Polygon(); // the same way as the Sierpinski triangles in SpaceGame
+        p.addPoint((int)x, (int)y);
+        p.addPoint((int)(x + width), (int)y);
+        p.addPoint((int)(x + width / 2), (int)(y + height));
+        return p;
+    }
+
+    private static Shape randomShape(Random rng, double scale) {
+        double x = rng.nextInt(100), y = rng.nextInt(100);
+        double w = rng.nextInt(60) + 1, h = rng.nextInt(60) + 1;
+        switch(rng.nextInt(4)) {
+            case 0: return new Rectangle2D.Double(x, y, w, h);
+            case 1: return new Ellipse2D.Double(x, y, w * scale, w * scale);
+            case 2: double arc = rng.nextInt((int)Math.min(w, h) + 1);
+                    return new RoundRectangle2D.Double(x, y, w, h, arc * scale, arc * scale);
+            default: Polygon p = new Polygon();
+                    double a = rng.nextDouble() * 2 * Math.PI;
+                    for(int i = 0; i < 3 + rng.nextInt(4); i++) {
+                        a += 0.3 + rng.nextDouble() * 0.9;
+                        p.addPoint((int)(x + w * Math.cos(a)), (int)(y + w * Math.sin(a)));
+                    }
+                    return p;
+        }
+    }
+
+    private static MaskShape randomMask(Random rng) {
+        int w = rng.nextInt(80) + 1, h = rng.nextInt(12) + 1;
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        for(int y = 0; y < h; y++) {
+            for(int x = 0; x < w; x++) {
+                if(rng.nextInt(4) == 0) { img.setRGB(x, y, 0xFFFFFFFF); }
+            }
+        }
+        return new MaskShape(new CollisionMask(img), rng.nextInt(100) + rng.nextDouble(), rng.nextInt(100));
+    }
+
+    private static Area maskArea(MaskShape m) {
+        Area a = new Area();
+        for(int y = 0; y < m.getMask().getHeight(); y++) {
+            for(int x = 0; x < m.getMask().getWidth(); x++) {
+                if(m.getMask().get(x, y)) { a.add(new Area(new Rectangle2D.Double(m.getX() + x, m.getY() + y, 1, 1))); }
+            }
+        }
+        return a;
+    }
+
+    private static Shape grow(Shape s, double scale) {
+        Ellipse2D e = (Ellipse2D)s;
+        return new Ellipse2D.Double(e.getCenterX() - e.getWidth() * scale / 2, e.getCenterY() - e.getHeight() * scale / 2,
+            e.getWidth() * scale, e.getHeight() * scale);
+    }
+}
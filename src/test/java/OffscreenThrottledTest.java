@@ -0,0 +1,90 @@
+import java.awt.*;
+import java.awt.geom.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/* Checks that the entities that fall into the screen from above it, where they act only now
+ * and then, fall through it exactly as their twins that act every time frame, and are
+ * removed once they have fallen out of the bottom.
+ */
+
+public class OffscreenThrottledTest {
+
+    private static final int SIZE = 400, PAIRS = 20;
+
+    // A small square that falls until it has fallen out of the bottom of the screen.
+    private static class Faller extends NewtonEntity {
+        boolean seen, removed;
+        public Shape getShape(int t) { return new Rectangle2D.Double(getX(), getY(), 4, 4); }
+        public void render(Graphics2D g2, int t) { }
+        public void action(int t) {
+            super.action(t);
+            if(getY() > 0 && getY() < SIZE) { seen = true; }
+        }
+        public boolean isActive() { return getY() < SIZE + 100; }
+        public void onRemoved(int t) { removed = true; }
+        public void sendMessage(Entity source, String msg) { }
+        public int getZ() { return 0; }
+    }
+
+    private static class ThrottledFaller extends Faller implements OffscreenThrottled { }
+
+    // Each pair is a throttled faller followed by its twin that acts every time frame.
+    private final ArrayList<Faller> fallers = new ArrayList<Faller>();
+
+    private GameSimulation simulation() {
+        return new GameSimulation(new Game() {
+            public String getTitle() { return "Throttle check"; }
+            public String getAuthor() { return "OffscreenThrottledTest"; }
+            public Dimension getDimension() { return new Dimension(SIZE, SIZE); }
+            public void terminate() { }
+            public java.util.List<Level> startNewGame(GameHooks hooks) {
+                return Arrays.asList(new Level[] { new Level() {
+                    public void initialize(int t) { }
+                    public boolean isCompleted(int t) { return false; }
+                    // Half of the pairs start with the game, the rest arrive later.
+                    public void action(int t) {
+                        if(t == 1 || t == 37) {
+                            for(int i = 0; i < PAIRS / 2; i++) {
+                                Faller a = new ThrottledFaller(), b = new Faller();
+                                a.setX(20 * i); b.setX(20 * i);
+                                a.setY(-100 - 10 * i); b.setY(-100 - 10 * i);
+                                a.setVY(0.5 + 0.1 * i); b.setVY(0.5 + 0.1 * i);
+                                a.setAY(0.01); b.setAY(0.01);
+                                hooks.addEntity(a); hooks.addEntity(b);
+                                fallers.add(a); fallers.add(b);
+                            }
+                        }
+                    }
+                } });
+            }
+        });
+    }
+
+    @Test
+    public void throttledFallersMatchTheirTwinsOnScreen() {
+        GameSimulation sim = simulation();
+        for(int t = 0; t < 1000; t++) {
+            sim.tick();
+            for(int i = 0; i + 1 < fallers.size(); i += 2) {
+                Faller a = fallers.get(i), b = fallers.get(i + 1);
+                if(a.getY() > 0 && a.getY() < SIZE) {
+                    assertEquals(b.getY(), a.getY(), 1e-6, "Faller " + i / 2 + " at time " + sim.getTime());
+                }
+            }
+        }
+        assertEquals(2 * PAIRS, fallers.size());
+    }
+
+    @Test
+    public void throttledFallersFallThroughTheScreen() {
+        GameSimulation sim = simulation();
+        sim.run(1000);
+        for(int i = 0; i < fallers.size(); i += 2) {
+            Faller a = fallers.get(i);
+            assertTrue(a.seen, "Faller " + i / 2 + " never fell into the screen");
+            assertTrue(a.removed, "Faller " + i / 2 + " was never removed");
+        }
+    }
+}